@@ -0,0 +1,95 @@
+package plc.compiler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each phase of the compiler, and of all of them together, on
+ * a program of repeated blocks of declarations, assignments, prints, ifs and
+ * whiles. The expressions are the ones the analyzer accepts, with literal
+ * operands and conditions.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+
+    /**
+     * The number of blocks, each of which has six statements.
+     */
+    @Param({"10", "1000"})
+    public int blocks;
+
+    private String source;
+    private List<Token> tokens;
+    private Ast.Source parsed;
+    private Ast analyzed;
+
+    @Setup
+    public void setup() {
+        source = source(blocks);
+        tokens = Lexer.lex(source);
+        parsed = (Ast.Source) Parser.parse(tokens);
+        analyzed = new Analyzer(new Scope(null)).visit(parsed);
+    }
+
+    @Benchmark
+    public List<Token> lex() {
+        return Lexer.lex(source);
+    }
+
+    @Benchmark
+    public Ast parse() {
+        return Parser.parse(tokens);
+    }
+
+    @Benchmark
+    public Ast analyze() {
+        return new Analyzer(new Scope(null)).visit(parsed);
+    }
+
+    @Benchmark
+    public String generate() {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(analyzed);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String compile() {
+        Ast ast = new Analyzer(new Scope(null)).visit((Ast.Source) Parser.parse(Lexer.lex(source)));
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(ast);
+        return writer.toString();
+    }
+
+    static String source(int blocks) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < blocks; i++) {
+            builder.append("LET x").append(i).append(" : INTEGER = ").append(i).append(";\n");
+            builder.append("LET s").append(i).append(" : STRING = \"value\";\n");
+            builder.append("x").append(i).append(" = 1 + 2;\n");
+            builder.append("PRINT(s").append(i).append(");\n");
+            builder.append("IF TRUE THEN\n    PRINT(\"yes\");\nELSE\n    PRINT(\"no\");\nEND\n");
+            builder.append("WHILE FALSE DO\n    x").append(i).append(" = 4 - 1;\nEND\n");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,154 @@
+package plc.interpreter;
+
+import java.util.Random;
+
+/**
+ * A generator of synthetic Whisp sources for benchmarking the lexer and
+ * parser. The output depends only on the parameters, so a seed always gives
+ * the same source.
+ *
+ * Sources are a sequence of top-level terms, one per line. Each term has one
+ * to four arguments, each of which is a nested term with probability
+ * {@code nesting / arguments} (so a term has {@code nesting} nested terms on
+ * average, and sources stay finite for {@code nesting <= 1}) until the
+ * maximum depth, and otherwise a number, string or identifier in the given
+ * proportions. Names are drawn from a vocabulary of {@code identifiers}
+ * distinct identifiers.
+ */
+public final class Corpus {
+
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyz";
+    private static final String SYMBOLS = "-?!*<>=";
+    private static final String PRINTABLE = " abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.,;:()[]{}+-*/=<>?!";
+    private static final String[] ESCAPES = {"\\n", "\\t", "\\r", "\\b", "\\'", "\\\"", "\\\\"};
+
+    private final long seed;
+    private final int maxDepth;
+    private final double nesting;
+    private final String[] vocabulary;
+    private final double numbers;
+    private final double strings;
+    private final int stringLength;
+    private final double escapes;
+
+    /**
+     * Creates a generator where {@code numbers} and {@code strings} are the
+     * proportions of atoms which are those literals (the rest are
+     * identifiers), string literals have an average of {@code stringLength}
+     * characters, and each character is an escape sequence with probability
+     * {@code escapes}.
+     */
+    public Corpus(long seed, int maxDepth, double nesting, int identifiers,
+                  double numbers, double strings, int stringLength, double escapes) {
+        if (maxDepth < 1 || identifiers < 1 || stringLength < 0) {
+            throw new IllegalArgumentException("The depth and identifiers must be positive, and the string length can't be negative.");
+        } else if (nesting < 0 || nesting > 1 || numbers < 0 || strings < 0 || numbers + strings > 1 || escapes < 0 || escapes > 1) {
+            throw new IllegalArgumentException("Probabilities must be between 0 and 1.");
+        }
+        this.seed = seed;
+        this.maxDepth = maxDepth;
+        this.nesting = nesting;
+        this.numbers = numbers;
+        this.strings = strings;
+        this.stringLength = stringLength;
+        this.escapes = escapes;
+        Random random = new Random(seed);
+        this.vocabulary = new String[identifiers];
+        for (int i = 0; i < identifiers; i++) {
+            StringBuilder name = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                //names start with a letter, and sometimes contain symbols like define-all!
+                String from = j > 0 && random.nextInt(8) == 0 ? SYMBOLS : CHARACTERS;
+                name.append(from.charAt(random.nextInt(from.length())));
+            }
+            vocabulary[i] = name.toString();
+        }
+    }
+
+    /**
+     * Returns a generator of code with a typical mix of literals and shallow
+     * nesting.
+     */
+    public static Corpus typical(long seed) {
+        return new Corpus(seed, 12, 0.6, 500, 0.3, 0.1, 12, 0.02);
+    }
+
+    /**
+     * Returns a generator of code made mostly of long strings full of escape
+     * sequences, the slowest path through the lexer.
+     */
+    public static Corpus strings(long seed) {
+        return new Corpus(seed, 1, 0, 16, 0, 0.9, 2048, 0.5);
+    }
+
+    /**
+     * Returns a generator of code where every term is a chain of nested
+     * terms as deep as the maximum depth.
+     */
+    public static Corpus deep(long seed, int depth) {
+        return new Corpus(seed, depth, 1, 16, 0.5, 0, 0, 0);
+    }
+
+    /**
+     * Generates whole top-level terms until the source is at least the given
+     * number of characters long.
+     */
+    public String generate(int length) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(length + 1024);
+        while (builder.length() < length) {
+            term(random, builder, 1);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private void term(Random random, StringBuilder builder, int depth) {
+        builder.append('(').append(identifier(random));
+        int arguments = 1 + random.nextInt(4);
+        //with nesting 1 exactly one argument is nested, so the term is a chain
+        int chained = nesting == 1 ? random.nextInt(arguments) : -1;
+        for (int i = 0; i < arguments; i++) {
+            builder.append(' ');
+            boolean nested = nesting == 1 ? i == chained : random.nextDouble() < nesting / arguments;
+            if (nested && depth < maxDepth) {
+                term(random, builder, depth + 1);
+            } else {
+                atom(random, builder);
+            }
+        }
+        builder.append(')');
+    }
+
+    private void atom(Random random, StringBuilder builder) {
+        double kind = random.nextDouble();
+        if (kind < numbers) {
+            if (random.nextInt(4) == 0) {
+                builder.append('-');
+            }
+            builder.append(random.nextInt(100_000));
+            if (random.nextInt(3) == 0) {
+                builder.append('.').append(random.nextInt(1000));
+            }
+        } else if (kind < numbers + strings) {
+            builder.append('"');
+            int length = stringLength == 0 ? 0 : random.nextInt(2 * stringLength + 1);
+            for (int i = 0; i < length; i++) {
+                if (random.nextDouble() < escapes) {
+                    builder.append(ESCAPES[random.nextInt(ESCAPES.length)]);
+                } else {
+                    builder.append(PRINTABLE.charAt(random.nextInt(PRINTABLE.length())));
+                }
+            }
+            builder.append('"');
+        } else {
+            builder.append(identifier(random));
+        }
+    }
+
+    private String identifier(Random random) {
+        return vocabulary[random.nextInt(vocabulary.length)];
+    }
+
+}
@@ -0,0 +1,96 @@
+package plc.interpreter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link Lexer#lex(String)} and {@link Parser#parse(List)} on
+ * sources from a {@link Corpus}, reported in megabytes (2^20 characters)
+ * and tokens per second along with operations per second.
+ *
+ * The shapes are {@code typical} code, {@code strings} full of escapes, and
+ * {@code deep} terms nested 10,000 levels, which needs the larger thread
+ * stack the fork is given. Sources are at least the given size, so deep
+ * sources are never smaller than one whole term. 100MB sources are run by
+ * {@link FrontEndLargeBenchmark} instead.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class FrontEndBenchmark {
+
+    public static final long SEED = 0x5eed;
+    public static final int DEPTH = 10_000;
+
+    @Param({"1024", "1048576"})
+    public int size;
+
+    @Param({"typical", "strings", "deep"})
+    public String shape;
+
+    private String source;
+    private List<Token> tokens;
+
+    @Setup
+    public void setup() {
+        source = corpus(shape).generate(size);
+        tokens = Lexer.lex(source);
+    }
+
+    /**
+     * The amount of input processed, which JMH reports per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    public static class Processed {
+
+        public double megabytes;
+        public long tokens;
+
+    }
+
+    @Benchmark
+    public List<Token> lex(Processed processed) {
+        List<Token> tokens = Lexer.lex(source);
+        processed.megabytes += source.length() / (double) (1 << 20);
+        processed.tokens += tokens.size();
+        return tokens;
+    }
+
+    @Benchmark
+    public Ast parse(Processed processed) {
+        Ast ast = Parser.parse(tokens);
+        processed.megabytes += source.length() / (double) (1 << 20);
+        processed.tokens += tokens.size();
+        return ast;
+    }
+
+    static Corpus corpus(String shape) {
+        switch (shape) {
+            case "typical":
+                return Corpus.typical(SEED);
+            case "strings":
+                return Corpus.strings(SEED);
+            case "deep":
+                return Corpus.deep(SEED, DEPTH);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape + ".");
+        }
+    }
+
+}
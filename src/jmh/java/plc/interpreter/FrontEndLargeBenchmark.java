@@ -0,0 +1,59 @@
+package plc.interpreter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time {@link Lexer#lex(String)} and {@link Parser#parse(List)} take on
+ * a 100MB source of each {@link FrontEndBenchmark} shape.
+ *
+ * Lexing one takes over a minute, so each iteration times a single
+ * operation, and the fork needs a heap large enough for the source and its
+ * tokens. With three shapes that's still a quarter of an hour, so these
+ * aren't run by a plain {@code ./gradlew jmh}; run them with
+ * {@code -Pjmh.include=FrontEndLargeBenchmark}.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Xss64m"})
+public class FrontEndLargeBenchmark {
+
+    public static final int SIZE = 100 << 20;
+
+    @Param({"typical", "strings", "deep"})
+    public String shape;
+
+    private String source;
+    private List<Token> tokens;
+
+    @Setup
+    public void setup() {
+        source = FrontEndBenchmark.corpus(shape).generate(SIZE);
+        tokens = Lexer.lex(source);
+    }
+
+    @Benchmark
+    public List<Token> lex() {
+        return Lexer.lex(source);
+    }
+
+    @Benchmark
+    public Ast parse() {
+        return Parser.parse(tokens);
+    }
+
+}
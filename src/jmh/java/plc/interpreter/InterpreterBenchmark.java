@@ -0,0 +1,172 @@
+package plc.interpreter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Representative workloads for the interpreter, measured in operations per
+ * second. Run with {@code ./gradlew jmh}, which also reports the allocation
+ * rate with the gc profiler.
+ *
+ * The functions are defined once per trial, so each operation is a single
+ * call which evaluates a fresh body (calls get their own scope, so the
+ * {@code define}s in the bodies don't accumulate).
+ */
+@State(org.openjdk.jmh.annotations.Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    private static final String DEFINITIONS = String.join("\n",
+            "(define (arithmetic n) (do (define i 0) (define s 0)",
+            "    (while (< i n) (do (set! s (+ s (* i i))) (set! i (+ i 1))))",
+            "    s))",
+            "(define (sum-range n) (do (define s 0) (define xs (range 0 n))",
+            "    (for (x xs) (set! s (+ s x)))",
+            "    s))",
+            "(define (inc x) (+ x 1))",
+            "(define (build n) (into (list) (map inc (range 0 n))))",
+            "(define (printer n) (do (define xs (range 0 n))",
+            "    (for (x xs) (print \"line \" x))))",
+            //the same generator suspending on the stack, and on a task since it yields from a function
+            "(define suspended (generator (define i 0) (while true (do (yield i) (set! i (+ i 1))))))",
+            "(define (emit x) (yield x))",
+            "(define handoff (generator (define i 0) (while true (do (emit i) (set! i (+ i 1))))))");
+
+    /**
+     * The number of iterations, elements or lines in each workload.
+     */
+    @Param({"1000"})
+    public int size;
+
+    /**
+     * The depth of the nested {@code do}s, each of which defines a variable.
+     */
+    @Param({"50"})
+    public int depth;
+
+    private Interpreter interpreter;
+    private Ast arithmetic;
+    private Ast sumRange;
+    private Ast nested;
+    private Ast build;
+    private Ast equalLists;
+    private Ast printer;
+    private Ast suspended;
+    private Ast handoff;
+
+    @Setup
+    public void setup() {
+        interpreter = new Interpreter(new PrintWriter(new NullWriter()), new Scope(null));
+        evalAll(DEFINITIONS);
+        evalAll(nested(depth));
+        evalAll("(define xs (range 0 " + size + ")) (define ys (range 0 " + size + "))");
+        arithmetic = parse("(arithmetic " + size + ")");
+        sumRange = parse("(sum-range " + size + ")");
+        nested = parse("(nested)");
+        build = parse("(build " + size + ")");
+        equalLists = parse("(equals? xs ys)");
+        printer = parse("(printer " + size + ")");
+        suspended = parse("(count (take " + size + " suspended))");
+        handoff = parse("(count (take " + size + " handoff))");
+    }
+
+    @Benchmark
+    public Object whileArithmetic() {
+        return interpreter.eval(arithmetic);
+    }
+
+    @Benchmark
+    public Object forRange() {
+        return interpreter.eval(sumRange);
+    }
+
+    @Benchmark
+    public Object nestedDefines() {
+        return interpreter.eval(nested);
+    }
+
+    @Benchmark
+    public Object buildList() {
+        return interpreter.eval(build);
+    }
+
+    @Benchmark
+    public Object equalLargeLists() {
+        return interpreter.eval(equalLists);
+    }
+
+    @Benchmark
+    public Object printLines() {
+        return interpreter.eval(printer);
+    }
+
+    @Benchmark
+    public Object generatorSuspended() {
+        return interpreter.eval(suspended);
+    }
+
+    @Benchmark
+    public Object generatorHandoff() {
+        return interpreter.eval(handoff);
+    }
+
+    /**
+     * Returns a function of nested {@code do}s, where each defines a variable
+     * from the one before it and the innermost returns the last.
+     */
+    static String nested(int depth) {
+        StringBuilder builder = new StringBuilder("(define (nested) ");
+        for (int i = 0; i < depth; i++) {
+            builder.append("(do (define v").append(i).append(i == 0 ? " 0" : " (+ v" + (i - 1) + " 1)").append(") ");
+        }
+        builder.append('v').append(depth - 1);
+        for (int i = 0; i <= depth; i++) {
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    private void evalAll(String source) {
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            interpreter.eval(form);
+        }
+    }
+
+    private static Ast parse(String source) {
+        return ((Ast.Term) Parser.parse(source)).getArgs().get(0);
+    }
+
+    /**
+     * Discards the output of {@code print}, so it measures formatting rather
+     * than I/O.
+     */
+    private static final class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+    }
+
+}
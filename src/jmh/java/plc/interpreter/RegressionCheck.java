@@ -0,0 +1,490 @@
+package plc.interpreter;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Compares a run of the benchmarks against a stored baseline, both in JMH's
+ * JSON result format, and reports the benchmarks which got worse.
+ *
+ * Each benchmark's score, and its normalized allocation rate if it was run
+ * with the gc profiler, is compared with Welch's t-test on the scores of the
+ * individual iterations. A benchmark regressed if the difference is
+ * significant at the confidence level and it got worse by more than its
+ * threshold, a fraction of the baseline score. Thresholds default to
+ * {@link #DEFAULT_THRESHOLD}, and can be set per benchmark in a properties
+ * file whose keys are prefixes of benchmark names (the longest one wins).
+ *
+ * Usage: {@code RegressionCheck <baseline.json> <results.json>
+ * [--threshold 0.05] [--confidence 0.99] [--thresholds file]}. Exits with 1
+ * if anything regressed, and 2 if the arguments or files are invalid.
+ */
+public final class RegressionCheck {
+
+    public static final double DEFAULT_THRESHOLD = 0.05;
+    public static final double DEFAULT_CONFIDENCE = 0.99;
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private final double threshold;
+    private final double confidence;
+    private final Map<String, Double> thresholds;
+
+    public RegressionCheck(double threshold, double confidence, Map<String, Double> thresholds) {
+        if (threshold < 0 || confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("The threshold can't be negative, and the confidence must be between 0 and 1.");
+        }
+        this.threshold = threshold;
+        this.confidence = confidence;
+        this.thresholds = new TreeMap<>(thresholds);
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length < 2) {
+                throw new IllegalArgumentException("Usage: RegressionCheck <baseline.json> <results.json> "
+                        + "[--threshold fraction] [--confidence level] [--thresholds file]");
+            }
+            double threshold = DEFAULT_THRESHOLD;
+            double confidence = DEFAULT_CONFIDENCE;
+            Map<String, Double> thresholds = new TreeMap<>();
+            for (int i = 2; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing a value for " + args[i] + ".");
+                } else if (args[i].equals("--threshold")) {
+                    threshold = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("--confidence")) {
+                    confidence = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("--thresholds")) {
+                    thresholds = readThresholds(Paths.get(args[i + 1]));
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                }
+            }
+            RegressionCheck check = new RegressionCheck(threshold, confidence, thresholds);
+            List<Comparison> comparisons = check.compare(read(Paths.get(args[0])), read(Paths.get(args[1])));
+            long regressed = comparisons.stream().filter(Comparison::isRegression).count();
+            check.report(comparisons, System.out);
+            System.exit(regressed > 0 ? 1 : 0);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Reads the metrics of each benchmark in a JMH JSON result file, by a key
+     * of the benchmark's name, parameters and mode.
+     */
+    static Map<String, Metric> read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("There's no benchmark result file at " + file + ".");
+        }
+        Object json = Json.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Map<String, Metric> metrics = new LinkedHashMap<>();
+        for (Object element : list(json)) {
+            Map<String, Object> result = map(element);
+            String mode = string(result.get("mode"));
+            String key = result.get("benchmark") + (result.containsKey("params") ? " " + map(result.get("params")) : "") + " " + mode;
+            Map<String, Object> primary = map(result.get("primaryMetric"));
+            metrics.put(key, new Metric(key, string(primary.get("scoreUnit")), mode.equals("thrpt"), samples(primary)));
+            if (result.containsKey("secondaryMetrics")) {
+                for (Map.Entry<String, Object> secondary : map(result.get("secondaryMetrics")).entrySet()) {
+                    if (secondary.getKey().endsWith(ALLOCATION)) {
+                        Map<String, Object> allocation = map(secondary.getValue());
+                        String name = key + " " + ALLOCATION;
+                        metrics.put(name, new Metric(name, string(allocation.get("scoreUnit")), false, samples(allocation)));
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Compares each metric in the results with the same one in the baseline,
+     * in the order of the results followed by any metrics missing from them.
+     */
+    List<Comparison> compare(Map<String, Metric> baseline, Map<String, Metric> results) {
+        List<Comparison> comparisons = new ArrayList<>();
+        for (Metric metric : results.values()) {
+            comparisons.add(new Comparison(baseline.get(metric.name), metric, thresholdOf(metric.name)));
+        }
+        for (Metric metric : baseline.values()) {
+            if (!results.containsKey(metric.name)) {
+                comparisons.add(new Comparison(metric, null, thresholdOf(metric.name)));
+            }
+        }
+        return comparisons;
+    }
+
+    void report(List<Comparison> comparisons, PrintStream out) {
+        long regressed = 0;
+        for (Comparison comparison : comparisons) {
+            out.println(comparison);
+            if (comparison.isRegression()) {
+                regressed++;
+            }
+        }
+        out.println(regressed == 0
+                ? "No regressions at " + confidence * 100 + "% confidence."
+                : regressed + " of " + comparisons.size() + " metrics regressed at " + confidence * 100 + "% confidence.");
+    }
+
+    private double thresholdOf(String name) {
+        String longest = null;
+        for (String prefix : thresholds.keySet()) {
+            if (name.startsWith(prefix) && (longest == null || prefix.length() > longest.length())) {
+                longest = prefix;
+            }
+        }
+        return longest != null ? thresholds.get(longest) : threshold;
+    }
+
+    private static Map<String, Double> readThresholds(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, Double> thresholds = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            thresholds.put(name, Double.parseDouble(properties.getProperty(name)));
+        }
+        return thresholds;
+    }
+
+    private static double[] samples(Map<String, Object> metric) {
+        List<Double> samples = new ArrayList<>();
+        if (metric.containsKey("rawData")) {
+            for (Object fork : list(metric.get("rawData"))) {
+                for (Object score : list(fork)) {
+                    samples.add(number(score));
+                }
+            }
+        } else {
+            //sample mode only has histograms, so fall back to the score alone
+            samples.add(number(metric.get("score")));
+        }
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("Expected scores in the benchmark results.");
+        }
+        return samples.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object json) {
+        if (!(json instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object in the benchmark results.");
+        }
+        return (Map<String, Object>) json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object json) {
+        if (!(json instanceof List)) {
+            throw new IllegalArgumentException("Expected a JSON array in the benchmark results.");
+        }
+        return (List<Object>) json;
+    }
+
+    private static String string(Object json) {
+        if (!(json instanceof String)) {
+            throw new IllegalArgumentException("Expected a JSON string in the benchmark results.");
+        }
+        return (String) json;
+    }
+
+    private static double number(Object json) {
+        //JMH writes NaN and infinities as strings
+        if (json instanceof String) {
+            return Double.parseDouble((String) json);
+        } else if (!(json instanceof Double)) {
+            throw new IllegalArgumentException("Expected a JSON number in the benchmark results.");
+        }
+        return (Double) json;
+    }
+
+    /**
+     * The scores of one metric of a benchmark in one run.
+     */
+    static final class Metric {
+
+        private final String name;
+        private final String unit;
+        private final boolean higherIsBetter;
+        private final double[] samples;
+
+        Metric(String name, String unit, boolean higherIsBetter, double[] samples) {
+            this.name = name;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+            this.samples = samples;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        double variance() {
+            double mean = mean();
+            double sum = 0;
+            for (double sample : samples) {
+                sum += (sample - mean) * (sample - mean);
+            }
+            return samples.length > 1 ? sum / (samples.length - 1) : 0;
+        }
+
+    }
+
+    /**
+     * The change in a metric from the baseline to the results, either of
+     * which may be missing.
+     */
+    final class Comparison {
+
+        private final Metric baseline;
+        private final Metric result;
+        private final double threshold;
+
+        private Comparison(Metric baseline, Metric result, double threshold) {
+            this.baseline = baseline;
+            this.result = result;
+            this.threshold = threshold;
+        }
+
+        /**
+         * Returns how much worse the result is, as a fraction of the baseline
+         * (negative if it's better).
+         */
+        double getChange() {
+            double change = (result.mean() - baseline.mean()) / baseline.mean();
+            return result.higherIsBetter ? -change : change;
+        }
+
+        /**
+         * Returns the two-sided p-value of Welch's t-test for the means
+         * being equal, or NaN if either has fewer than two samples.
+         */
+        double getPValue() {
+            if (baseline.samples.length < 2 || result.samples.length < 2) {
+                return Double.NaN;
+            }
+            double error = standardError();
+            if (error == 0) {
+                return baseline.mean() == result.mean() ? 1 : 0;
+            }
+            double t = Math.abs(result.mean() - baseline.mean()) / error;
+            return 2 * (1 - new TDistribution(degreesOfFreedom()).cumulativeProbability(t));
+        }
+
+        boolean isRegression() {
+            return baseline != null && result != null
+                    && getPValue() < 1 - confidence && getChange() > threshold;
+        }
+
+        private double standardError() {
+            return Math.sqrt(baseline.variance() / baseline.samples.length + result.variance() / result.samples.length);
+        }
+
+        private double degreesOfFreedom() {
+            double a = baseline.variance() / baseline.samples.length;
+            double b = result.variance() / result.samples.length;
+            double df = (a + b) * (a + b) / (a * a / (baseline.samples.length - 1) + b * b / (result.samples.length - 1));
+            return Double.isNaN(df) ? baseline.samples.length + result.samples.length - 2 : df;
+        }
+
+        /**
+         * Returns the mean of the metric with the half-width of its confidence
+         * interval.
+         */
+        private String interval(Metric metric) {
+            if (metric.samples.length < 2) {
+                return String.format("%.3f", metric.mean());
+            }
+            double t = new TDistribution(metric.samples.length - 1).inverseCumulativeProbability((1 + confidence) / 2);
+            return String.format("%.3f +- %.3f", metric.mean(), t * Math.sqrt(metric.variance() / metric.samples.length));
+        }
+
+        @Override
+        public String toString() {
+            if (baseline == null) {
+                return "NEW       " + result.name + ": " + interval(result) + " " + result.unit;
+            } else if (result == null) {
+                return "MISSING   " + baseline.name;
+            }
+            String change = String.format("%+.1f%% worse", getChange() * 100);
+            if (!Double.isNaN(getPValue()) && standardError() > 0) {
+                double t = new TDistribution(degreesOfFreedom()).inverseCumulativeProbability((1 + confidence) / 2);
+                double low = getChange() * 100 - t * standardError() / baseline.mean() * 100;
+                double high = getChange() * 100 + t * standardError() / baseline.mean() * 100;
+                change += String.format(" [%+.1f%%, %+.1f%%], p=%.4f", low, high, getPValue());
+            }
+            String status = isRegression() ? "REGRESSED" : getChange() > threshold ? "UNSURE   " : "OK       ";
+            return status + " " + result.name + ": " + interval(baseline) + " -> " + interval(result) + " " + result.unit
+                    + ", " + change + " (threshold " + threshold * 100 + "%)";
+        }
+
+    }
+
+    /**
+     * A minimal reader for the JSON JMH writes, producing maps, lists,
+     * strings, doubles, booleans and nulls.
+     */
+    static final class Json {
+
+        private final String input;
+        private int index = 0;
+
+        private Json(String input) {
+            this.input = input;
+        }
+
+        static Object parse(String input) {
+            Json json = new Json(input);
+            Object value = json.value();
+            json.whitespace();
+            if (json.index != input.length()) {
+                throw json.error("Unexpected content after the JSON value");
+            }
+            return value;
+        }
+
+        private Object value() {
+            whitespace();
+            if (index == input.length()) {
+                throw error("Unexpected end of JSON");
+            }
+            char c = input.charAt(index);
+            if (c == '{') {
+                Map<String, Object> object = new LinkedHashMap<>();
+                index++;
+                whitespace();
+                if (!consume('}')) {
+                    do {
+                        whitespace();
+                        String key = string();
+                        whitespace();
+                        expect(':');
+                        object.put(key, value());
+                        whitespace();
+                    } while (consume(','));
+                    expect('}');
+                }
+                return object;
+            } else if (c == '[') {
+                List<Object> array = new ArrayList<>();
+                index++;
+                whitespace();
+                if (!consume(']')) {
+                    do {
+                        array.add(value());
+                        whitespace();
+                    } while (consume(','));
+                    expect(']');
+                }
+                return array;
+            } else if (c == '"') {
+                return string();
+            } else if (input.startsWith("true", index)) {
+                index += 4;
+                return true;
+            } else if (input.startsWith("false", index)) {
+                index += 5;
+                return false;
+            } else if (input.startsWith("null", index)) {
+                index += 4;
+                return null;
+            }
+            int start = index;
+            while (index < input.length() && "+-0123456789.eE".indexOf(input.charAt(index)) >= 0) {
+                index++;
+            }
+            try {
+                return Double.parseDouble(input.substring(start, index));
+            } catch (NumberFormatException e) {
+                throw error("Expected a JSON value");
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (index < input.length() && input.charAt(index) != '"') {
+                char c = input.charAt(index++);
+                if (c == '\\' && index < input.length()) {
+                    char escaped = input.charAt(index++);
+                    switch (escaped) {
+                        case 'n': builder.append('\n'); break;
+                        case 't': builder.append('\t'); break;
+                        case 'r': builder.append('\r'); break;
+                        case 'b': builder.append('\b'); break;
+                        case 'f': builder.append('\f'); break;
+                        case 'u':
+                            int code = 0;
+                            for (int end = index + 4; index < end; index++) {
+                                int digit = index < input.length() ? Character.digit(input.charAt(index), 16) : -1;
+                                if (digit < 0) {
+                                    throw error("Expected four hex digits");
+                                }
+                                code = code * 16 + digit;
+                            }
+                            builder.append((char) code);
+                            break;
+                        default: builder.append(escaped);
+                    }
+                } else {
+                    builder.append(c);
+                }
+            }
+            expect('"');
+            return builder.toString();
+        }
+
+        private void whitespace() {
+            while (index < input.length() && Character.isWhitespace(input.charAt(index))) {
+                index++;
+            }
+        }
+
+        private boolean consume(char c) {
+            if (index < input.length() && input.charAt(index) == c) {
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at index " + index + " of the benchmark results.");
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class RegressionCheckTests {
+
+    private static final double[] BASELINE = {100, 101, 99, 100, 100};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testJson() {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", Arrays.asList(1.0, -2.5e3, "NaN"));
+        expected.put("b\n\u00e9", Arrays.asList(true, false, null));
+        expected.put("c", Collections.emptyMap());
+        Assertions.assertEquals(expected, RegressionCheck.Json.parse(
+                "{\"a\": [1, -2.5e3, \"NaN\"], \"b\\n\\u00E9\": [true, false, null], \"c\": {}}"));
+        for (String malformed : new String[] {"", "[1,", "{\"a\" 1}", "[1] 2", "\"\\u12\"", "\"\\u12zz\"", "\"\\u-123\"", "[x]"}) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> RegressionCheck.Json.parse(malformed), malformed);
+        }
+    }
+
+    @Test
+    void testRead() throws IOException {
+        Path file = write("[{\"benchmark\": \"b.B.f\", \"mode\": \"thrpt\", \"params\": {\"size\": \"10\"},"
+                + " \"primaryMetric\": {\"score\": 2.0, \"scoreUnit\": \"ops/s\", \"rawData\": [[1.0, 2.0], [3.0]]},"
+                + " \"secondaryMetrics\": {\"\u00b7gc.alloc.rate.norm\": {\"score\": 8.0, \"scoreUnit\": \"B/op\", \"rawData\": [[8.0]]}}}]");
+        Map<String, RegressionCheck.Metric> metrics = RegressionCheck.read(file);
+        Assertions.assertEquals(Arrays.asList("b.B.f {size=10} thrpt", "b.B.f {size=10} thrpt gc.alloc.rate.norm"),
+                Arrays.asList(metrics.keySet().toArray()));
+        Assertions.assertEquals(2.0, metrics.get("b.B.f {size=10} thrpt").mean());
+    }
+
+    @Test
+    void testReadMalformed() throws IOException {
+        String[] malformed = {
+                "{}",
+                "[1]",
+                "[{\"benchmark\": \"f\", \"mode\": 1, \"primaryMetric\": {}}]",
+                "[{\"benchmark\": \"f\", \"mode\": \"thrpt\", \"primaryMetric\": {\"scoreUnit\": \"ops/s\", \"rawData\": [[\"x\"]]}}]",
+                "[{\"benchmark\": \"f\", \"mode\": \"thrpt\", \"primaryMetric\": {\"scoreUnit\": \"ops/s\", \"rawData\": [[true]]}}]",
+                "[{\"benchmark\": \"f\", \"mode\": \"thrpt\", \"primaryMetric\": {\"scoreUnit\": \"ops/s\", \"rawData\": []}}]",
+        };
+        for (String json : malformed) {
+            Path file = write(json);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> RegressionCheck.read(file), json);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RegressionCheck.read(directory.resolve("missing.json")));
+    }
+
+    @Test
+    void testCompare() {
+        RegressionCheck check = new RegressionCheck(0.05, 0.99, Collections.emptyMap());
+        Map<String, RegressionCheck.Metric> baseline = metrics(
+                new RegressionCheck.Metric("slower", "ops/s", true, BASELINE),
+                new RegressionCheck.Metric("faster", "ops/s", true, BASELINE),
+                new RegressionCheck.Metric("noisy", "ops/s", true, BASELINE),
+                new RegressionCheck.Metric("missing", "ops/s", true, BASELINE));
+        Map<String, RegressionCheck.Metric> results = metrics(
+                new RegressionCheck.Metric("slower", "ops/s", true, scaled(0.8)),
+                new RegressionCheck.Metric("faster", "ops/s", true, scaled(1.2)),
+                new RegressionCheck.Metric("noisy", "ops/s", true, new double[] {40, 160, 50, 150, 60}),
+                new RegressionCheck.Metric("new", "ops/s", true, BASELINE));
+        List<RegressionCheck.Comparison> comparisons = check.compare(baseline, results);
+        Assertions.assertEquals(5, comparisons.size());
+        Assertions.assertEquals(0.2, comparisons.get(0).getChange(), 1e-9);
+        Assertions.assertTrue(comparisons.get(0).isRegression());
+        Assertions.assertEquals(-0.2, comparisons.get(1).getChange(), 1e-9);
+        Assertions.assertFalse(comparisons.get(1).isRegression());
+        //worse on average, but not significantly
+        Assertions.assertTrue(comparisons.get(2).getChange() > 0.05);
+        Assertions.assertFalse(comparisons.get(2).isRegression());
+        Assertions.assertTrue(comparisons.get(3).toString().startsWith("NEW"));
+        Assertions.assertTrue(comparisons.get(4).toString().startsWith("MISSING"));
+        Assertions.assertFalse(comparisons.get(4).isRegression());
+    }
+
+    @Test
+    void testLowerIsBetter() {
+        RegressionCheck check = new RegressionCheck(0.05, 0.99, Collections.emptyMap());
+        List<RegressionCheck.Comparison> comparisons = check.compare(
+                metrics(new RegressionCheck.Metric("f", "B/op", false, BASELINE)),
+                metrics(new RegressionCheck.Metric("f", "B/op", false, scaled(1.2))));
+        Assertions.assertEquals(0.2, comparisons.get(0).getChange(), 1e-9);
+        Assertions.assertTrue(comparisons.get(0).isRegression());
+    }
+
+    @Test
+    void testPValue() {
+        RegressionCheck check = new RegressionCheck(0.05, 0.99, Collections.emptyMap());
+        Assertions.assertEquals(1.0, pValue(check, BASELINE, BASELINE), 1e-6);
+        Assertions.assertTrue(pValue(check, BASELINE, scaled(0.8)) < 1e-4);
+        Assertions.assertTrue(pValue(check, BASELINE, new double[] {101, 100, 99, 101, 99}) > 0.5);
+        //identical samples have no variance, so any difference is significant
+        Assertions.assertEquals(0.0, pValue(check, new double[] {1, 1}, new double[] {2, 2}));
+        Assertions.assertTrue(Double.isNaN(pValue(check, BASELINE, new double[] {80})));
+    }
+
+    @Test
+    void testThresholds() {
+        Map<String, Double> thresholds = new HashMap<>();
+        thresholds.put("a.B", 0.1);
+        thresholds.put("a.B.long", 0.5);
+        RegressionCheck check = new RegressionCheck(0.05, 0.99, thresholds);
+        Map<String, RegressionCheck.Metric> baseline = metrics(
+                new RegressionCheck.Metric("a.B.long thrpt", "ops/s", true, BASELINE),
+                new RegressionCheck.Metric("a.B.short thrpt", "ops/s", true, BASELINE),
+                new RegressionCheck.Metric("a.C.short thrpt", "ops/s", true, BASELINE));
+        Map<String, RegressionCheck.Metric> results = metrics(
+                new RegressionCheck.Metric("a.B.long thrpt", "ops/s", true, scaled(0.7)),
+                new RegressionCheck.Metric("a.B.short thrpt", "ops/s", true, scaled(0.8)),
+                new RegressionCheck.Metric("a.C.short thrpt", "ops/s", true, scaled(0.92)));
+        List<RegressionCheck.Comparison> comparisons = check.compare(baseline, results);
+        //the longest prefix wins, and names without one use the default
+        Assertions.assertFalse(comparisons.get(0).isRegression());
+        Assertions.assertTrue(comparisons.get(1).isRegression());
+        Assertions.assertTrue(comparisons.get(2).isRegression());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RegressionCheck(0.05, 1, thresholds));
+    }
+
+    private Path write(String json) throws IOException {
+        Path file = Files.createTempFile(directory, "results", ".json");
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static double pValue(RegressionCheck check, double[] baseline, double[] result) {
+        return check.compare(
+                metrics(new RegressionCheck.Metric("f", "ops/s", true, baseline)),
+                metrics(new RegressionCheck.Metric("f", "ops/s", true, result))).get(0).getPValue();
+    }
+
+    private static double[] scaled(double factor) {
+        return Arrays.stream(BASELINE).map(score -> score * factor).toArray();
+    }
+
+    private static Map<String, RegressionCheck.Metric> metrics(RegressionCheck.Metric... metrics) {
+        Map<String, RegressionCheck.Metric> map = new LinkedHashMap<>();
+        for (RegressionCheck.Metric metric : metrics) {
+            map.put(metric.getName(), metric);
+        }
+        return map;
+    }
+
+}
@@ -25,10 +25,16 @@ public final class Analyzer implements Ast.Visitor<Ast> {
             throw new AnalysisException("Source doesn't contain any statements");
         }
 
+        Events.Analyze event = new Events.Analyze();
+        event.begin();
         List<Ast.Statement> statements = new ArrayList<>();
         for (int i = 0; i < ast.getStatements().size(); i++) {
             statements.add(visit(ast.getStatements().get(i)));
         }
+        if (event.shouldCommit()) {
+            event.statements = statements.size();
+            event.commit();
+        }
         return new Ast.Source(statements);
     }
 
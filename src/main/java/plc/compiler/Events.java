@@ -0,0 +1,75 @@
+package plc.compiler;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events for each phase of the compiler, all
+ * disabled unless a recording enables them (for example with
+ * {@code recording.enable("plc.compiler.Lex")} on a {@link jdk.jfr.Recording},
+ * or in JDK Mission Control). While disabled, creating and beginning an
+ * event compiles to nothing but a check of a flag.
+ */
+final class Events {
+
+    private Events() {}
+
+    @Name("plc.compiler.Lex")
+    @Label("Lex")
+    @Category({"PLC", "Compiler"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Lex extends Event {
+
+        @Label("Characters")
+        int characters;
+
+        @Label("Tokens")
+        int tokens;
+
+    }
+
+    @Name("plc.compiler.Parse")
+    @Label("Parse")
+    @Category({"PLC", "Compiler"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Parse extends Event {
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Statements")
+        int statements;
+
+    }
+
+    @Name("plc.compiler.Analyze")
+    @Label("Analyze")
+    @Category({"PLC", "Compiler"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Analyze extends Event {
+
+        @Label("Statements")
+        int statements;
+
+    }
+
+    @Name("plc.compiler.Generate")
+    @Label("Generate")
+    @Category({"PLC", "Compiler"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Generate extends Event {
+
+        @Label("Statements")
+        int statements;
+
+    }
+
+}
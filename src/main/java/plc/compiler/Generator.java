@@ -36,6 +36,8 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Source ast) {
+        Events.Generate event = new Events.Generate();
+        event.begin();
         print("public final class Main {");
         indent++;
         newline(0);
@@ -62,6 +64,10 @@ public final class Generator implements Ast.Visitor<Void> {
         newline(0);
         writer.write("}");
         newline(0);
+        if (event.shouldCommit()) {
+            event.statements = statements.size();
+            event.commit();
+        }
         return null;
     }
 
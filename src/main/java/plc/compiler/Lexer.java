@@ -29,7 +29,15 @@ public final class Lexer {
      * Lexes the input and returns the list of tokens.
      */
     public static List<Token> lex(String input) throws ParseException {
-        return new Lexer(input).lex();
+        Events.Lex event = new Events.Lex();
+        event.begin();
+        List<Token> tokens = new Lexer(input).lex();
+        if (event.shouldCommit()) {
+            event.characters = input.length();
+            event.tokens = tokens.size();
+            event.commit();
+        }
+        return tokens;
     }
 
     /**
@@ -33,7 +33,15 @@ public final class Parser {
      * Parses the tokens and returns the parsed AST.
      */
     public static Ast parse(List<Token> tokens) throws ParseException {
-        return new Parser(tokens).parseSource();
+        Events.Parse event = new Events.Parse();
+        event.begin();
+        Ast.Source source = new Parser(tokens).parseSource();
+        if (event.shouldCommit()) {
+            event.tokens = tokens.size();
+            event.statements = source.getStatements().size();
+            event.commit();
+        }
+        return source;
     }
 
     /**
@@ -16,6 +16,11 @@ import java.util.stream.Collectors;
  * There is a fair bit of Java overhead in these classes for getters and
  * equals/toString, which are be needed for the interpreter, JUnit tests, and
  * debugging.
+ *
+ * ASTs are immutable, so terms cache their structural hash code the first
+ * time it's needed; equals uses it to reject most unequal terms without
+ * walking them. Identical subtrees can share one instance using an
+ * {@link Interner}, in which case equals is usually a reference compare.
  */
 public class Ast {
 
@@ -23,10 +28,21 @@ public class Ast {
 
         private final String name;
         private final List<Ast> args;
+        private final int offset;
+        private int hash;
 
         public Term(String name, List<Ast> args) {
+            this(name, args, -1);
+        }
+
+        /**
+         * Creates a term parsed from the given offset in the source, which
+         * is only used for reporting and isn't part of equality.
+         */
+        public Term(String name, List<Ast> args, int offset) {
             this.name = name;
             this.args = args;
+            this.offset = offset;
         }
 
         public String getName() {
@@ -37,9 +53,28 @@ public class Ast {
             return args;
         }
 
+        /**
+         * Returns the offset of the term's opening bracket in the source, or
+         * -1 if it wasn't parsed.
+         */
+        public int getOffset() {
+            return offset;
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Term && name.equals(((Term) obj).name) && args.equals(((Term) obj).args);
+            return obj == this || obj instanceof Term && hashCode() == obj.hashCode()
+                    && name.equals(((Term) obj).name) && args.equals(((Term) obj).args);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = hash;
+            if (h == 0) {
+                h = 31 * name.hashCode() + args.hashCode();
+                hash = h == 0 ? 1 : h;
+            }
+            return hash;
         }
 
         @Override
@@ -66,6 +101,11 @@ public class Ast {
             return obj instanceof Identifier && name.equals(((Identifier) obj).name);
         }
 
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
         @Override
         public String toString() {
             return name;
@@ -100,6 +140,11 @@ public class Ast {
             return obj instanceof NumberLiteral && value.equals(((NumberLiteral) obj).value);
         }
 
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
         @Override
         public String toString() {
             return value.toString();
@@ -124,6 +169,11 @@ public class Ast {
             return obj instanceof StringLiteral && value.equals(((StringLiteral) obj).value);
         }
 
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
         @Override
         public String toString() {
             return "\"" + value + "\"";
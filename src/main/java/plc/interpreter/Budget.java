@@ -0,0 +1,207 @@
+package plc.interpreter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resource limits for an evaluation (see
+ * {@link Interpreter#eval(Ast, Budget)}), and what it used of them.
+ *
+ * Steps are counted at each function call and each iteration of
+ * {@code while} and {@code for}, and builtins which loop over or allocate
+ * many elements ({@code range}, arrays, columns, and running pipelines)
+ * count a step per element, by decrementing a countdown; only when the
+ * countdown runs out (every {@link #INTERVAL} steps, or sooner if fewer
+ * remain) is the step limit checked along with the deadline and the number
+ * of bytes the thread has allocated, so an evaluation can overrun the time
+ * and memory limits by up to that many steps. Arrays are checked against the
+ * memory limit before they're allocated, and builtins which block
+ * ({@code await}, {@code send!}, {@code recv!}) wait no longer than the
+ * deadline. Exceeding a limit throws a {@link ResourceLimitException}.
+ *
+ * Tasks started by the evaluation ({@code async}, {@code spawn},
+ * {@code generator}) share its budget. Their steps are counted without
+ * synchronization, so some may be missed, and their allocations aren't
+ * counted.
+ */
+public final class Budget {
+
+    public enum Resource {
+        STEPS,
+        TIME,
+        BYTES
+    }
+
+    /**
+     * The limit for a resource which isn't limited.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * The most steps between checks of the limits.
+     */
+    public static final int INTERVAL = 1024;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long maxSteps;
+    private final long timeoutNanos;
+    private final long maxBytes;
+
+    private long steps;
+    private long window;
+    private long countdown;
+    private long started;
+    private long elapsed;
+    private long thread;
+    private long allocatedBefore;
+    private long allocated;
+    private boolean running = false;
+
+    /**
+     * Creates a budget of the given number of steps, wall clock time, and
+     * bytes allocated by the evaluating thread, each of which may be
+     * {@link #UNLIMITED}.
+     */
+    public Budget(long maxSteps, long timeout, TimeUnit unit, long maxBytes) {
+        if (maxSteps < 0 || timeout < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Limits can't be negative.");
+        } else if (maxBytes != UNLIMITED && !allocationCounted()) {
+            throw new UnsupportedOperationException("This JVM doesn't count the bytes allocated by threads.");
+        }
+        this.maxSteps = maxSteps;
+        this.timeoutNanos = timeout == UNLIMITED ? UNLIMITED : unit.toNanos(timeout);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the number of steps taken by the last (or current) evaluation.
+     */
+    public long getSteps() {
+        return steps + window - countdown;
+    }
+
+    /**
+     * Returns the wall clock time taken by the last (or current) evaluation.
+     */
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(running ? System.nanoTime() - started : elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the thread which ran the last
+     * evaluation while running it, or -1 if the JVM doesn't count them.
+     */
+    public long getAllocatedBytes() {
+        if (!allocationCounted()) {
+            return -1;
+        }
+        return running && Thread.currentThread().getId() == thread ? allocatedBytes() - allocatedBefore : allocated;
+    }
+
+    /**
+     * Resets the usage for a new evaluation on the current thread.
+     */
+    void start() {
+        steps = 0;
+        window = countdown = nextWindow();
+        thread = Thread.currentThread().getId();
+        allocatedBefore = allocationCounted() ? allocatedBytes() : 0;
+        allocated = 0;
+        started = System.nanoTime();
+        running = true;
+    }
+
+    void stop() {
+        elapsed = System.nanoTime() - started;
+        if (allocationCounted()) {
+            allocated = allocatedBytes() - allocatedBefore;
+        }
+        running = false;
+    }
+
+    /**
+     * Counts a step, checking the limits when the countdown runs out.
+     */
+    void step() {
+        if (--countdown <= 0) {
+            check();
+        }
+    }
+
+    /**
+     * Counts a number of steps at once, for a builtin which processes that
+     * many elements.
+     */
+    void step(long steps) {
+        countdown -= steps;
+        if (countdown <= 0) {
+            check();
+        }
+    }
+
+    /**
+     * Checks that allocating the given number of bytes on the evaluating
+     * thread would stay within the memory limit.
+     */
+    void allocate(long bytes) {
+        if (maxBytes != UNLIMITED && Thread.currentThread().getId() == thread
+                && allocatedBytes() - allocatedBefore > maxBytes - bytes) {
+            throw exceeded(Resource.BYTES);
+        }
+    }
+
+    /**
+     * Returns how long the evaluation has left before its deadline, in
+     * nanoseconds, or {@link #UNLIMITED}.
+     */
+    long remainingNanos() {
+        return timeoutNanos == UNLIMITED ? UNLIMITED : Math.max(0, timeoutNanos - (System.nanoTime() - started));
+    }
+
+    /**
+     * Returns the exception thrown when the limit of the resource is
+     * exceeded.
+     */
+    ResourceLimitException exceeded(Resource resource) {
+        switch (resource) {
+            case STEPS:
+                return new ResourceLimitException("The evaluation exceeded its limit of " + maxSteps + " steps.", Resource.STEPS);
+            case TIME:
+                return new ResourceLimitException("The evaluation exceeded its time limit of "
+                        + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms.", Resource.TIME);
+            default:
+                return new ResourceLimitException("The evaluation exceeded its limit of " + maxBytes + " allocated bytes.", Resource.BYTES);
+        }
+    }
+
+    private void check() {
+        steps += window - countdown;
+        window = countdown = nextWindow();
+        if (steps > maxSteps) {
+            throw exceeded(Resource.STEPS);
+        }
+        if (timeoutNanos != UNLIMITED && System.nanoTime() - started > timeoutNanos) {
+            throw exceeded(Resource.TIME);
+        }
+        if (maxBytes != UNLIMITED && Thread.currentThread().getId() == thread && allocatedBytes() - allocatedBefore > maxBytes) {
+            throw exceeded(Resource.BYTES);
+        }
+    }
+
+    private long nextWindow() {
+        return maxSteps - steps >= INTERVAL ? INTERVAL : maxSteps - steps + 1;
+    }
+
+    private long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread);
+    }
+
+    private static boolean allocationCounted() {
+        return THREADS instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+    }
+
+}
@@ -0,0 +1,167 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A reactive cell, created by {@code cell} (an input) or {@code formula} (a
+ * value derived from other cells). Identifiers bound to cells evaluate to the
+ * cell's current value, and {@code set!} on an input cell updates it.
+ *
+ * While a formula is evaluated the interpreter records every cell it reads,
+ * so when an input changes only the formulas that (transitively) depend on it
+ * are recomputed. They are recomputed in order of height - the length of the
+ * longest dependency chain below them - so each is evaluated at most once per
+ * update, after everything it reads. If a recomputed value is equal to the
+ * previous one its dependents are not touched.
+ */
+public final class Cell {
+
+    private static final Comparator<Cell> BY_HEIGHT = Comparator.comparingInt(cell -> cell.height);
+
+    private final Ast formula;
+    private final Scope scope;
+    private final Set<Cell> dependencies = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Cell> dependents = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int height = 0;
+    private Object value;
+
+    /**
+     * Creates an input cell.
+     */
+    public Cell(Object value) {
+        this.formula = null;
+        this.scope = null;
+        this.value = value;
+    }
+
+    /**
+     * Creates a formula cell, which must be computed with {@link
+     * #recompute(Function)} before use.
+     */
+    Cell(Ast formula, Scope scope) {
+        this.formula = formula;
+        this.scope = scope;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public boolean isFormula() {
+        return formula != null;
+    }
+
+    Ast getFormula() {
+        return formula;
+    }
+
+    Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Records that this formula read the given cell while being computed.
+     */
+    void dependOn(Cell cell) {
+        if (dependencies.add(cell)) {
+            cell.dependents.add(this);
+        }
+    }
+
+    /**
+     * Evaluates the formula with the given function, which should call
+     * {@link #dependOn(Cell)} for each cell read, and returns whether the
+     * value changed. Dependencies are collected from scratch since the cells
+     * read may differ between evaluations.
+     */
+    boolean recompute(Function<Cell, Object> evaluator) {
+        for (Cell dependency : dependencies) {
+            dependency.dependents.remove(this);
+        }
+        dependencies.clear();
+        Object result = evaluator.apply(this);
+        int required = 0;
+        for (Cell dependency : dependencies) {
+            required = Math.max(required, dependency.height + 1);
+        }
+        height = required;
+        if (Objects.deepEquals(value, result)) {
+            return false;
+        }
+        value = result;
+        return true;
+    }
+
+    /**
+     * Sets the value of this input cell and recomputes the formulas which
+     * depend on it.
+     */
+    void set(Object value, Function<Cell, Object> evaluator) throws EvalException {
+        if (isFormula()) {
+            throw new EvalException("Cannot set a formula cell.");
+        }
+        if (Objects.deepEquals(this.value, value)) {
+            return;
+        }
+        this.value = value;
+
+        PriorityQueue<Cell> queue = new PriorityQueue<>(BY_HEIGHT);
+        Set<Cell> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Cell dependent : dependents) {
+            queued.add(dependent);
+            queue.add(dependent);
+        }
+        while (!queue.isEmpty()) {
+            Cell cell = queue.poll();
+            queued.remove(cell);
+            int before = cell.height;
+            boolean changed = cell.recompute(evaluator);
+            if (cell.height > before) {
+                cell.raiseDependents(queue, queued);
+            }
+            if (changed) {
+                for (Cell dependent : cell.dependents) {
+                    if (queued.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the height invariant after this cell's height increased
+     * because it picked up a new dependency, repositioning queued cells.
+     */
+    private void raiseDependents(PriorityQueue<Cell> queue, Set<Cell> queued) {
+        List<Cell> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            Cell cell = stack.remove(stack.size() - 1);
+            for (Cell dependent : cell.dependents) {
+                if (dependent.height <= cell.height) {
+                    boolean requeue = queued.contains(dependent) && queue.remove(dependent);
+                    dependent.height = cell.height + 1;
+                    if (requeue) {
+                        queue.add(dependent);
+                    }
+                    stack.add(dependent);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "#<" + (isFormula() ? "formula " : "cell ") + value + ">";
+    }
+
+}
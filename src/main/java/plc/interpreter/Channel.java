@@ -0,0 +1,281 @@
+package plc.interpreter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded channel for passing values between tasks created with
+ * {@code spawn}, returned by {@code chan}.
+ *
+ * The buffer is a single-producer single-consumer ring: the producer only
+ * writes {@code tail} and the consumer only writes {@code head}, so a
+ * transfer which doesn't have to wait takes no locks, just a slot write and
+ * an index update. Multiple producers (or consumers) are still allowed, and
+ * are serialized by a flag on their own side of the ring which is always
+ * uncontended in the single-producer single-consumer case, and is never held
+ * while waiting.
+ *
+ * Only a side which must block, on a full or empty channel, takes the lock,
+ * flags that it's waiting and parks on a condition (after yielding to the
+ * other side a few times), so idle tasks don't use any CPU. The other side reads the flag after moving its index, and takes
+ * the lock to clear it and signal only if it's set. Closing first stops new
+ * sends, then waits for the producers' flag before marking the channel
+ * closed for receivers, so every send either happens before the close (and
+ * its value can still be received) or fails.
+ */
+public final class Channel {
+
+    /**
+     * How many times a side yields to the other before parking, which is
+     * much cheaper than a park and unpark when both are busy.
+     */
+    private static final int YIELDS = 10;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private final AtomicBoolean receiving = new AtomicBoolean();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile boolean sendersWaiting = false;
+    private volatile boolean receiversWaiting = false;
+
+    /**
+     * Set when the channel is closed, after which sends fail.
+     */
+    private volatile boolean closing = false;
+    /**
+     * Set once the sends which were in progress when the channel was closed
+     * have finished, after which an empty channel stays empty.
+     */
+    private volatile boolean closed = false;
+
+    public Channel(int capacity) {
+        if (capacity < 1) {
+            throw new EvalException("A channel must have a capacity of at least one.");
+        } else if (capacity > 1 << 30) {
+            throw new EvalException("A channel can have a capacity of at most 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds the value to the channel, waiting while the channel is full.
+     */
+    public void send(Object value) throws EvalException {
+        send(value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds the value to the channel, waiting at most the given number of
+     * nanoseconds while the channel is full, and returns false if it's still
+     * full.
+     */
+    public boolean send(Object value, long timeoutNanos) throws EvalException {
+        long remaining = timeoutNanos;
+        for (int attempt = 0; ; attempt++) {
+            long t;
+            acquire(sending);
+            try {
+                if (closing) {
+                    throw new EvalException("Cannot send to a closed channel.");
+                }
+                t = tail.get();
+                if (t - head.get() < capacity) {
+                    buffer[(int) t & mask] = value;
+                    tail.set(t + 1);
+                    if (receiversWaiting) {
+                        wake(notEmpty);
+                    }
+                    return true;
+                }
+            } finally {
+                sending.lazySet(false);
+            }
+            if (remaining <= 0) {
+                return false;
+            } else if (attempt < YIELDS) {
+                Thread.yield();
+            } else {
+                remaining = awaitSpace(t, remaining);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the next value, waiting while the channel is empty.
+     * Once the channel is closed and drained this returns {@link
+     * Interpreter#VOID}.
+     */
+    public Object receive() throws EvalException {
+        return receive(Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes and returns the next value, waiting at most the given number of
+     * nanoseconds while the channel is empty, and returns null if it's still
+     * empty.
+     */
+    public Object receive(long timeoutNanos) throws EvalException {
+        long remaining = timeoutNanos;
+        for (int attempt = 0; ; attempt++) {
+            long h;
+            acquire(receiving);
+            try {
+                h = head.get();
+                if (h != tail.get()) {
+                    int index = (int) h & mask;
+                    Object value = buffer[index];
+                    buffer[index] = null;
+                    head.set(h + 1);
+                    if (sendersWaiting) {
+                        wake(notFull);
+                    }
+                    return value;
+                } else if (closed && h == tail.get()) {
+                    //closed is read first, as no values are sent after it's set
+                    return Interpreter.VOID;
+                }
+            } finally {
+                receiving.lazySet(false);
+            }
+            if (remaining <= 0) {
+                return null;
+            } else if (attempt < YIELDS) {
+                Thread.yield();
+            } else {
+                remaining = awaitValue(h, remaining);
+            }
+        }
+    }
+
+    /**
+     * Closes the channel, waking any waiting tasks. Values already sent can
+     * still be received.
+     */
+    public void close() {
+        closing = true;
+        wake(notFull);
+        acquire(sending);
+        closed = true;
+        sending.lazySet(false);
+        wake(notEmpty);
+    }
+
+    public boolean isClosed() {
+        return closing;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "#<channel " + (tail.get() - head.get()) + "/" + capacity + (closing ? " closed" : "") + ">";
+    }
+
+    /**
+     * Waits until the channel has space for a value at the given tail or is
+     * closed, returning the nanoseconds left of the timeout.
+     */
+    private long awaitSpace(long t, long timeoutNanos) {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (true) {
+                //the flag is set before checking, so a receiver either sees
+                //it or has already moved the head this sees
+                sendersWaiting = true;
+                if (t - head.get() < capacity || closing || remaining <= 0) {
+                    return remaining;
+                }
+                remaining = await(notFull, remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a value is sent after the given head or the channel is
+     * closed, returning the nanoseconds left of the timeout.
+     */
+    private long awaitValue(long h, long timeoutNanos) {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (true) {
+                receiversWaiting = true;
+                if (h != tail.get() || closed || remaining <= 0) {
+                    return remaining;
+                }
+                remaining = await(notEmpty, remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the tasks waiting on the condition. Their flag is cleared until
+     * they wait again, so the other side doesn't take the lock on every
+     * transfer before they have run; it isn't cleared when they stop
+     * waiting, as another task on the same side may still be.
+     */
+    private void wake(Condition condition) {
+        lock.lock();
+        try {
+            if (condition == notFull) {
+                sendersWaiting = false;
+            } else {
+                receiversWaiting = false;
+            }
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the flag of one side of the ring, which is only held briefly as
+     * it's never held while waiting.
+     */
+    private static void acquire(AtomicBoolean flag) {
+        while (!flag.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits on the condition, returning the nanoseconds left of the timeout,
+     * where {@link Long#MAX_VALUE} waits indefinitely.
+     */
+    private static long await(Condition condition, long timeoutNanos) {
+        try {
+            if (timeoutNanos == Long.MAX_VALUE) {
+                condition.await();
+                return timeoutNanos;
+            }
+            return condition.awaitNanos(timeoutNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EvalException("Interrupted while waiting on a channel.");
+        }
+    }
+
+}
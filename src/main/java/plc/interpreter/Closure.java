@@ -0,0 +1,55 @@
+package plc.interpreter;
+
+import java.util.List;
+
+/**
+ * A function defined in Whisp with {@code (define (name params...) body)}.
+ *
+ * Unlike the builtins, a closure isn't tied to a particular interpreter; it
+ * only holds the scope it was defined in, which the body is evaluated in
+ * (with the parameters bound in a new child scope) by whichever interpreter
+ * calls it.
+ */
+public final class Closure {
+
+    private final String name;
+    private final List<String> parameters;
+    private final Ast body;
+    private final Scope scope;
+
+    public Closure(String name, List<String> parameters, Ast body, Scope scope) {
+        this.name = name;
+        this.parameters = parameters;
+        this.body = body;
+        this.scope = scope;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public Ast getBody() {
+        return body;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Returns the same function defined in a different scope.
+     */
+    Closure in(Scope scope) {
+        return new Closure(name, parameters, body, scope);
+    }
+
+    @Override
+    public String toString() {
+        return "#<function " + name + ">";
+    }
+
+}
@@ -0,0 +1,374 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A debugger for Whisp programs, with breakpoints and stepping.
+ *
+ * Attaching an interpreter inserts a {@link Probe} which checks each term it
+ * enters against the breakpoints and the current step, and detaching removes
+ * it again, so interpreters without a debugger only pay for the check of the
+ * probe slot they already have. Breakpoints are set at the source offset of
+ * a term's opening bracket (see {@link Ast.Term#getOffset()}) in a parsed
+ * source, and only suspend at that term, not at terms of other sources (or
+ * closures defined by them) which happen to have the same offset. They may
+ * have a condition, a Whisp expression evaluated in the scope of the term
+ * which suspends only if it's true.
+ *
+ * When an interpreter suspends, the handler is called on the evaluating
+ * thread with the term about to be evaluated, and returns how to continue:
+ * {@link Action#STEP_INTO} suspends at the next term evaluated,
+ * {@link Action#STEP_OVER} at the next one which isn't part of the
+ * suspended term, and {@link Action#CONTINUE} at the next breakpoint.
+ * Breakpoints suspend while stepping too. Tasks started by an attached
+ * interpreter ({@code async}, {@code spawn}, {@code generator}) aren't
+ * debugged.
+ */
+public final class Debugger {
+
+    public enum Action {
+        CONTINUE,
+        STEP_INTO,
+        STEP_OVER
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * Called when an interpreter suspends, returning how it should
+         * continue (null continues to the next breakpoint).
+         */
+        Action suspended(Suspension suspension);
+
+    }
+
+    private final Handler handler;
+    /**
+     * The breakpoints by offset, so entering a term is a single lookup, and
+     * then by term, as usually only one source has a breakpoint there.
+     */
+    private final Map<Integer, Breakpoint[]> breakpoints = new ConcurrentHashMap<>();
+
+    public Debugger(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void attach(Interpreter interpreter) {
+        if (Probe.find(interpreter, Session.class) != null) {
+            throw new IllegalStateException("The interpreter is already attached to a debugger.");
+        }
+        Probe.insert(interpreter, new Session(this, interpreter));
+    }
+
+    public void detach(Interpreter interpreter) {
+        Session session = Probe.find(interpreter, Session.class);
+        if (session != null && session.debugger == this) {
+            Probe.remove(interpreter, session);
+        }
+    }
+
+    /**
+     * Suspends the interpreter at the next term it evaluates, as if it had
+     * been told to step into it.
+     */
+    public void suspend(Interpreter interpreter) {
+        Session session = Probe.find(interpreter, Session.class);
+        if (session == null || session.debugger != this) {
+            throw new IllegalStateException("The interpreter isn't attached to this debugger.");
+        }
+        session.action = Action.STEP_INTO;
+    }
+
+    public Breakpoint setBreakpoint(Ast source, int offset) {
+        return setBreakpoint(source, offset, null);
+    }
+
+    /**
+     * Sets a breakpoint at the term of the source with the given offset,
+     * replacing any which was there, which suspends only if the condition
+     * (if it isn't null) is true. A condition which throws or doesn't
+     * evaluate to a boolean suspends, so the mistake is noticed, and an
+     * exception is passed to the handler (see
+     * {@link Suspension#getConditionError()}).
+     */
+    public Breakpoint setBreakpoint(Ast source, int offset, String condition) throws ParseException {
+        Ast.Term term = find(source, offset);
+        if (term == null) {
+            throw new IllegalArgumentException("The source has no term at offset " + offset + ".");
+        }
+        Ast parsed = null;
+        if (condition != null) {
+            List<Ast> forms = ((Ast.Term) Parser.parse(condition)).getArgs();
+            if (forms.size() != 1) {
+                throw new ParseException("A condition must be a single expression.", 0);
+            }
+            parsed = forms.get(0);
+        }
+        Breakpoint breakpoint = new Breakpoint(term, condition, parsed);
+        breakpoints.merge(offset, new Breakpoint[] {breakpoint}, (existing, added) -> {
+            List<Breakpoint> merged = new ArrayList<>();
+            for (Breakpoint other : existing) {
+                if (other.term != term) {
+                    merged.add(other);
+                }
+            }
+            merged.add(breakpoint);
+            return merged.toArray(new Breakpoint[0]);
+        });
+        return breakpoint;
+    }
+
+    public void removeBreakpoint(Breakpoint breakpoint) {
+        breakpoints.computeIfPresent(breakpoint.getOffset(), (offset, existing) -> {
+            List<Breakpoint> remaining = new ArrayList<>();
+            for (Breakpoint other : existing) {
+                if (other != breakpoint) {
+                    remaining.add(other);
+                }
+            }
+            return remaining.isEmpty() ? null : remaining.toArray(new Breakpoint[0]);
+        });
+    }
+
+    public Collection<Breakpoint> getBreakpoints() {
+        List<Breakpoint> all = new ArrayList<>();
+        for (Breakpoint[] existing : breakpoints.values()) {
+            all.addAll(Arrays.asList(existing));
+        }
+        return all;
+    }
+
+    /**
+     * Returns the breakpoint at the term, or null if it has none.
+     */
+    private Breakpoint lookup(Ast.Term term) {
+        Breakpoint[] existing = breakpoints.get(term.getOffset());
+        if (existing != null) {
+            for (Breakpoint breakpoint : existing) {
+                if (breakpoint.term == term) {
+                    return breakpoint;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the term of the source with the given offset, or null if it
+     * has none.
+     */
+    private static Ast.Term find(Ast ast, int offset) {
+        if (!(ast instanceof Ast.Term)) {
+            return null;
+        }
+        Ast.Term term = (Ast.Term) ast;
+        if (term.getOffset() == offset) {
+            return term;
+        }
+        for (Ast arg : term.getArgs()) {
+            Ast.Term found = find(arg, offset);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    public static final class Breakpoint {
+
+        private final Ast.Term term;
+        private final String condition;
+        private final Ast parsed;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Breakpoint(Ast.Term term, String condition, Ast parsed) {
+            this.term = term;
+            this.condition = condition;
+            this.parsed = parsed;
+        }
+
+        public Ast.Term getTerm() {
+            return term;
+        }
+
+        public int getOffset() {
+            return term.getOffset();
+        }
+
+        /**
+         * Returns the source of the condition, or null if it has none.
+         */
+        public String getCondition() {
+            return condition;
+        }
+
+        /**
+         * Returns the number of times the breakpoint has suspended an
+         * interpreter.
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        private boolean test(Interpreter interpreter) {
+            if (parsed == null) {
+                return true;
+            }
+            Object value = interpreter.eval(parsed);
+            return !(value instanceof Boolean) || (Boolean) value;
+        }
+
+    }
+
+    /**
+     * An interpreter suspended at a term, which is only valid during the call
+     * to the handler.
+     */
+    public static final class Suspension {
+
+        private final Interpreter interpreter;
+        private final Ast.Term term;
+        private final Breakpoint breakpoint;
+        private final RuntimeException conditionError;
+        private final int depth;
+
+        private Suspension(Interpreter interpreter, Ast.Term term, Breakpoint breakpoint, RuntimeException conditionError, int depth) {
+            this.interpreter = interpreter;
+            this.term = term;
+            this.breakpoint = breakpoint;
+            this.conditionError = conditionError;
+            this.depth = depth;
+        }
+
+        public Interpreter getInterpreter() {
+            return interpreter;
+        }
+
+        /**
+         * Returns the term about to be evaluated.
+         */
+        public Ast.Term getTerm() {
+            return term;
+        }
+
+        /**
+         * Returns the breakpoint which suspended the interpreter, or null if
+         * it was stepping.
+         */
+        public Breakpoint getBreakpoint() {
+            return breakpoint;
+        }
+
+        /**
+         * Returns the exception thrown by the breakpoint's condition, or null
+         * if it didn't throw.
+         */
+        public RuntimeException getConditionError() {
+            return conditionError;
+        }
+
+        /**
+         * Returns the number of terms being evaluated, including this one,
+         * since the debugger was attached.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Looks up a variable in the scope of the term.
+         */
+        public Object lookup(String name) throws EvalException {
+            return interpreter.scope.lookup(name);
+        }
+
+        /**
+         * Evaluates an expression in the scope of the term, without
+         * suspending at breakpoints in it.
+         */
+        public Object eval(String expression) throws ParseException, EvalException {
+            Object result = Interpreter.VOID;
+            for (Ast form : ((Ast.Term) Parser.parse(expression)).getArgs()) {
+                result = interpreter.eval(form);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * The probe inserted into an attached interpreter, which tracks how deep
+     * it is and what it's stepping to.
+     */
+    private static final class Session extends Probe {
+
+        private final Debugger debugger;
+        private final Interpreter interpreter;
+        private volatile Action action = Action.CONTINUE;
+        private int depth = 0;
+        private int stepDepth = 0;
+        private boolean suspended = false;
+
+        private Session(Debugger debugger, Interpreter interpreter) {
+            this.debugger = debugger;
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        void enter(Ast.Term term) {
+            if (suspended) {
+                //the handler or a condition is evaluating
+                return;
+            }
+            depth++;
+            Action action = this.action;
+            boolean stepped = action == Action.STEP_INTO || action == Action.STEP_OVER && depth <= stepDepth;
+            Breakpoint breakpoint = debugger.breakpoints.isEmpty() ? null : debugger.lookup(term);
+            suspended = true;
+            try {
+                boolean hit = false;
+                RuntimeException error = null;
+                if (breakpoint != null) {
+                    try {
+                        hit = breakpoint.test(interpreter);
+                    } catch (RuntimeException e) {
+                        hit = true;
+                        error = e;
+                    }
+                }
+                if (hit) {
+                    breakpoint.hits.incrementAndGet();
+                } else if (!stepped) {
+                    return;
+                } else {
+                    breakpoint = null;
+                }
+                Action next = debugger.handler.suspended(new Suspension(interpreter, term, breakpoint, error, depth));
+                this.action = next != null ? next : Action.CONTINUE;
+                stepDepth = depth;
+            } catch (RuntimeException | Error e) {
+                //the term won't be evaluated, so it won't be exited
+                depth--;
+                throw e;
+            } finally {
+                suspended = false;
+            }
+        }
+
+        @Override
+        void exit(Ast.Term term) {
+            if (!suspended) {
+                depth--;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package plc.interpreter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events emitted by the interpreter, all disabled
+ * unless a recording enables them (for example with
+ * {@code recording.enable("plc.interpreter.Eval")} on a
+ * {@link jdk.jfr.Recording}, or in JDK Mission Control). While disabled,
+ * creating and beginning an event compiles to nothing but a check of a flag.
+ */
+final class Events {
+
+    private Events() {}
+
+    @Name("plc.interpreter.Eval")
+    @Label("Whisp Evaluation")
+    @Description("A top-level evaluation by an interpreter")
+    @Category({"Whisp", "Interpreter"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Eval extends Event {
+
+        @Label("Term")
+        @Description("The name of the evaluated term, or the identifier or literal")
+        String term;
+
+        @Label("Offset")
+        @Description("The source offset of the term, or -1 if it wasn't parsed")
+        int offset;
+
+    }
+
+    @Name("plc.interpreter.Builtin")
+    @Label("Slow Whisp Builtin")
+    @Description("A call to a builtin which took longer than the threshold")
+    @Category({"Whisp", "Interpreter"})
+    @Enabled(false)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Builtin extends Event {
+
+        @Label("Name")
+        String name;
+
+        @Label("Arguments")
+        int arguments;
+
+    }
+
+    @Name("plc.interpreter.ScopeCreated")
+    @Label("Whisp Scope Created")
+    @Category({"Whisp", "Interpreter"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ScopeCreated extends Event {
+
+        @Label("Depth")
+        @Description("The number of parents of the new scope")
+        int depth;
+
+    }
+
+}
@@ -0,0 +1,322 @@
+package plc.interpreter;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The lazy sequence created by {@code (generator body...)}, whose elements
+ * are the values passed to {@code yield} while evaluating the body.
+ *
+ * Each iteration evaluates the body in a snapshot of the scope the generator
+ * was created in, like {@code spawn}, in one of two ways. When every {@code
+ * yield} in the body is evaluated on the stack (see {@link
+ * StackEvaluator#suspendable(Interpreter, List)}), a {@link Suspended}
+ * iteration evaluates it on the consumer's thread with a {@link
+ * StackEvaluator}, which suspends at each {@code yield} and keeps its frames
+ * until the next element is asked for; suspending and resuming adds about
+ * 0.1us per element to evaluating the body. Otherwise (such as when the body
+ * yields from a function or a {@code for}), a {@link Run} evaluates it on
+ * its own task (see {@link Promise}), and the task and the consumer take
+ * turns through a pair of one-slot {@link Channel}s: asking for the next
+ * element resumes the body, and {@code yield} hands the element over and
+ * parks it until the next one is asked for. Each element then costs two
+ * thread handoffs, about 5us on a single CPU where each is a context switch,
+ * so the body is only run on a task when it has to be. Either way the body
+ * never runs ahead of the consumer, and only one element is held at a time.
+ *
+ * Iterators are {@link AutoCloseable}; closing one (as pipelines do when
+ * they stop early) discards its suspended evaluation or ends its task at the
+ * next {@code yield}. A task whose iterator is abandoned without being
+ * closed is ended once the iterator has been garbage collected.
+ */
+public final class Generator implements Iterable<Object> {
+
+    private static final Object RESUME = new Object();
+    private static final Object END = new Object();
+
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+
+    private final Supplier<Iterator<Object>> runs;
+
+    /**
+     * Creates a generator from a function which starts an iteration.
+     */
+    Generator(Supplier<Iterator<Object>> runs) {
+        this.runs = runs;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return runs.get();
+    }
+
+    /**
+     * Returns the number of tasks evaluating the bodies of generators.
+     */
+    public static int getRunning() {
+        return RUNNING.get();
+    }
+
+    @Override
+    public String toString() {
+        return "#<generator>";
+    }
+
+    /**
+     * One iteration of a generator evaluated on the consumer's thread.
+     */
+    static final class Suspended implements Iterator<Object>, AutoCloseable {
+
+        private final StackEvaluator evaluator;
+        private final List<Ast> body;
+        private int index = 0;
+        private boolean suspended = false;
+        private boolean finished = false;
+        private Object next = null;
+
+        Suspended(StackEvaluator evaluator, List<Ast> body) {
+            this.evaluator = evaluator;
+            this.body = body;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !finished) {
+                    Object result;
+                    if (suspended) {
+                        result = evaluator.resume(null);
+                    } else if (index < body.size()) {
+                        result = evaluator.resume(body.get(index++));
+                    } else {
+                        finished = true;
+                        break;
+                    }
+                    suspended = result == StackEvaluator.SUSPENDED;
+                    if (suspended) {
+                        next = evaluator.getYielded();
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                finished = true;
+                throw e;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object value = next;
+            next = null;
+            return value;
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            next = null;
+            evaluator.close();
+        }
+
+    }
+
+    /**
+     * One iteration of a generator evaluated on its own task.
+     */
+    public static final class Run implements Iterator<Object>, AutoCloseable {
+
+        private final Function<Task, Promise> start;
+        private final Task task = new Task();
+        private Abandoned abandoned = null;
+        private boolean finished = false;
+        private Object next = null;
+
+        /**
+         * Creates an iteration from a function which starts evaluating the
+         * body, with {@code yield} bound to {@link Task#yield(Object)}, on a
+         * new task.
+         */
+        Run(Function<Task, Promise> start) {
+            this.start = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                if (abandoned == null) {
+                    abandoned = new Abandoned(this, task);
+                    start.apply(task);
+                } else {
+                    task.resumes.send(RESUME);
+                }
+                Object value = task.values.receive();
+                if (value == END) {
+                    finish();
+                } else if (value instanceof Failure) {
+                    finish();
+                    Throwable exception = ((Failure) value).exception;
+                    if (exception instanceof Error) {
+                        throw (Error) exception;
+                    }
+                    throw (RuntimeException) exception;
+                } else {
+                    next = value;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object value = next;
+            next = null;
+            return value;
+        }
+
+        /**
+         * Stops the body at its next {@code yield}, if it's still running.
+         */
+        @Override
+        public void close() {
+            next = null;
+            if (!finished) {
+                finish();
+                task.resumes.close();
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (abandoned != null) {
+                abandoned.release();
+            }
+        }
+
+    }
+
+    /**
+     * The side of a {@link Run} used by its task, which doesn't refer to the
+     * run so the run can be collected while the task is parked.
+     */
+    public static final class Task {
+
+        private final Channel resumes = new Channel(1);
+        private final Channel values = new Channel(1);
+
+        private Task() {}
+
+        /**
+         * Passes the value to the consumer and waits to be resumed, called by
+         * the body's task.
+         */
+        void yield(Object value) {
+            values.send(value);
+            if (resumes.receive() != RESUME) {
+                throw Stop.INSTANCE;
+            }
+        }
+
+        /**
+         * Evaluates the body with the given function, called by the body's
+         * task, and signals the end of the sequence. Any exception, including
+         * an {@link Error}, is passed on to the consumer.
+         */
+        Object body(Supplier<Object> body) {
+            RUNNING.incrementAndGet();
+            try {
+                body.get();
+                values.send(END);
+            } catch (Stop stop) {
+                //closed by the consumer
+            } catch (Throwable e) {
+                values.send(new Failure(e));
+            } finally {
+                RUNNING.decrementAndGet();
+            }
+            return Interpreter.VOID;
+        }
+
+    }
+
+    /**
+     * Ends the task of a run once the run is only phantom reachable, unless
+     * it's released first because the run finished or was closed.
+     */
+    private static final class Abandoned extends PhantomReference<Run> {
+
+        private static final ReferenceQueue<Run> QUEUE = new ReferenceQueue<>();
+        private static final Set<Abandoned> PENDING = ConcurrentHashMap.newKeySet();
+
+        static {
+            Thread reaper = new Thread(Abandoned::reap, "whisp-generator-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+
+        private final Task task;
+
+        private Abandoned(Run run, Task task) {
+            super(run, QUEUE);
+            this.task = task;
+            PENDING.add(this);
+        }
+
+        private void release() {
+            PENDING.remove(this);
+            clear();
+        }
+
+        private static void reap() {
+            while (true) {
+                try {
+                    Abandoned abandoned = (Abandoned) QUEUE.remove();
+                    if (PENDING.remove(abandoned)) {
+                        abandoned.task.resumes.close();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    private static final class Failure {
+
+        private final Throwable exception;
+
+        private Failure(Throwable exception) {
+            this.exception = exception;
+        }
+
+    }
+
+    /**
+     * Unwinds the body of a closed generator, without a stack trace since
+     * it's never reported.
+     */
+    private static final class Stop extends RuntimeException {
+
+        private static final Stop INSTANCE = new Stop();
+
+        private Stop() {
+            super(null, null, false, false);
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package plc.interpreter;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * The list value created by Whisp's {@code list} and {@code range}, which
+ * caches its structural hash code. Whisp never modifies a list once it's
+ * created, but the host can, so the cache is dropped whenever the list's
+ * modification count changes or an element is replaced with {@code set}.
+ * The hash of a list containing collections (such as nested lists) isn't
+ * cached, since they can change without this list knowing; their own hashes
+ * are still cached, so it costs one pass over this list.
+ *
+ * Equal lists have equal hashes, so equals compares hashes before elements;
+ * lists returned by the same {@link Interner} are equal only if they're the
+ * same instance.
+ */
+public final class HashedList extends LinkedList<Object> {
+
+    /**
+     * The number of elements replaced, which the modification count doesn't
+     * include.
+     */
+    private transient int replaced;
+
+    /**
+     * The version (see {@link #version()}) the hash and interner were
+     * recorded at.
+     */
+    private transient int hash;
+    private transient int hashed;
+    private transient boolean valid = false;
+    private transient Interner interner;
+    private transient int interned;
+
+    public HashedList() {}
+
+    public HashedList(Collection<?> elements) {
+        super(elements);
+    }
+
+    /**
+     * Marks this list as the canonical instance of its value in the interner.
+     */
+    void intern(Interner interner) {
+        this.interner = interner;
+        this.interned = version();
+    }
+
+    Interner getInterner() {
+        return interned == version() ? interner : null;
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        replaced++;
+        return super.set(index, element);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        //plain iterators can't replace elements, so don't need wrapping
+        return super.listIterator(0);
+    }
+
+    @Override
+    public ListIterator<Object> listIterator(int index) {
+        ListIterator<Object> iterator = super.listIterator(index);
+        return new ListIterator<Object>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return iterator.hasPrevious();
+            }
+
+            @Override
+            public Object previous() {
+                return iterator.previous();
+            }
+
+            @Override
+            public int nextIndex() {
+                return iterator.nextIndex();
+            }
+
+            @Override
+            public int previousIndex() {
+                return iterator.previousIndex();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            @Override
+            public void set(Object element) {
+                replaced++;
+                iterator.set(element);
+            }
+
+            @Override
+            public void add(Object element) {
+                iterator.add(element);
+            }
+
+        };
+    }
+
+    @Override
+    public Object clone() {
+        HashedList copy = (HashedList) super.clone();
+        copy.valid = false;
+        copy.interner = null;
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        if (!valid || hashed != version()) {
+            int hash = 1;
+            boolean nested = false;
+            for (Object element : this) {
+                hash = 31 * hash + (element == null ? 0 : element.hashCode());
+                nested |= element instanceof Collection || element instanceof Map;
+            }
+            if (nested) {
+                return hash;
+            }
+            this.hash = hash;
+            hashed = version();
+            valid = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a count which changes whenever the list does.
+     */
+    private int version() {
+        return modCount + replaced;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj instanceof HashedList) {
+            HashedList other = (HashedList) obj;
+            if (getInterner() != null && getInterner() == other.getInterner() || hashCode() != other.hashCode()) {
+                return false;
+            }
+        }
+        return super.equals(obj);
+    }
+
+}
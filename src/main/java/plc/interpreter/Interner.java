@@ -0,0 +1,89 @@
+package plc.interpreter;
+
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A hash-consing table, which maps structurally equal values and ASTs to one
+ * canonical instance. Interning a list interns its elements first, so lists
+ * of interned values are compared element by element with reference
+ * compares, and two lists interned by the same table are equal only if they
+ * are the same instance.
+ *
+ * Entries are weakly referenced, so values which are no longer used anywhere
+ * else are removed from the table by the garbage collector.
+ */
+public final class Interner {
+
+    private final Map<Object, WeakReference<Object>> table = new WeakHashMap<>();
+
+    /**
+     * Returns the canonical instance of a value. Lists are returned as
+     * {@link HashedList}s, and values other than lists, numbers and strings
+     * are returned as is.
+     */
+    public synchronized Object intern(Object value) {
+        if (value instanceof HashedList && ((HashedList) value).getInterner() == this) {
+            return value;
+        } else if (value instanceof List) {
+            HashedList list = new HashedList();
+            boolean shared = value instanceof HashedList;
+            for (Object element : (List<?>) value) {
+                Object interned = intern(element);
+                shared &= interned == element;
+                list.add(interned);
+            }
+            HashedList canonical = (HashedList) lookup(shared ? value : list);
+            canonical.intern(this);
+            return canonical;
+        } else if (value instanceof BigDecimal || value instanceof String) {
+            return lookup(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the canonical instance of an AST, sharing identical subtrees.
+     * Terms are only shared with terms parsed from the same offset (such as
+     * the same source parsed again), so each keeps its own offset for
+     * reporting, while their identifiers and literals are always shared.
+     */
+    public synchronized Ast intern(Ast ast) {
+        if (ast instanceof Ast.Term) {
+            Ast.Term term = (Ast.Term) ast;
+            List<Ast> args = new ArrayList<>(term.getArgs().size());
+            boolean shared = true;
+            for (Ast arg : term.getArgs()) {
+                Ast interned = intern(arg);
+                shared &= interned == arg;
+                args.add(interned);
+            }
+            Ast.Term candidate = shared ? term : new Ast.Term(term.getName(), args, term.getOffset());
+            Ast.Term canonical = (Ast.Term) lookup(candidate);
+            return canonical.getOffset() == term.getOffset() ? canonical : candidate;
+        }
+        return (Ast) lookup(ast);
+    }
+
+    /**
+     * Returns the number of canonical instances which are still referenced.
+     */
+    public synchronized int size() {
+        return table.size();
+    }
+
+    private Object lookup(Object value) {
+        WeakReference<Object> reference = table.get(value);
+        Object canonical = reference != null ? reference.get() : null;
+        if (canonical == null) {
+            table.put(value, new WeakReference<>(value));
+            canonical = value;
+        }
+        return canonical;
+    }
+
+}
@@ -3,16 +3,25 @@ package plc.interpreter;
 import com.sun.org.apache.xpath.internal.operations.Operation;
 import org.w3c.dom.events.EventException;
 
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.lang.Comparable;
 
@@ -35,10 +44,151 @@ public final class Interpreter {
     public final PrintWriter out;
     public Scope scope;
 
+    /**
+     * The scope the standard library is defined in.
+     */
+    Scope globals;
+
+    /**
+     * The builtins defined by {@link #init()}, by name.
+     */
+    private final Map<String, Object> library = new HashMap<>();
+
+    /**
+     * The formula cell currently being computed, which records the cells it
+     * reads as dependencies.
+     */
+    private Cell tracking = null;
+
+    private ResultCache resultCache = null;
+
+    private Interner interner = null;
+
+    /**
+     * The task of the generator run whose body this interpreter is
+     * evaluating, which {@code yield} passes values to.
+     */
+    private Generator.Task generating = null;
+
+    /**
+     * The limits of the current evaluation, or null if it has none.
+     */
+    private Budget budget = null;
+
+    /**
+     * The probes inserted by the tools attached to this interpreter, or null
+     * if there aren't any.
+     */
+    volatile Probe probe = null;
+
+    Metrics.Recorder metrics = null;
+
+    /**
+     * Whether an evaluation is in progress, so nested calls to eval aren't
+     * reported as evaluations of their own.
+     */
+    boolean evaluating = false;
+
     public Interpreter(PrintWriter out, Scope scope) {
         this.out = out;
         this.scope = scope;
+        this.globals = scope;
         init();
+        //numbered once here so calls are recorded without looking up names
+        library.replaceAll((name, builtin) -> builtin instanceof Function
+                ? new Metrics.Counted(name, (Function<List<Ast>, Object>) builtin) : builtin);
+        //the host's bindings are kept in place of the builtins
+        library.forEach((name, builtin) -> {
+            if (!scope.contains(name)) {
+                scope.redefine(name, builtin);
+            }
+        });
+    }
+
+    /**
+     * Creates an interpreter whose global scope is a new one on top of the
+     * host's, so that definitions don't leak into the host's scope, with the
+     * host's bindings (in any of its scopes) kept in place of the builtins as
+     * they are when an interpreter is given the host's scope itself.
+     */
+    static Interpreter over(PrintWriter out, Scope host) {
+        Scope globals = new Scope(host);
+        Interpreter interpreter = new Interpreter(out, globals);
+        for (String name : interpreter.library.keySet()) {
+            for (Scope scope = host; scope != null; scope = scope.getParent()) {
+                if (scope.contains(name)) {
+                    globals.redefine(name, scope.lookup(name));
+                    break;
+                }
+            }
+        }
+        return interpreter;
+    }
+
+    /**
+     * Returns whether the value is the standard library's builtin for the
+     * name, rather than something the host or a script bound.
+     */
+    boolean isLibrary(String name, Object value) {
+        return value != null && library.get(name) == value;
+    }
+
+    /**
+     * Returns whether the value is a builtin other than the primitives, which
+     * are the only ones computing their result from just their arguments.
+     */
+    private boolean isImpureBuiltin(Object value) {
+        for (String name : Primitives.FUNCTIONS.keySet()) {
+            if (isLibrary(name, value)) {
+                return false;
+            }
+        }
+        return library.containsValue(value);
+    }
+
+    /**
+     * Defines a variable in the current scope. A definition in the global
+     * scope replaces the standard library's builtin of the same name, so
+     * scripts can use any name for their own definitions.
+     */
+    void define(String name, Object value) {
+        if (scope == globals && scope.contains(name) && isLibrary(name, scope.lookup(name))) {
+            scope.redefine(name, value);
+        } else {
+            scope.define(name, value);
+        }
+    }
+
+    /**
+     * Returns whether a variable definition evaluated now would go through
+     * the result cache.
+     */
+    boolean cachesDefinitions() {
+        return resultCache != null && scope == globals;
+    }
+
+    /**
+     * Sets the table lists are hash-consed in when they are created, or null
+     * to not hash-cons them.
+     */
+    public void setInterner(Interner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Sets the metrics calls and lookups are recorded in, or null to not
+     * record them.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics != null ? metrics.recorder() : null;
+    }
+
+    /**
+     * Sets the cache used for the values of top-level variable definitions,
+     * or null to always evaluate them.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
     }
 
     /**
@@ -46,7 +196,9 @@ public final class Interpreter {
      * is another approach to implementing the visitor pattern.
      */
     public Object eval(Ast ast) {
-        if (ast instanceof Ast.Term) {
+        if (!evaluating) {
+            return report(ast, () -> eval(ast));
+        } else if (ast instanceof Ast.Term) {
             return eval((Ast.Term) ast);
         } else if (ast instanceof Ast.Identifier) {
             return eval((Ast.Identifier) ast);
@@ -59,6 +211,103 @@ public final class Interpreter {
         }
     }
 
+    /**
+     * Runs the evaluation of an ast which isn't part of another evaluation,
+     * reporting it as an event for the flight recorder.
+     */
+    Object report(Ast ast, Supplier<Object> evaluation) {
+        Events.Eval event = new Events.Eval();
+        event.begin();
+        evaluating = true;
+        try {
+            return evaluation.get();
+        } finally {
+            evaluating = false;
+            if (event.shouldCommit()) {
+                event.term = ast instanceof Ast.Term ? ((Ast.Term) ast).getName() : ast.toString();
+                event.offset = ast instanceof Ast.Term ? ((Ast.Term) ast).getOffset() : -1;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Evaluates the ast within the limits of the budget, throwing a
+     * {@link ResourceLimitException} if it exceeds one. The budget's usage is
+     * reset, and afterwards holds what this evaluation used.
+     */
+    public Object eval(Ast ast, Budget budget) {
+        return within(budget, () -> eval(ast));
+    }
+
+    /**
+     * Runs an evaluation within the limits of the budget.
+     */
+    Object within(Budget budget, Supplier<Object> evaluation) {
+        Budget outer = this.budget;
+        this.budget = budget;
+        budget.start();
+        try {
+            return evaluation.get();
+        } finally {
+            budget.stop();
+            this.budget = outer;
+        }
+    }
+
+    /**
+     * Counts a step of the current evaluation against its budget, at each
+     * call and loop iteration.
+     */
+    void step() {
+        if (budget != null) {
+            budget.step();
+        }
+    }
+
+    /**
+     * Counts a step for each element a builtin loops over or allocates.
+     */
+    void step(long steps) {
+        if (budget != null) {
+            budget.step(steps);
+        }
+    }
+
+    /**
+     * Checks that the current evaluation can allocate an array of the given
+     * number of bytes within its budget.
+     */
+    private void allocate(long bytes) {
+        if (budget != null) {
+            budget.allocate(bytes);
+        }
+    }
+
+    /**
+     * Returns how long a blocking builtin can wait before the current
+     * evaluation's deadline, in nanoseconds.
+     */
+    private long remainingNanos() {
+        return budget != null ? budget.remainingNanos() : Budget.UNLIMITED;
+    }
+
+    /**
+     * Returns the exception for a blocking builtin which waited until the
+     * deadline.
+     */
+    private ResourceLimitException timedOut() {
+        return budget.exceeded(Budget.Resource.TIME);
+    }
+
+    /**
+     * Returns a pipeline over the source for a terminal builtin to run, which
+     * counts a step per element.
+     */
+    private Pipeline pipeline(Object source) {
+        return Pipeline.of(source).stepping(this::step);
+    }
+
     /**
      * Evaluations the Term ast, which returns the value resulting by calling
      * the function stored under the term's name in the current scope. You will
@@ -66,11 +315,129 @@ public final class Interpreter {
      * to the type {@code Function<List<Ast>, Object>}.
      */
     private Object eval(Ast.Term ast) {
-        Object object = scope.lookup(ast.getName());    //should returns the mapped function
+        Probe probe = this.probe;
+        if (probe == null) {
+            return apply(ast);
+        }
+        //a probe which throws on entering isn't entered, so isn't exited
+        probe.enter(ast);
+        try {
+            return apply(ast);
+        } finally {
+            probe.exit(ast);
+        }
+    }
 
+    private Object apply(Ast.Term ast) {
+        Object object = lookup(ast.getName());    //should returns the mapped function
+
+        if (object instanceof Closure || object instanceof Memoized) {
+            return call(object, evalAll(ast.getArgs()));
+        }
         object = requireType(Function.class, object);   //check that returned function is actually a function
         Function<List<Ast>, Object> func = (Function<List<Ast>, Object>) object;
-        return func.apply(ast.getArgs());
+        return invoke(ast.getName(), func, ast.getArgs());
+    }
+
+    /**
+     * Looks up the name in the current scope, recording the lookup in the
+     * metrics if there are any.
+     */
+    Object lookup(String name) {
+        Metrics.Recorder metrics = this.metrics;
+        return metrics == null ? scope.lookup(name) : scope.lookup(name, metrics);
+    }
+
+    /**
+     * Calls a builtin with argument ASTs, recording the call in the metrics
+     * if there are any, and as an event for the flight recorder if it's slow.
+     */
+    Object invoke(String name, Function<List<Ast>, Object> builtin, List<Ast> args) {
+        Events.Builtin event = new Events.Builtin();
+        event.begin();
+        Object result = metrics == null ? builtin.apply(args) : measure(name, builtin, args);
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.arguments = args.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    private Object measure(String name, Function<List<Ast>, Object> builtin, List<Ast> args) {
+        Metrics.Recorder metrics = this.metrics;
+        int id = Metrics.id(name, builtin);
+        long start = metrics.started(id);
+        try {
+            Object result = builtin.apply(args);
+            metrics.created(result);
+            return result;
+        } finally {
+            metrics.finished(id, start);
+        }
+    }
+
+    /**
+     * Assigns an evaluated value to a variable as {@code set!} does, updating
+     * the cell instead if the variable is bound to one.
+     */
+    void assign(String name, Object value) {
+        Object current = scope.lookup(name);
+        if (current instanceof Cell) {
+            ((Cell) current).set(value, this::compute);
+        } else {
+            scope.set(name, value);
+        }
+    }
+
+    /**
+     * Calls a function with already evaluated arguments. Builtins take their
+     * arguments as ASTs, so the values are bound to temporary names in a new
+     * scope and passed as identifiers (using names that can't be lexed, so
+     * they don't conflict with anything in Whisp).
+     */
+    Object call(Object function, List<Object> values) {
+        if (function instanceof Closure) {
+            Closure closure = (Closure) function;
+            if (values.size() != closure.getParameters().size())
+                throw new EvalException(closure.getName() + " requires " + closure.getParameters().size() + " arguments");
+
+            step();
+            if (metrics != null) {
+                metrics.created(Metrics.Type.SCOPE);
+            }
+            Scope caller = scope;
+            scope = new Scope(closure.getScope());
+            try {
+                for (int i = 0; i < values.size(); i++) {
+                    scope.define(closure.getParameters().get(i), values.get(i));
+                }
+                return eval(closure.getBody());
+            } finally {
+                scope = caller;
+            }
+        } else if (function instanceof Memoized) {
+            MemoCache cache = ((Memoized) function).getCache();
+            Object result = cache.get(values);
+            if (result == null) {
+                result = call(((Memoized) function).getFunction(), values);
+                cache.put(values, result);
+            }
+            return result;
+        }
+        Function<List<Ast>, Object> func = (Function<List<Ast>, Object>) requireType(Function.class, function);
+        Scope caller = scope;
+        scope = new Scope(caller);
+        try {
+            List<Ast> args = new ArrayList<>(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                scope.define("%" + i, values.get(i));
+                args.add(new Ast.Identifier("%" + i));
+            }
+            return func.apply(args);
+        } finally {
+            scope = caller;
+        }
     }
 
     /**
@@ -78,7 +445,15 @@ public final class Interpreter {
      * identifier's name in the current scope.
      */
     private Object eval(Ast.Identifier ast) {   //evaluate whatever is in the AST
-        return scope.lookup(ast.getName());     //separate terms evaluated with scope vs without
+        Object value = lookup(ast.getName());     //separate terms evaluated with scope vs without
+        if (value instanceof Cell) {
+            Cell cell = (Cell) value;
+            if (tracking != null) {
+                tracking.dependOn(cell);
+            }
+            return cell.getValue();
+        }
+        return value;
     }
 
     /**
@@ -96,270 +471,891 @@ public final class Interpreter {
     }
 
     /**
-     * Initializes the given scope with fields and functions in the standard
-     * library.
+     * Creates the fields and functions in the standard library, which the
+     * constructor adds to the given scope.
      */
     private void init() {
-        scope.define("print", (Function<List<Ast>, Object>) args -> {
+        library.put("print", (Function<List<Ast>, Object>) args -> {
             List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            evaluated.forEach(out::print);
+            for (Object value : evaluated) {
+                if (value instanceof Rope) {
+                    try {
+                        ((Rope) value).writeTo(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else {
+                    out.print(value instanceof double[] ? Arrays.toString((double[]) value)
+                            : value instanceof long[] ? Arrays.toString((long[]) value) : value);
+                }
+            }
             out.println();
             return VOID;
         });
-        scope.define("+", (Function<List<Ast>, Object>) args -> {
-            List<BigDecimal> evaluated = args.stream().map(a -> requireType(BigDecimal.class, eval(a))).collect(Collectors.toList());
-            BigDecimal result = BigDecimal.ZERO;            //return 0 if no args
-            for (int i = 0; i < evaluated.size(); i++) {
-                result = result.add(evaluated.get(i));
+        library.put("+", (Function<List<Ast>, Object>) args -> Primitives.add(evalAll(args)));
+        library.put("-", (Function<List<Ast>, Object>) args -> Primitives.subtract(evalAll(args)));
+        library.put("*", (Function<List<Ast>, Object>) args -> Primitives.multiply(evalAll(args)));
+        library.put("/", (Function<List<Ast>, Object>) args -> Primitives.divide(evalAll(args)));
+        library.put("true", true);
+        library.put("false", false);
+        library.put("equals?", (Function<List<Ast>, Object>) args -> Primitives.equal(evalAll(args)));
+        library.put("not", (Function<List<Ast>, Object>) args -> Primitives.not(evalAll(args)));
+        library.put("and", (Function<List<Ast>, Object>) args -> {
+            for (Ast arg : args) {
+                if (!requireType(Boolean.class, eval(arg)))
+                    return false;
             }
-            return result;
+            return true;
         });
-        scope.define("-", (Function<List<Ast>, Object>) args -> {
-            List<BigDecimal> evaluated = args.stream().map(a -> requireType(BigDecimal.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty()) {
-                throw new EvalException("Subtraction must have at least one argument");
+        library.put("or", (Function<List<Ast>, Object>) args -> {
+            for (Ast arg : args) {
+                if (requireType(Boolean.class, eval(arg)))
+                    return true;
             }
+            return false;
+        });
+        library.put("<", (Function<List<Ast>, Object>) args -> Primitives.less(evalAll(args)));
+        library.put("<=", (Function<List<Ast>, Object>) args -> Primitives.lessEqual(evalAll(args)));
+        library.put(">", (Function<List<Ast>, Object>) args -> Primitives.greater(evalAll(args)));
+        library.put(">=", (Function<List<Ast>, Object>) args -> Primitives.greaterEqual(evalAll(args)));
+        library.put("list", (Function<List<Ast>, Object>) args -> intern(Primitives.list(evalAll(args))));
+        library.put("range", (Function<List<Ast>, Object>) args -> intern(Primitives.range(evalAll(args), this::step)));
+        library.put("define", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("define requires two arguments");
+
+            Ast.Term term = null;
+            Ast.Identifier identifier = null;
+            Ast ast = requireType(Ast.class, args.get(1));
 
-            BigDecimal result = evaluated.get(0);
-            if (evaluated.size() == 1) {    //add result to zero and negate it
-                return result.negate();
+            try {
+                term = requireType(Ast.Term.class, args.get(0));
+            }
+            catch (EvalException e) {
+                identifier = requireType(Ast.Identifier.class, args.get(0));
             }
 
-            for (int i = 1; i < evaluated.size(); i++) {
-                result = result.subtract(evaluated.get(i));
+            if (term != null) { //function definition
+                List<String> parameters = new ArrayList<>();
+                for (Ast parameter : term.getArgs()) {
+                    parameters.add(requireType(Ast.Identifier.class, parameter).getName());
+                }
+                define(term.getName(), new Closure(term.getName(), parameters, ast, scope));
             }
-            return result;
-        });
-        scope.define("*", (Function<List<Ast>, Object>) args -> {
-            List<BigDecimal> evaluated = args.stream().map(a -> requireType(BigDecimal.class, eval(a))).collect(Collectors.toList());
-            BigDecimal result = BigDecimal.ONE;         //returns 1 if no args
-            for (int i = 0; i < evaluated.size(); i++) {
-                result = result.multiply(evaluated.get(i));
+            else if (resultCache != null && scope == globals && ast instanceof Ast.Term) {
+                define(identifier.getName(), resultCache.evaluate(ast, scope, this::isLibrary, () -> eval(ast)));
             }
-            return result;
-        });
-        scope.define("/", (Function<List<Ast>, Object>) args -> {
-            List<BigDecimal> evaluated = args.stream().map(a -> requireType(BigDecimal.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty()) {
-                throw new EvalException("Division must have at least one argument");
+            else {              //variable definition
+                define(identifier.getName(), eval(ast));
             }
 
-            BigDecimal result = evaluated.get(0);
-            if (evaluated.size() == 1) {    //raise to power of -1 to get inverse
-                result = BigDecimal.ONE.divide(result, RoundingMode.HALF_EVEN);
+            return VOID;
+        });
+        library.put("set!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("set! requires two arguments");
+
+            Ast.Identifier var_name = requireType(Ast.Identifier.class, args.get(0));
+            Ast var_value = requireType(Ast.class, args.get(1));
+
+            assign(var_name.getName(), eval(var_value));
+
+            return VOID;
+        });
+        library.put("do", (Function<List<Ast>, Object>) args -> {
+            if (args.isEmpty()) return VOID;
+
+            scope = new Scope(scope);
+            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
+
+            scope = scope.getParent();
+            return evaluated.get(evaluated.size() - 1);
+        });
+        library.put("while", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("while requires two arguments");
+
+            while (requireType(Boolean.class, eval(args.get(0)))) {
+                step();
+                eval(args.get(1));
             }
 
-            for (int i = 1; i < evaluated.size(); i++) {
-                result = result.divide(evaluated.get(i), RoundingMode.HALF_EVEN);
+            return VOID;
+        });
+        library.put("if", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2 && args.size() != 3) throw new EvalException("if requires two or three arguments");
+
+            if (requireType(Boolean.class, eval(args.get(0))))
+                return eval(args.get(1));
+
+            return args.size() == 3 ? eval(args.get(2)) : VOID;
+        });
+        library.put("for", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("for requires two arguments");
+
+            Ast.Term term = requireType(Ast.Term.class, args.get(0));
+            String identifier_name = term.getName();
+            List<Ast> term_args = term.getArgs();
+
+            if (term_args.size() != 1)
+                throw new EvalException("Only one argument allowed to for loop");
+
+            Ast.Identifier list_ast = requireType(Ast.Identifier.class, term_args.get(0));
+            LinkedList list = requireType(LinkedList.class, eval(list_ast));
+
+            scope = new Scope(scope);
+            scope.define(identifier_name, list.get(0));
+
+            Ast ast = requireType(Ast.class, args.get(1));
+
+            for (Object o : list) {
+                step();
+                scope.set(identifier_name, o);
+                eval(ast);
             }
 
+//            return scope.lookup("count"); //for testing purposes
+
+            scope = scope.getParent();
+            return VOID;
+        });
+        library.put("async", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("async requires one argument");
+
+            Ast ast = args.get(0);
+            Interpreter task = fork();
+            return Promise.submit(() -> task.eval(ast));
+        });
+        library.put("await", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("await requires one argument");
+
+            Object result = requireType(Promise.class, eval(args.get(0))).await(remainingNanos());
+            if (result == null) throw timedOut();
             return result;
         });
-        scope.define("true", true);
-        scope.define("false", false);
-        scope.define("equals?", (Function<List<Ast>, Object>) args -> {
+        library.put("all", (Function<List<Ast>, Object>) args -> {
             List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            if (evaluated.size() != 2)
-                throw new EvalException("equals? requires two arguments for comparison");
+            if (evaluated.size() == 1 && evaluated.get(0) instanceof LinkedList) {
+                evaluated = (LinkedList<Object>) evaluated.get(0);
+            }
 
-            return Objects.deepEquals(evaluated.get(0), evaluated.get(1));
+            LinkedList<Object> results = new LinkedList<Object>();
+            for (Object promise : evaluated) {
+                Object result = requireType(Promise.class, promise).await(remainingNanos());
+                if (result == null) throw timedOut();
+                results.add(Rope.flatten(result));
+            }
+            return results;
         });
-        scope.define("not", (Function<List<Ast>, Object>) args -> {
-            List<Boolean> evaluated = args.stream().map(a -> requireType(Boolean.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.size() != 1)
-                throw new EvalException(("not only takes a single argument"));
+        library.put("cancel!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("cancel! requires one argument");
 
-            return !evaluated.get(0);
+            return requireType(Promise.class, eval(args.get(0))).cancel();
         });
-        scope.define("and", (Function<List<Ast>, Object>) args -> {
-            for (Ast arg : args) {
-                if (!requireType(Boolean.class, eval(arg)))
-                    return false;
-            }
-            return true;
+        library.put("spawn", (Function<List<Ast>, Object>) args -> {
+            if (args.isEmpty()) throw new EvalException("spawn requires at least one argument");
+
+            Interpreter task = fork();
+            return Promise.submit(() -> {
+                Object result = VOID;
+                for (Ast arg : args) {
+                    result = task.eval(arg);
+                }
+                return result;
+            });
         });
-        scope.define("or", (Function<List<Ast>, Object>) args -> {
-            for (Ast arg : args) {
-                if (requireType(Boolean.class, eval(arg)))
-                    return true;
+        library.put("generator", (Function<List<Ast>, Object>) args -> {
+            if (args.isEmpty()) throw new EvalException("generator requires at least one argument");
+
+            //each run forks this snapshot, so it sees the scope as it was now
+            Interpreter template = fork();
+            if (StackEvaluator.suspendable(template, args)) {
+                return new Generator(() -> new Generator.Suspended(new StackEvaluator(template.fork()), args));
             }
-            return false;
+            return new Generator(() -> new Generator.Run(handoff -> {
+                Interpreter task = template.fork();
+                task.generating = handoff;
+                return Promise.submit(() -> handoff.body(() -> {
+                    for (Ast arg : args) {
+                        task.eval(arg);
+                    }
+                    return VOID;
+                }));
+            }));
         });
-        scope.define("<", (Function<List<Ast>, Object>) args -> {
-            List<Comparable> evaluated = args.stream().map(a -> requireType(Comparable.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty() || evaluated.size() == 1) return true;
+        library.put("yield", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("yield requires one argument");
+            if (generating == null) throw new EvalException("yield can only be used inside a generator");
 
-            Comparable compare_1 = evaluated.get(0);
-            for(int i = 1; i < evaluated.size(); i++) {
-                Comparable compare_2 = evaluated.get(i);
+            generating.yield(eval(args.get(0)));
+            return VOID;
+        });
+        library.put("chan", (Function<List<Ast>, Object>) args -> {
+            if (args.size() > 1) throw new EvalException("chan takes at most one argument");
+            if (args.isEmpty()) return new Channel(1);
 
-                if (compare_1.compareTo(compare_2) != -1)
-                    return false;
+            BigDecimal capacity = requireType(BigDecimal.class, eval(args.get(0)));
+            if (capacity.signum() <= 0 || capacity.stripTrailingZeros().scale() > 0)
+                throw new EvalException("chan requires a positive integer capacity");
 
-                compare_1 = compare_2;
-            }
+            return new Channel(capacity.intValue());
+        });
+        library.put("send!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("send! requires two arguments");
 
-            return true;
+            Channel channel = requireType(Channel.class, eval(args.get(0)));
+            if (!channel.send(eval(args.get(1)), remainingNanos())) throw timedOut();
+            return VOID;
         });
-        scope.define("<=", (Function<List<Ast>, Object>) args -> {
-            List<Comparable> evaluated = args.stream().map(a -> requireType(Comparable.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty() || evaluated.size() == 1) return true;
+        library.put("recv!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("recv! requires one argument");
 
-            Comparable compare_1 = evaluated.get(0);
-            for(int i = 1; i < evaluated.size(); i++) {
-                Comparable compare_2 = evaluated.get(i);
+            Object value = requireType(Channel.class, eval(args.get(0))).receive(remainingNanos());
+            if (value == null) throw timedOut();
+            return value;
+        });
+        library.put("close!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("close! requires one argument");
 
-                if (compare_1.compareTo(compare_2) == 1)
-                    return false;
+            requireType(Channel.class, eval(args.get(0))).close();
+            return VOID;
+        });
+        library.put("closed?", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("closed? requires one argument");
 
-                compare_1 = compare_2;
-            }
+            return requireType(Channel.class, eval(args.get(0))).isClosed();
+        });
+        library.put("ref", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("ref requires one argument");
 
-            return true;
+            return new Ref(eval(args.get(0)));
         });
-        scope.define(">", (Function<List<Ast>, Object>) args -> {
-            List<Comparable> evaluated = args.stream().map(a -> requireType(Comparable.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty() || evaluated.size() == 1) return true;
+        library.put("deref", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("deref requires one argument");
 
-            Comparable compare_1 = evaluated.get(0);
-            for(int i = 1; i < evaluated.size(); i++) {
-                Comparable compare_2 = evaluated.get(i);
+            return Transaction.read(requireType(Ref.class, eval(args.get(0))));
+        });
+        library.put("alter!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("alter! requires two arguments");
 
-                if (compare_1.compareTo(compare_2) != 1)
-                    return false;
+            Ref ref = requireType(Ref.class, eval(args.get(0)));
+            Object value = eval(args.get(1));
+            Transaction.write(ref, value);
+            return value;
+        });
+        library.put("dosync", (Function<List<Ast>, Object>) args -> {
+            if (args.isEmpty()) return VOID;
 
-                compare_1 = compare_2;
+            Scope outer = scope;
+            return Transaction.run(() -> {
+                scope = new Scope(outer);       //fresh scope per attempt, so retries can define again
+                try {
+                    Object result = VOID;
+                    for (Ast arg : args) {
+                        result = eval(arg);
+                    }
+                    return result;
+                } finally {
+                    scope = outer;
+                }
+            });
+        });
+        library.put("stm-stats", (Function<List<Ast>, Object>) args -> {
+            if (!args.isEmpty()) throw new EvalException("stm-stats takes no arguments");
+
+            return new LinkedList<Object>(Arrays.asList(
+                    BigDecimal.valueOf(Transaction.getCommits()),
+                    BigDecimal.valueOf(Transaction.getRetries())));
+        });
+        library.put("hash-map", (Function<List<Ast>, Object>) args -> {
+            if (args.size() % 2 != 0) throw new EvalException("hash-map requires an even number of arguments");
+
+            PrimitiveMap map = new PrimitiveMap();
+            for (int i = 0; i < args.size(); i += 2) {
+                map.put(eval(args.get(i)), eval(args.get(i + 1)));
             }
+            return map;
+        });
+        library.put("get", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2 && args.size() != 3) throw new EvalException("get requires two or three arguments");
+
+            PrimitiveMap map = requireType(PrimitiveMap.class, eval(args.get(0)));
+            Object key = eval(args.get(1));
+            Object value = map.get(key);
+            if (value != null) {
+                return value;
+            } else if (args.size() == 3) {
+                return eval(args.get(2));
+            }
+            throw new EvalException("The key " + key + " is not in the map.");
+        });
+        library.put("put!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 3) throw new EvalException("put! requires three arguments");
 
-            return true;
+            requireType(PrimitiveMap.class, eval(args.get(0))).put(eval(args.get(1)), eval(args.get(2)));
+            return VOID;
         });
-        scope.define(">=", (Function<List<Ast>, Object>) args -> {
-            List<Comparable> evaluated = args.stream().map(a -> requireType(Comparable.class, eval(a))).collect(Collectors.toList());
-            if (evaluated.isEmpty() || evaluated.size() == 1) return true;
+        library.put("contains?", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("contains? requires two arguments");
 
-            Comparable compare_1 = evaluated.get(0);
-            for(int i = 1; i < evaluated.size(); i++) {
-                Comparable compare_2 = evaluated.get(i);
+            return requireType(PrimitiveMap.class, eval(args.get(0))).containsKey(eval(args.get(1)));
+        });
+        library.put("remove!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("remove! requires two arguments");
 
-                if (compare_1.compareTo(compare_2) == -1)
-                    return false;
+            requireType(PrimitiveMap.class, eval(args.get(0))).remove(eval(args.get(1)));
+            return VOID;
+        });
+        library.put("keys", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("keys requires one argument");
 
-                compare_1 = compare_2;
+            return requireType(PrimitiveMap.class, eval(args.get(0))).keys();
+        });
+        library.put("double-array", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("double-array requires one argument");
+
+            Object value = eval(args.get(0));
+            if (value instanceof LinkedList) {
+                List<?> list = (List<?>) value;
+                allocate(8L * list.size());
+                step(list.size());
+                double[] array = new double[list.size()];
+                int i = 0;
+                for (Object element : list) {
+                    array[i++] = requireType(BigDecimal.class, element).doubleValue();
+                }
+                return array;
             }
-
-            return true;
+            int length = requireLength(value);
+            allocate(8L * length);
+            step(length);
+            return new double[length];
         });
-        scope.define("list", (Function<List<Ast>, Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            LinkedList<Object> list = new LinkedList<Object>();
-            if (evaluated.isEmpty()) return list;
+        library.put("long-array", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("long-array requires one argument");
+
+            Object value = eval(args.get(0));
+            if (value instanceof LinkedList) {
+                List<?> list = (List<?>) value;
+                allocate(8L * list.size());
+                step(list.size());
+                long[] array = new long[list.size()];
+                int i = 0;
+                for (Object element : list) {
+                    array[i++] = NumericArrays.toLong(requireType(BigDecimal.class, element));
+                }
+                return array;
+            }
+            int length = requireLength(value);
+            allocate(8L * length);
+            step(length);
+            return new long[length];
+        });
+        library.put("aget", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("aget requires two arguments");
 
-            list.addAll(evaluated);
-            return list;
+            Object array = requireArray(eval(args.get(0)));
+            int index = requireIndex(array, eval(args.get(1)));
+            return array instanceof double[] ? Primitives.decimal(((double[]) array)[index])
+                    : BigDecimal.valueOf(((long[]) array)[index]);
         });
-        scope.define("range", (Function<List<Ast>, Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            if (evaluated.size() != 2) throw new EvalException("Range requires 2 arguments");
+        library.put("aset!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 3) throw new EvalException("aset! requires three arguments");
+
+            Object array = requireArray(eval(args.get(0)));
+            int index = requireIndex(array, eval(args.get(1)));
+            BigDecimal value = requireType(BigDecimal.class, eval(args.get(2)));
+            if (array instanceof double[]) {
+                ((double[]) array)[index] = value.doubleValue();
+            } else {
+                ((long[]) array)[index] = NumericArrays.toLong(value);
+            }
+            return VOID;
+        });
+        library.put("alength", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("alength requires one argument");
 
-            BigDecimal first_arg = requireType(BigDecimal.class, evaluated.get(0));
-            BigDecimal second_arg = requireType(BigDecimal.class, evaluated.get(1));
+            Object array = requireArray(eval(args.get(0)));
+            return BigDecimal.valueOf(array instanceof double[] ? ((double[]) array).length : ((long[]) array).length);
+        });
+        library.put("asum", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("asum requires one argument");
 
-            LinkedList<BigDecimal> list = new LinkedList<BigDecimal>();
-            int res = second_arg.compareTo(first_arg);
-            if (res < 0)
-                throw new EvalException("Range requires second argument to be greater than the first");
-            else if (res == 0)
-                return list;
+            Object array = requireArray(eval(args.get(0)));
+            return array instanceof double[] ? Primitives.decimal(NumericArrays.sum((double[]) array))
+                    : new BigDecimal(NumericArrays.sum((long[]) array));
+        });
+        library.put("adot", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("adot requires two arguments");
 
-            if (Math.round(first_arg.doubleValue()) != first_arg.doubleValue() ||
-                Math.round(second_arg.doubleValue()) != second_arg.doubleValue())
-                    throw new EvalException("Range requires integers");
+            Object first = requireArray(eval(args.get(0)));
+            Object second = requireType(first.getClass(), eval(args.get(1)));
+            return first instanceof double[] ? Primitives.decimal(NumericArrays.dot((double[]) first, (double[]) second))
+                    : new BigDecimal(NumericArrays.dot((long[]) first, (long[]) second));
+        });
+        library.put("amap", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2 && args.size() != 3) throw new EvalException("amap requires two or three arguments");
 
-            int arg1 = first_arg.intValue();
-            int arg2 = second_arg.intValue();
-            for (int i = arg1; i < arg2; i++) {
-                list.add(BigDecimal.valueOf(i));
+            Object function = eval(args.get(0));
+            Object array = requireArray(eval(args.get(1)));
+            Object other = args.size() == 3 ? eval(args.get(2)) : null;
+            return amap(function, array, other);
+        });
+        library.put("column", (Function<List<Ast>, Object>) args -> {
+            if (args.size() > 1) throw new EvalException("column requires zero or one arguments");
+
+            OffHeapColumn column = new OffHeapColumn();
+            if (!args.isEmpty()) {
+                Object values = eval(args.get(0));
+                if (values instanceof double[]) {
+                    for (double value : (double[]) values) {
+                        step();
+                        column.append(value);
+                    }
+                } else {
+                    for (Object value : requireType(LinkedList.class, values)) {
+                        step();
+                        column.append(requireType(BigDecimal.class, value).doubleValue());
+                    }
+                }
             }
-            return list;
+            return column;
         });
-        scope.define("define", (Function<List<Ast>, Object>) args -> {
-            if (args.size() != 2) throw new EvalException("define requires two arguments");
+        library.put("col-append!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("col-append! requires two arguments");
 
-            Ast.Term term = null;
-            Ast.Identifier identifier = null;
-            Ast ast = requireType(Ast.class, args.get(1));
+            requireType(OffHeapColumn.class, eval(args.get(0))).append(requireType(BigDecimal.class, eval(args.get(1))).doubleValue());
+            return VOID;
+        });
+        library.put("col-get", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("col-get requires two arguments");
+
+            OffHeapColumn column = requireType(OffHeapColumn.class, eval(args.get(0)));
+            return Primitives.decimal(column.get(requireIndex(column, eval(args.get(1)))));
+        });
+        library.put("col-set!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 3) throw new EvalException("col-set! requires three arguments");
+
+            OffHeapColumn column = requireType(OffHeapColumn.class, eval(args.get(0)));
+            long index = requireIndex(column, eval(args.get(1)));
+            column.set(index, requireType(BigDecimal.class, eval(args.get(2))).doubleValue());
+            return VOID;
+        });
+        library.put("col-close!", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("col-close! requires one argument");
 
             try {
-                term = requireType(Ast.Term.class, args.get(0));
-            }
-            catch (EvalException e) {
-                identifier = requireType(Ast.Identifier.class, args.get(0));
+                requireType(OffHeapColumn.class, eval(args.get(0))).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+            return VOID;
+        });
+        library.put("col-length", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("col-length requires one argument");
 
-            if (term != null) { //function definition
+            return BigDecimal.valueOf(requireType(OffHeapColumn.class, eval(args.get(0))).length());
+        });
+        library.put("col-sum", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("col-sum requires one argument");
+
+            return Primitives.decimal(requireType(OffHeapColumn.class, eval(args.get(0))).sum());
+        });
+        library.put("col-min", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("col-min requires one argument");
 
+            return Primitives.decimal(requireType(OffHeapColumn.class, eval(args.get(0))).min());
+        });
+        library.put("col-max", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("col-max requires one argument");
+
+            return Primitives.decimal(requireType(OffHeapColumn.class, eval(args.get(0))).max());
+        });
+        library.put("col-count-if", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2 && args.size() != 3) throw new EvalException("col-count-if requires two or three arguments");
+
+            //(col-count-if c pred) calls (pred element), (col-count-if c pred x) calls (pred element x)
+            OffHeapColumn column = requireType(OffHeapColumn.class, eval(args.get(0)));
+            Object predicate = eval(args.get(1));
+            Object other = args.size() == 3 ? eval(args.get(2)) : null;
+            if (other instanceof BigDecimal) {
+                double x = ((BigDecimal) other).doubleValue();
+                if (predicate == library.get("<")) {
+                    return BigDecimal.valueOf(column.countIf(value -> value < x));
+                } else if (predicate == library.get("<=")) {
+                    return BigDecimal.valueOf(column.countIf(value -> value <= x));
+                } else if (predicate == library.get(">")) {
+                    return BigDecimal.valueOf(column.countIf(value -> value > x));
+                } else if (predicate == library.get(">=")) {
+                    return BigDecimal.valueOf(column.countIf(value -> value >= x));
+                }
             }
-            else {              //variable definition
-                scope.define(identifier.getName(), eval(ast));
+            return BigDecimal.valueOf(column.countIf(value -> {
+                List<Object> values = new ArrayList<>(2);
+                values.add(Primitives.decimal(value));
+                if (other != null) {
+                    values.add(other);
+                }
+                return requireType(Boolean.class, call(predicate, values));
+            }));
+        });
+        library.put("str", (Function<List<Ast>, Object>) args -> {
+            CharSequence result = "";
+            for (Ast arg : args) {
+                Object value = eval(arg);
+                result = Rope.concat(result, value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+            }
+            return result;
+        });
+        library.put("str-append", (Function<List<Ast>, Object>) args -> {
+            CharSequence result = "";
+            for (Ast arg : args) {
+                result = Rope.concat(result, requireString(eval(arg)));
             }
+            return result;
+        });
+        library.put("substring", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2 && args.size() != 3) throw new EvalException("substring requires two or three arguments");
+
+            String string = requireString(eval(args.get(0))).toString();
+            int start = requireType(BigDecimal.class, eval(args.get(1))).intValue();
+            int end = args.size() == 3 ? requireType(BigDecimal.class, eval(args.get(2))).intValue() : string.length();
+            if (start < 0 || end > string.length() || start > end)
+                throw new EvalException("substring range " + start + " to " + end + " is out of bounds for a string of length " + string.length());
+            return string.substring(start, end);
+        });
+        library.put("str-length", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("str-length requires one argument");
 
-            return VOID;
+            return BigDecimal.valueOf(requireString(eval(args.get(0))).length());
         });
-        scope.define("set!", (Function<List<Ast>, Object>) args -> {
-            if (args.size() != 2) throw new EvalException("set! requires two arguments");
+        library.put("str-join", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("str-join requires two arguments");
+
+            CharSequence separator = requireString(eval(args.get(0)));
+            StringBuilder builder = new StringBuilder();
+            boolean first = true;
+            for (Object element : requireType(LinkedList.class, eval(args.get(1)))) {
+                if (!first) {
+                    builder.append(separator);
+                }
+                builder.append(requireString(element));
+                first = false;
+            }
+            return builder.toString();
+        });
+        library.put("str-split", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("str-split requires two arguments");
+
+            String string = requireString(eval(args.get(0))).toString();
+            String separator = requireString(eval(args.get(1))).toString();
+            if (separator.isEmpty()) throw new EvalException("str-split requires a non-empty separator");
+
+            HashedList parts = new HashedList();
+            int start = 0;
+            for (int end = string.indexOf(separator); end >= 0; end = string.indexOf(separator, start)) {
+                parts.add(string.substring(start, end));
+                start = end + separator.length();
+            }
+            parts.add(string.substring(start));
+            return parts;
+        });
+        library.put("map", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("map requires two arguments");
 
-            Ast.Identifier var_name = requireType(Ast.Identifier.class, args.get(0));
-            Ast var_value = requireType(Ast.class, args.get(1));
+            Object function = eval(args.get(0));
+            return Pipeline.of(eval(args.get(1))).map(value -> call(function, Collections.singletonList(value)));
+        });
+        library.put("filter", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("filter requires two arguments");
 
-            scope.set(var_name.getName(), eval(var_value));
+            Object predicate = eval(args.get(0));
+            return Pipeline.of(eval(args.get(1))).filter(value ->
+                    requireType(Boolean.class, call(predicate, Collections.singletonList(value))));
+        });
+        library.put("take", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("take requires two arguments");
 
-            return VOID;
+            long count = requireCount(eval(args.get(0)));
+            return Pipeline.of(eval(args.get(1))).take(count);
         });
-        scope.define("do", (Function<List<Ast>, Object>) args -> {
-            if (args.isEmpty()) return VOID;
+        library.put("drop", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("drop requires two arguments");
 
-            scope = new Scope(scope);
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
+            long count = requireCount(eval(args.get(0)));
+            return Pipeline.of(eval(args.get(1))).drop(count);
+        });
+        library.put("partition", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("partition requires two arguments");
 
-            scope = scope.getParent();
-            return evaluated.get(evaluated.size() - 1);
+            long size = requireCount(eval(args.get(0)));
+            if (size == 0 || size > Integer.MAX_VALUE) throw new EvalException("partition requires a positive size");
+            return Pipeline.of(eval(args.get(1))).partition((int) size);
         });
-        scope.define("while", (Function<List<Ast>, Object>) args -> {
-            if (args.size() != 2) throw new EvalException("while requires two arguments");
+        library.put("reduce", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 3) throw new EvalException("reduce requires three arguments");
 
-            while (requireType(Boolean.class, eval(args.get(0))))
-                eval(args.get(1));
+            Object function = eval(args.get(0));
+            Object initial = eval(args.get(1));
+            return pipeline(eval(args.get(2))).reduce((result, value) -> call(function, Arrays.asList(result, value)), initial);
+        });
+        library.put("into", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 2) throw new EvalException("into requires two arguments");
+
+            //(into (list ...) seq) returns a new list, (into map seq) adds (key value) pairs to the map
+            Object target = eval(args.get(0));
+            Pipeline pipeline = pipeline(eval(args.get(1)));
+            if (target instanceof PrimitiveMap) {
+                pipeline.run(value -> {
+                    List<?> pair = requireType(LinkedList.class, value);
+                    if (pair.size() != 2) throw new EvalException("into requires (key value) pairs for a map");
+                    ((PrimitiveMap) target).put(pair.get(0), pair.get(1));
+                    return true;
+                });
+                return target;
+            }
+            HashedList list = new HashedList(requireType(LinkedList.class, target));
+            pipeline.run(value -> list.add(Rope.flatten(value)));
+            return intern(list);
+        });
+        library.put("count", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("count requires one argument");
 
-            return VOID;
+            return BigDecimal.valueOf(pipeline(eval(args.get(0))).count());
         });
-        scope.define("for", (Function<List<Ast>, Object>) args -> {
-            if (args.size() != 2) throw new EvalException("for requires two arguments");
+        library.put("memoize", (Function<List<Ast>, Object>) args -> {
+            if (args.isEmpty() || args.size() > 3) throw new EvalException("memoize requires one to three arguments");
+
+            Object function = eval(args.get(0));
+            if (!(function instanceof Function || function instanceof Closure || function instanceof Memoized))
+                throw new EvalException("Expected " + function + " to be a function.");
+            if (isImpureBuiltin(function))
+                throw new EvalException("Cannot memoize " + function + ", as its result doesn't only depend on its arguments.");
+
+            int size = 10_000;
+            if (args.size() > 1) {
+                BigDecimal max = requireType(BigDecimal.class, eval(args.get(1)));
+                if (max.signum() <= 0 || max.stripTrailingZeros().scale() > 0)
+                    throw new EvalException("memoize requires a positive integer size");
+                if (max.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0)
+                    throw new EvalException("memoize can have a size of at most " + Integer.MAX_VALUE);
+                size = max.intValue();
+            }
+            MemoCache.Policy policy = MemoCache.Policy.LRU;
+            if (args.size() > 2) {
+                String name = requireType(String.class, eval(args.get(2)));
+                if (name.equalsIgnoreCase("lfu")) {
+                    policy = MemoCache.Policy.LFU;
+                } else if (!name.equalsIgnoreCase("lru")) {
+                    throw new EvalException("memoize policy must be \"lru\" or \"lfu\"");
+                }
+            }
+            return new Memoized(function, new MemoCache(size, policy));
+        });
+        library.put("memo-stats", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("memo-stats requires one argument");
+
+            MemoCache cache = requireType(Memoized.class, eval(args.get(0))).getCache();
+            return new LinkedList<Object>(Arrays.asList(
+                    BigDecimal.valueOf(cache.getHits()),
+                    BigDecimal.valueOf(cache.getMisses()),
+                    BigDecimal.valueOf(cache.getEvictions()),
+                    BigDecimal.valueOf(cache.size())));
+        });
+        library.put("cell", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("cell requires one argument");
 
-            Ast.Term term = requireType(Ast.Term.class, args.get(0));
-            String identifier_name = term.getName();
-            List<Ast> term_args = term.getArgs();
+            return new Cell(eval(args.get(0)));
+        });
+        library.put("formula", (Function<List<Ast>, Object>) args -> {
+            if (args.size() != 1) throw new EvalException("formula requires one argument");
 
-            if (term_args.size() != 1)
-                throw new EvalException("Only one argument allowed to for loop");
+            Cell cell = new Cell(args.get(0), scope);
+            cell.recompute(this::compute);
+            return cell;
+        });
+    }
 
-            Ast.Identifier list_ast = requireType(Ast.Identifier.class, term_args.get(0));
-            LinkedList list = requireType(LinkedList.class, eval(list_ast));
+    /**
+     * Evaluates a formula cell in the scope it was created in, tracking the
+     * cells it reads.
+     */
+    private Object compute(Cell cell) {
+        Cell previousTracking = tracking;
+        Scope previousScope = scope;
+        tracking = cell;
+        scope = cell.getScope();
+        try {
+            return eval(cell.getFormula());
+        } finally {
+            tracking = previousTracking;
+            scope = previousScope;
+        }
+    }
 
-            scope = new Scope(scope);
-            scope.define(identifier_name, list.get(0));
+    /**
+     * Maps a function over an array, or over the elements of two arrays (or
+     * an array and a number). The arithmetic builtins are applied with
+     * primitive loops, anything else is called once per element.
+     */
+    private Object amap(Object function, Object array, Object other) {
+        boolean doubles = array instanceof double[];
+        int length = doubles ? ((double[]) array).length : ((long[]) array).length;
+        if (other != null && !(other instanceof BigDecimal)) {
+            other = requireType(array.getClass(), other);
+            if ((doubles ? ((double[]) other).length : ((long[]) other).length) != length)
+                throw new EvalException("amap requires arrays of the same length");
+        }
+        allocate(8L * length);
+        step(length);
 
-            Ast ast = requireType(Ast.class, args.get(1));
+        char operator = 0;
+        for (String name : Arrays.asList("+", "-", "*", "/")) {
+            if (function == library.get(name)) {
+                operator = name.charAt(0);
+            }
+        }
+        if (operator != 0 && (doubles || operator != '/')) {
+            if (other == null) {
+                if (operator == '-') {
+                    return doubles ? NumericArrays.negate((double[]) array) : NumericArrays.negate((long[]) array);
+                } else if (operator != '/') {
+                    return doubles ? ((double[]) array).clone() : ((long[]) array).clone();
+                }
+            } else if (doubles) {
+                return NumericArrays.apply(operator, (double[]) array,
+                        other instanceof BigDecimal ? (Object) ((BigDecimal) other).doubleValue() : other);
+            } else {
+                return NumericArrays.apply(operator, (long[]) array,
+                        other instanceof BigDecimal ? (Object) NumericArrays.toLong((BigDecimal) other) : other);
+            }
+        }
 
-            for (Object o : list) {
-                scope.set(identifier_name, o);
-                eval(ast);
+        Object result = doubles ? new double[length] : new long[length];
+        for (int i = 0; i < length; i++) {
+            List<Object> values = new ArrayList<>(2);
+            values.add(element(array, i));
+            if (other != null) {
+                values.add(other instanceof BigDecimal ? other : element(other, i));
+            }
+            BigDecimal value = requireType(BigDecimal.class, call(function, values));
+            if (doubles) {
+                ((double[]) result)[i] = value.doubleValue();
+            } else {
+                ((long[]) result)[i] = NumericArrays.toLong(value);
             }
+        }
+        return result;
+    }
 
-//            return scope.lookup("count"); //for testing purposes
+    private static BigDecimal element(Object array, int index) {
+        return array instanceof double[] ? Primitives.decimal(((double[]) array)[index])
+                : BigDecimal.valueOf(((long[]) array)[index]);
+    }
 
-            scope = scope.getParent();
-            return VOID;
+    private static long requireCount(Object value) {
+        BigDecimal count = requireType(BigDecimal.class, value);
+        if (count.signum() < 0 || count.stripTrailingZeros().scale() > 0)
+            throw new EvalException("Expected " + count + " to be a non-negative integer.");
+        return count.longValue();
+    }
+
+    private static CharSequence requireString(Object value) {
+        if (value instanceof String || value instanceof Rope) {
+            return (CharSequence) value;
+        }
+        throw new EvalException("Expected " + value + " to be a string.");
+    }
+
+    private static Object requireArray(Object value) {
+        if (value instanceof double[] || value instanceof long[]) {
+            return value;
+        }
+        throw new EvalException("Expected " + value + " to be a double-array or long-array.");
+    }
+
+    private static int requireIndex(Object array, Object value) {
+        BigDecimal index = requireType(BigDecimal.class, value);
+        int length = array instanceof double[] ? ((double[]) array).length : ((long[]) array).length;
+        if (index.signum() < 0 || index.compareTo(BigDecimal.valueOf(length)) >= 0 || index.stripTrailingZeros().scale() > 0)
+            throw new EvalException("Index " + index + " is out of bounds for an array of length " + length + ".");
+        return index.intValue();
+    }
+
+    private static long requireIndex(OffHeapColumn column, Object value) {
+        BigDecimal index = requireType(BigDecimal.class, value);
+        if (index.signum() < 0 || index.compareTo(BigDecimal.valueOf(column.length())) >= 0 || index.stripTrailingZeros().scale() > 0)
+            throw new EvalException("Index " + index + " is out of bounds for a column of length " + column.length() + ".");
+        return index.longValue();
+    }
+
+    private static int requireLength(Object value) {
+        BigDecimal length = requireType(BigDecimal.class, value);
+        if (length.signum() < 0 || length.stripTrailingZeros().scale() > 0 || length.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0)
+            throw new EvalException("Expected " + length + " to be a valid array length.");
+        return length.intValue();
+    }
+
+    /**
+     * Returns the interner's canonical copy of a newly created list, or the
+     * value itself if there's no interner.
+     */
+    private Object intern(Object value) {
+        return interner != null ? interner.intern(value) : value;
+    }
+
+    /**
+     * Evaluates each of the arguments in order.
+     */
+    private List<Object> evalAll(List<Ast> args) {
+        List<Object> evaluated = new ArrayList<>(args.size());
+        for (Ast arg : args) {
+            evaluated.add(eval(arg));
+        }
+        return evaluated;
+    }
+
+    /**
+     * Creates an interpreter for evaluating on another thread. It sees a
+     * snapshot of the current scope, so its {@code define}s and {@code set!}s
+     * are not visible here, and gets its own copy of the standard library
+     * since the builtins above are bound to this interpreter's scope.
+     */
+    private Interpreter fork() {
+        Map<Scope, Scope> copies = new IdentityHashMap<>();
+        Scope copy = scope.snapshot(copies);
+        if (!copies.containsKey(globals)) {
+            Interpreter task = new Interpreter(out, new Scope(copy));
+            task.interner = interner;
+            task.budget = budget;
+            task.metrics = metrics != null ? metrics.getMetrics().recorder() : null;
+            return task;
+        }
+        Interpreter task = new Interpreter(out, new Scope(null));
+        task.interner = interner;
+        task.budget = budget;
+        task.metrics = metrics != null ? metrics.getMetrics().recorder() : null;
+        //replace this interpreter's builtins with the task's, and point
+        //closures at the copies of their scopes, so calls made by the task
+        //never evaluate using this interpreter's state
+        Scope copied = copies.get(globals);
+        task.library.forEach((name, builtin) -> {
+            if (copied.contains(name) && isLibrary(name, copied.lookup(name))) {
+                copied.redefine(name, builtin);
+            }
         });
+        UnaryOperator<Object> rebind = new UnaryOperator<Object>() {
+            @Override
+            public Object apply(Object value) {
+                if (value instanceof Closure && copies.containsKey(((Closure) value).getScope())) {
+                    return ((Closure) value).in(copies.get(((Closure) value).getScope()));
+                } else if (value instanceof Memoized) {
+                    return new Memoized(apply(((Memoized) value).getFunction()), ((Memoized) value).getCache());
+                }
+                return value;
+            }
+        };
+        copies.values().forEach(scope -> scope.replaceAll(rebind));
+        task.scope = copy;
+        task.globals = copied;
+        return task;
     }
 
     /**
@@ -370,7 +1366,7 @@ public final class Interpreter {
      * occurs - in a real interpreter, we would have a stacktrace to provide
      * that implementation. For now, this is the simple-but-not-ideal solution.
      */
-    private static <T> T requireType(Class<T> type, Object value) {
+    static <T> T requireType(Class<T> type, Object value) {
         if (type.isInstance(value)) {
             return type.cast(value);
         } else {
@@ -0,0 +1,157 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of function results keyed on argument values, used by
+ * {@code memoize}. Once full, each new entry evicts either the least recently
+ * used entry (LRU) or the least frequently used one (LFU, with ties broken by
+ * age). All operations are synchronized, so a cache can be shared by
+ * evaluations running on different threads; the function itself is called
+ * outside the lock, so two threads may both compute a missing entry.
+ */
+public final class MemoCache {
+
+    public enum Policy {
+        LRU,
+        LFU
+    }
+
+    private final int maxEntries;
+    private final Policy policy;
+    private final Map<Key, Object> values;
+    /**
+     * For LFU, the use count of each key and the keys with each count, oldest
+     * first. The minimum count is tracked to find the entry to evict.
+     */
+    private final Map<Key, Integer> counts = new HashMap<>();
+    private final Map<Integer, LinkedHashSet<Key>> buckets = new HashMap<>();
+    private int minimum = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public MemoCache(int maxEntries, Policy policy) {
+        if (maxEntries < 1) {
+            throw new EvalException("A cache must have at least one entry.");
+        }
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.values = policy == Policy.LRU ? new LinkedHashMap<>(16, 0.75f, true) : new HashMap<>();
+    }
+
+    /**
+     * Returns the cached result for the arguments, or null on a miss.
+     */
+    public synchronized Object get(List<Object> args) {
+        Key key = new Key(args.toArray());
+        Object value = values.get(key);
+        if (value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (policy == Policy.LFU) {
+            touch(key);
+        }
+        return value;
+    }
+
+    public synchronized void put(List<Object> args, Object value) {
+        Key key = new Key(args.toArray());
+        if (values.containsKey(key)) {
+            values.put(key, value);
+            return;
+        }
+        if (values.size() >= maxEntries) {
+            evict();
+        }
+        values.put(key, value);
+        if (policy == Policy.LFU) {
+            counts.put(key, 1);
+            buckets.computeIfAbsent(1, count -> new LinkedHashSet<>()).add(key);
+            minimum = 1;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    private void touch(Key key) {
+        int count = counts.get(key);
+        LinkedHashSet<Key> bucket = buckets.get(count);
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+            buckets.remove(count);
+            if (minimum == count) {
+                minimum = count + 1;
+            }
+        }
+        counts.put(key, count + 1);
+        buckets.computeIfAbsent(count + 1, c -> new LinkedHashSet<>()).add(key);
+    }
+
+    private void evict() {
+        Key eldest;
+        if (policy == Policy.LRU) {
+            eldest = values.keySet().iterator().next();
+        } else {
+            LinkedHashSet<Key> bucket = buckets.get(minimum);
+            Iterator<Key> iterator = bucket.iterator();
+            eldest = iterator.next();
+            iterator.remove();
+            if (bucket.isEmpty()) {
+                buckets.remove(minimum);
+            }
+            counts.remove(eldest);
+        }
+        values.remove(eldest);
+        evictions++;
+    }
+
+    /**
+     * The arguments of a call, with the structural hash computed once since
+     * lists can be long.
+     */
+    private static final class Key {
+
+        private final Object[] args;
+        private final int hash;
+
+        private Key(Object[] args) {
+            this.args = args;
+            this.hash = Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && hash == ((Key) obj).hash && Arrays.deepEquals(args, ((Key) obj).args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package plc.interpreter;
+
+/**
+ * A function wrapped by {@code memoize}: calls look up the evaluated
+ * arguments in the cache first and only call the function on a miss.
+ *
+ * To memoize the recursive calls of a function as well, rebind its name with
+ * {@code (set! f (memoize f))}, since the body looks {@code f} up each call.
+ */
+public final class Memoized {
+
+    private final Object function;
+    private final MemoCache cache;
+
+    public Memoized(Object function, MemoCache cache) {
+        this.function = function;
+        this.cache = cache;
+    }
+
+    public Object getFunction() {
+        return function;
+    }
+
+    public MemoCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "#<memoized " + function + ">";
+    }
+
+}
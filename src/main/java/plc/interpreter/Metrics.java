@@ -0,0 +1,528 @@
+package plc.interpreter;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Counters for interpreters (see {@link Interpreter#setMetrics(Metrics)}):
+ * calls to each builtin with a histogram of their latencies, scope lookups
+ * and how far up the scope chain they went, and the values created by type.
+ *
+ * Each thread which records gets a stripe of counters of its own, which
+ * only it writes, so recording is a plain read and write of an array with
+ * no atomic instructions, fences or shared cache lines. A {@link Recorder}
+ * (one per interpreter or task) remembers the stripe of the thread which
+ * last used it, so finding the stripe is a comparison with the current
+ * thread. Builtins are numbered by name once for the whole JVM, and the
+ * standard library's builtins carry their number (see {@link Counted}), so
+ * recording a call to one doesn't look its name up. Recording doesn't
+ * allocate, except for a thread's first stripe and the first time each
+ * builtin name is seen. When a stripe is created, the stripes of threads
+ * which have ended are added into a retired total and dropped.
+ *
+ * Reads add up the stripes without synchronizing with the threads writing
+ * them, so counts from threads which are still running may lag behind by
+ * their latest calls and a snapshot isn't exactly consistent between
+ * counters; a reset may likewise be undone by a thread which is recording
+ * at the time. Counts from threads which have ended are exact. With this,
+ * metrics cost little enough to leave on: in a loop of arithmetic builtin
+ * calls, which is about the worst case, they add about a fifth to the run
+ * time, most of it in the extra call path rather than the counting itself.
+
+ * Every call is counted, but since reading the clock costs more than many
+ * builtins do, only one call in {@link #TIMING_INTERVAL} (per builtin and
+ * thread) is timed. Latencies are counted in buckets by the position of
+ * their highest set bit, so bucket {@code i} holds calls which took from
+ * {@code 2^(i-1)} up to {@code 2^i} nanoseconds. Values created are counted
+ * by the type of what each builtin returns (excluding booleans and nothing),
+ * plus the scope of each call to a Whisp function; a builtin returning an
+ * existing value, like {@code get}, is counted too.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    public enum Type {
+        NUMBER,
+        STRING,
+        LIST,
+        MAP,
+        ARRAY,
+        COLUMN,
+        PIPELINE,
+        GENERATOR,
+        FUNCTION,
+        SCOPE,
+        OTHER
+    }
+
+    /**
+     * The number of builtin names counted separately; calls to any others
+     * are counted under {@link #OTHER}.
+     */
+    public static final int MAX_BUILTINS = 256;
+    public static final int BUCKETS = 40;
+    public static final String OTHER = "(other)";
+    public static final int TIMING_INTERVAL = 16;
+
+    /**
+     * Returned by {@link Recorder#started(String)} for calls which aren't
+     * timed.
+     */
+    static final long UNTIMED = Long.MIN_VALUE;
+
+    private static final int BUILTIN = 2 + BUCKETS;
+    private static final int LOOKUPS = MAX_BUILTINS * BUILTIN;
+    private static final int DEPTH = LOOKUPS + 1;
+    private static final int TYPES = DEPTH + 1;
+    /**
+     * The longs per stripe.
+     */
+    private static final int STRIDE = TYPES + Type.values().length;
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<String> NAMES = new AtomicReferenceArray<>(MAX_BUILTINS);
+    private static int next = 0;
+
+    static {
+        NAMES.set(MAX_BUILTINS - 1, OTHER);
+        IDS.put(OTHER, MAX_BUILTINS - 1);
+    }
+
+    private final ThreadLocal<Stripe> local = ThreadLocal.withInitial(this::stripe);
+
+    /**
+     * The stripes of the threads which have recorded, and the totals of
+     * those which have ended, guarded by this.
+     */
+    private final List<Stripe> stripes = new ArrayList<>();
+    private final long[] retired = new long[STRIDE];
+
+    /**
+     * Registers the metrics with the platform MBean server under the name
+     * {@code plc.interpreter:type=Metrics,name=<name>}.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("plc.interpreter:type=Metrics,name=" + ObjectName.quote(name));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("Metrics named " + name + " are already registered.", e);
+        }
+        return objectName;
+    }
+
+    /**
+     * Returns a new recorder for an interpreter, which can be used by any
+     * number of threads but is fastest used by one at a time.
+     */
+    public Recorder recorder() {
+        return new Recorder();
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Builtin> builtins = new LinkedHashMap<>();
+        for (int id = 0; id < MAX_BUILTINS; id++) {
+            String name = NAMES.get(id);
+            if (name == null) {
+                continue;
+            }
+            long[] buckets = new long[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets[b] = sum(id * BUILTIN + 2 + b);
+            }
+            long count = sum(id * BUILTIN);
+            if (count > 0) {
+                builtins.put(name, new Builtin(name, count, sum(id * BUILTIN + 1), buckets));
+            }
+        }
+        Map<Type, Long> created = new LinkedHashMap<>();
+        for (Type type : Type.values()) {
+            created.put(type, sum(TYPES + type.ordinal()));
+        }
+        return new Snapshot(builtins, sum(LOOKUPS), sum(DEPTH), created);
+    }
+
+    @Override
+    public Map<String, Long> getBuiltinCalls() {
+        Map<String, Long> calls = new LinkedHashMap<>();
+        snapshot().getBuiltins().forEach((name, builtin) -> calls.put(name, builtin.getCount()));
+        return calls;
+    }
+
+    @Override
+    public Map<String, Long> getBuiltinMedianNanos() {
+        Map<String, Long> medians = new LinkedHashMap<>();
+        snapshot().getBuiltins().forEach((name, builtin) -> medians.put(name, builtin.getPercentile(0.5)));
+        return medians;
+    }
+
+    @Override
+    public Map<String, Long> getBuiltinP99Nanos() {
+        Map<String, Long> p99s = new LinkedHashMap<>();
+        snapshot().getBuiltins().forEach((name, builtin) -> p99s.put(name, builtin.getPercentile(0.99)));
+        return p99s;
+    }
+
+    @Override
+    public long getScopeLookups() {
+        return sum(LOOKUPS);
+    }
+
+    @Override
+    public long getScopeDepthWalked() {
+        return sum(DEPTH);
+    }
+
+    @Override
+    public Map<String, Long> getCreated() {
+        Map<String, Long> created = new LinkedHashMap<>();
+        snapshot().getCreated().forEach((type, count) -> created.put(type.name().toLowerCase(Locale.ROOT), count));
+        return created;
+    }
+
+    @Override
+    public synchronized void reset() {
+        Arrays.fill(retired, 0);
+        for (Stripe stripe : stripes) {
+            Arrays.fill(stripe.cells, 0);
+        }
+    }
+
+    /**
+     * Returns the number of a builtin's counters, which is the same for all
+     * metrics.
+     */
+    static int id(String builtin) {
+        Integer id = IDS.get(builtin);
+        if (id == null) {
+            synchronized (IDS) {
+                id = IDS.get(builtin);
+                if (id == null) {
+                    id = next < MAX_BUILTINS - 1 ? next++ : MAX_BUILTINS - 1;
+                    NAMES.compareAndSet(id, null, builtin);
+                    IDS.put(builtin, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the number of the builtin, from the function if it carries it.
+     */
+    static int id(String builtin, Object function) {
+        return function instanceof Counted ? ((Counted) function).id : id(builtin);
+    }
+
+    private synchronized long sum(int offset) {
+        long sum = retired[offset];
+        for (Stripe stripe : stripes) {
+            sum += stripe.cells[offset];
+        }
+        return sum;
+    }
+
+    /**
+     * Creates the current thread's stripe, first retiring the stripes of
+     * threads which have ended.
+     */
+    private synchronized Stripe stripe() {
+        for (Iterator<Stripe> iterator = stripes.iterator(); iterator.hasNext(); ) {
+            Stripe stripe = iterator.next();
+            //an ended thread's writes are visible once isAlive returns false
+            if (!stripe.owner.isAlive()) {
+                for (int i = 0; i < STRIDE; i++) {
+                    retired[i] += stripe.cells[i];
+                }
+                iterator.remove();
+            }
+        }
+        Stripe stripe = new Stripe(Thread.currentThread());
+        stripes.add(stripe);
+        return stripe;
+    }
+
+    /**
+     * The counters written by one thread.
+     */
+    private static final class Stripe {
+
+        private final Thread owner;
+        private final long[] cells = new long[STRIDE];
+
+        private Stripe(Thread owner) {
+            this.owner = owner;
+        }
+
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    private static Type type(Object value) {
+        if (value instanceof BigDecimal) {
+            return Type.NUMBER;
+        } else if (value instanceof CharSequence) {
+            return Type.STRING;
+        } else if (value instanceof List) {
+            return Type.LIST;
+        } else if (value instanceof PrimitiveMap) {
+            return Type.MAP;
+        } else if (value instanceof double[] || value instanceof long[]) {
+            return Type.ARRAY;
+        } else if (value instanceof OffHeapColumn) {
+            return Type.COLUMN;
+        } else if (value instanceof Pipeline) {
+            return Type.PIPELINE;
+        } else if (value instanceof Generator) {
+            return Type.GENERATOR;
+        } else if (value instanceof Closure || value instanceof Memoized || value instanceof Function) {
+            return Type.FUNCTION;
+        }
+        return Type.OTHER;
+    }
+
+    /**
+     * Records into the stripe of the current thread.
+     */
+    public final class Recorder {
+
+        /**
+         * The stripe of the thread which last recorded.
+         */
+        private Stripe stripe = local.get();
+
+        private Recorder() {}
+
+        public Metrics getMetrics() {
+            return Metrics.this;
+        }
+
+        /**
+         * Records a call to the builtin with the given number (see
+         * {@link #id(String)}), returning the time it started if it should
+         * be timed and {@link #UNTIMED} otherwise.
+         */
+        long started(int id) {
+            long calls = add(id * BUILTIN, 1);
+            return (calls & (TIMING_INTERVAL - 1)) == 0 ? System.nanoTime() : UNTIMED;
+        }
+
+        long started(String builtin) {
+            return started(id(builtin));
+        }
+
+        /**
+         * Records the latency of a call to the builtin, given the result of
+         * {@link #started(int)}.
+         */
+        void finished(int id, long start) {
+            if (start != UNTIMED) {
+                timed(id, System.nanoTime() - start);
+            }
+        }
+
+        void finished(String builtin, long start) {
+            finished(id(builtin), start);
+        }
+
+        /**
+         * Records the latency of a timed call.
+         */
+        void timed(int id, long nanos) {
+            add(id * BUILTIN + 1, nanos);
+            add(id * BUILTIN + 2 + bucket(nanos), 1);
+        }
+
+        void timed(String builtin, long nanos) {
+            timed(id(builtin), nanos);
+        }
+
+        /**
+         * Records a lookup which found the name the given number of parents
+         * up the scope chain.
+         */
+        void lookedUp(int depth) {
+            add(LOOKUPS, 1);
+            if (depth != 0) {
+                add(DEPTH, depth);
+            }
+        }
+
+        void created(Type type) {
+            add(TYPES + type.ordinal(), 1);
+        }
+
+        /**
+         * Records the value returned by a builtin, if it's one that may have
+         * been created by it.
+         */
+        void created(Object value) {
+            if (value != Interpreter.VOID && value != null && !(value instanceof Boolean)) {
+                created(type(value));
+            }
+        }
+
+        /**
+         * Adds to a counter in the current thread's stripe, returning its
+         * previous value. This is kept small enough to be inlined anywhere.
+         */
+        private long add(int counter, long delta) {
+            long[] cells = (stripe.owner == Thread.currentThread() ? stripe : own()).cells;
+            long value = cells[counter];
+            cells[counter] = value + delta;
+            return value;
+        }
+
+        private Stripe own() {
+            return stripe = local.get();
+        }
+
+    }
+
+    /**
+     * A builtin of the standard library, which carries its number so that
+     * calls to it can be recorded without looking up its name.
+     */
+    static final class Counted implements Function<List<Ast>, Object> {
+
+        private final int id;
+        private final Function<List<Ast>, Object> function;
+
+        Counted(String name, Function<List<Ast>, Object> function) {
+            this.id = id(name);
+            this.function = function;
+        }
+
+        @Override
+        public Object apply(List<Ast> args) {
+            return function.apply(args);
+        }
+
+    }
+
+    /**
+     * The totals of the metrics at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final Map<String, Builtin> builtins;
+        private final long scopeLookups;
+        private final long scopeDepthWalked;
+        private final Map<Type, Long> created;
+
+        private Snapshot(Map<String, Builtin> builtins, long scopeLookups, long scopeDepthWalked, Map<Type, Long> created) {
+            this.builtins = Collections.unmodifiableMap(builtins);
+            this.scopeLookups = scopeLookups;
+            this.scopeDepthWalked = scopeDepthWalked;
+            this.created = Collections.unmodifiableMap(created);
+        }
+
+        /**
+         * Returns the builtins which have been called, by name.
+         */
+        public Map<String, Builtin> getBuiltins() {
+            return builtins;
+        }
+
+        public long getScopeLookups() {
+            return scopeLookups;
+        }
+
+        /**
+         * Returns the total number of parent scopes lookups went through.
+         */
+        public long getScopeDepthWalked() {
+            return scopeDepthWalked;
+        }
+
+        public Map<Type, Long> getCreated() {
+            return created;
+        }
+
+    }
+
+    /**
+     * The calls to one builtin.
+     */
+    public static final class Builtin {
+
+        private final String name;
+        private final long count;
+        private final long timedNanos;
+        private final long[] buckets;
+
+        private Builtin(String name, long count, long timedNanos, long[] buckets) {
+            this.name = name;
+            this.count = count;
+            this.timedNanos = timedNanos;
+            this.buckets = buckets;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of calls which were timed.
+         */
+        public long getTimed() {
+            long timed = 0;
+            for (long bucket : buckets) {
+                timed += bucket;
+            }
+            return timed;
+        }
+
+        /**
+         * Returns the mean latency of the timed calls.
+         */
+        public long getMeanNanos() {
+            long timed = getTimed();
+            return timed == 0 ? 0 : timedNanos / timed;
+        }
+
+        /**
+         * Returns the number of timed calls in each latency bucket.
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * Returns an upper bound on the given fraction of timed call
+         * latencies, the upper end of the bucket the percentile falls in.
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * getTimed());
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == buckets.length - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+    }
+
+}
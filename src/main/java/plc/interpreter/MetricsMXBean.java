@@ -0,0 +1,30 @@
+package plc.interpreter;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link Metrics}.
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getBuiltinCalls();
+
+    /**
+     * Returns an upper bound on the median latency of each builtin.
+     */
+    Map<String, Long> getBuiltinMedianNanos();
+
+    /**
+     * Returns an upper bound on the 99th percentile latency of each builtin.
+     */
+    Map<String, Long> getBuiltinP99Nanos();
+
+    long getScopeLookups();
+
+    long getScopeDepthWalked();
+
+    Map<String, Long> getCreated();
+
+    void reset();
+
+}
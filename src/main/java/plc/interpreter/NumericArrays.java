@@ -0,0 +1,177 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * The bulk operations of {@code double-array} and {@code long-array} values,
+ * which are plain {@code double[]} and {@code long[]}s (8 bytes an element,
+ * instead of a list node and a {@link BigDecimal}).
+ *
+ * Each operation is a simple indexed loop over the arrays so that HotSpot's
+ * superword optimization can compile it to SIMD instructions. Doubles follow
+ * IEEE rules (so division by zero is infinite rather than an error). Longs
+ * are checked: sums are exact, and arithmetic which overflows throws instead
+ * of wrapping, using checks that keep the loops vectorizable where possible.
+ */
+final class NumericArrays {
+
+    private NumericArrays() {}
+
+    static double sum(double[] array) {
+        double sum = 0;
+        for (int i = 0; i < array.length; i++) {
+            sum += array[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the high and low halves of the elements separately, neither of
+     * which can overflow for an array of up to 2^31 elements.
+     */
+    static BigInteger sum(long[] array) {
+        long high = 0, low = 0;
+        for (int i = 0; i < array.length; i++) {
+            high += array[i] >> 32;
+            low += array[i] & 0xFFFFFFFFL;
+        }
+        return BigInteger.valueOf(high).shiftLeft(32).add(BigInteger.valueOf(low));
+    }
+
+    static double dot(double[] a, double[] b) {
+        requireLength(a.length, b.length);
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    static BigInteger dot(long[] a, long[] b) {
+        requireLength(a.length, b.length);
+        try {
+            long sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                sum = Math.addExact(sum, Math.multiplyExact(a[i], b[i]));
+            }
+            return BigInteger.valueOf(sum);
+        } catch (ArithmeticException e) {
+            BigInteger sum = BigInteger.ZERO;
+            for (int i = 0; i < a.length; i++) {
+                sum = sum.add(BigInteger.valueOf(a[i]).multiply(BigInteger.valueOf(b[i])));
+            }
+            return sum;
+        }
+    }
+
+    static double[] negate(double[] a) {
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) result[i] = -a[i];
+        return result;
+    }
+
+    static long[] negate(long[] a) {
+        long[] result = new long[a.length];
+        long overflow = 0;
+        for (int i = 0; i < a.length; i++) {
+            result[i] = -a[i];
+            overflow |= a[i] & result[i];
+        }
+        return checked(result, overflow);
+    }
+
+    /**
+     * Applies {@code + - * /} elementwise, where b is a {@code double[]} of the
+     * same length or a scalar {@code Double}.
+     */
+    static double[] apply(char operator, double[] a, Object b) {
+        double[] result = new double[a.length];
+        if (b instanceof double[]) {
+            double[] c = (double[]) b;
+            requireLength(a.length, c.length);
+            switch (operator) {
+                case '+': for (int i = 0; i < a.length; i++) result[i] = a[i] + c[i]; break;
+                case '-': for (int i = 0; i < a.length; i++) result[i] = a[i] - c[i]; break;
+                case '*': for (int i = 0; i < a.length; i++) result[i] = a[i] * c[i]; break;
+                default: for (int i = 0; i < a.length; i++) result[i] = a[i] / c[i]; break;
+            }
+        } else {
+            double c = (Double) b;
+            switch (operator) {
+                case '+': for (int i = 0; i < a.length; i++) result[i] = a[i] + c; break;
+                case '-': for (int i = 0; i < a.length; i++) result[i] = a[i] - c; break;
+                case '*': for (int i = 0; i < a.length; i++) result[i] = a[i] * c; break;
+                default: for (int i = 0; i < a.length; i++) result[i] = a[i] / c; break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies {@code + - *} elementwise, where b is a {@code long[]} of the
+     * same length or a scalar {@code Long}. Overflow is detected from the sign
+     * bits of the operands and results (which, unlike {@link Math#addExact},
+     * doesn't prevent vectorization) except for multiplication.
+     */
+    static long[] apply(char operator, long[] a, Object b) {
+        long[] c;
+        if (b instanceof long[]) {
+            c = (long[]) b;
+            requireLength(a.length, c.length);
+        } else {
+            c = new long[a.length];
+            java.util.Arrays.fill(c, (Long) b);
+        }
+        long[] result = new long[a.length];
+        long overflow = 0;
+        switch (operator) {
+            case '+':
+                for (int i = 0; i < a.length; i++) {
+                    result[i] = a[i] + c[i];
+                    overflow |= (a[i] ^ result[i]) & (c[i] ^ result[i]);
+                }
+                break;
+            case '-':
+                for (int i = 0; i < a.length; i++) {
+                    result[i] = a[i] - c[i];
+                    overflow |= (a[i] ^ c[i]) & (a[i] ^ result[i]);
+                }
+                break;
+            default:
+                try {
+                    for (int i = 0; i < a.length; i++) {
+                        result[i] = Math.multiplyExact(a[i], c[i]);
+                    }
+                } catch (ArithmeticException e) {
+                    overflow = -1;
+                }
+        }
+        return checked(result, overflow);
+    }
+
+    /**
+     * Converts a number to a long element, requiring it to be an integer.
+     */
+    static long toLong(BigDecimal value) {
+        try {
+            return value.longValueExact();
+        } catch (ArithmeticException e) {
+            throw new EvalException("Expected " + value + " to be an integer in the range of a long.");
+        }
+    }
+
+    private static long[] checked(long[] result, long overflow) {
+        if (overflow < 0) {
+            throw new EvalException("Long array arithmetic overflowed.");
+        }
+        return result;
+    }
+
+    private static void requireLength(int expected, int actual) {
+        if (expected != actual) {
+            throw new EvalException("Expected arrays of the same length, received " + expected + " and " + actual + ".");
+        }
+    }
+
+}
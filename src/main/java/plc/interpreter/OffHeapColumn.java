@@ -0,0 +1,240 @@
+package plc.interpreter;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * The growable column of doubles created by {@code column}, stored outside
+ * the Java heap so that large datasets don't add to garbage collection
+ * pauses (the heap only holds one small buffer object per chunk).
+ *
+ * The column is split into fixed size chunks. Chunks are direct buffers until
+ * the column reaches the spill threshold (or direct memory runs out), after
+ * which new chunks are mapped from a temporary file, so the operating system
+ * pages them in and out as needed instead of requiring the data to fit in
+ * memory. The file is deleted as soon as it's opened where the platform
+ * allows, otherwise on close or exit. Scripts close a column with
+ * {@code col-close!} rather than waiting for it to be collected.
+ */
+public final class OffHeapColumn implements Closeable {
+
+    /**
+     * The default spill threshold, which can be set in bytes with the
+     * {@code whisp.column.spill} system property. It's otherwise 256MB, or a
+     * quarter of the JVM's maximum direct memory if that's less.
+     */
+    public static final long SPILL = Long.getLong("whisp.column.spill", Math.min(256L << 20, maxDirectMemory() / 4));
+
+    private static final int SHIFT = 17;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+
+    private final long threshold;
+    private final List<DoubleBuffer> chunks = new ArrayList<>();
+    private long length = 0;
+    private FileChannel file;
+    private Path path;
+    private long mapped = 0;
+    private boolean closed = false;
+
+    public OffHeapColumn() {
+        this(SPILL);
+    }
+
+    /**
+     * Creates a column which spills to a file once it's larger than the
+     * threshold in bytes.
+     */
+    public OffHeapColumn(long threshold) {
+        this.threshold = threshold;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns whether any of the column is stored in a file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    public double get(long index) {
+        checkIndex(index);
+        return chunks.get((int) (index >>> SHIFT)).get((int) (index & MASK));
+    }
+
+    public void set(long index, double value) {
+        checkIndex(index);
+        chunks.get((int) (index >>> SHIFT)).put((int) (index & MASK), value);
+    }
+
+    public void append(double value) {
+        requireOpen();
+        if ((length & MASK) == 0 && length >>> SHIFT == chunks.size()) {
+            chunks.add(allocate());
+        }
+        chunks.get((int) (length >>> SHIFT)).put((int) (length & MASK), value);
+        length++;
+    }
+
+    public double sum() {
+        requireOpen();
+        double sum = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            DoubleBuffer chunk = chunks.get(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                sum += chunk.get(i);
+            }
+        }
+        return sum;
+    }
+
+    public double min() {
+        requireElements();
+        double min = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < chunks.size(); c++) {
+            DoubleBuffer chunk = chunks.get(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                min = Math.min(min, chunk.get(i));
+            }
+        }
+        return min;
+    }
+
+    public double max() {
+        requireElements();
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < chunks.size(); c++) {
+            DoubleBuffer chunk = chunks.get(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                max = Math.max(max, chunk.get(i));
+            }
+        }
+        return max;
+    }
+
+    public long countIf(DoublePredicate predicate) {
+        requireOpen();
+        long count = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            DoubleBuffer chunk = chunks.get(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                if (predicate.test(chunk.get(i))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases the chunks and the temporary file, if any. The column can't
+     * be used after.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunks.clear();
+        length = 0;
+        if (file != null) {
+            file.close();
+            Files.deleteIfExists(path);
+            file = null;
+        }
+    }
+
+    private int size(int chunk) {
+        return chunk < chunks.size() - 1 ? CHUNK : (int) (length - ((long) chunk << SHIFT));
+    }
+
+    private DoubleBuffer allocate() {
+        long bytes = (long) CHUNK * Double.BYTES;
+        if (file == null && (long) chunks.size() * bytes + bytes <= threshold) {
+            try {
+                return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            } catch (OutOfMemoryError e) {
+                //other columns have used up the direct memory, so spill now
+            }
+        }
+        try {
+            if (file == null) {
+                path = Files.createTempFile("whisp-column", ".bin");
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    //the file is still open (on Windows), so delete it later
+                    path.toFile().deleteOnExit();
+                }
+            }
+            ByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, mapped, bytes);
+            mapped += bytes;
+            return buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the JVM's limit on direct buffers, which is the maximum heap
+     * size unless {@code -XX:MaxDirectMemorySize} is set.
+     */
+    private static long maxDirectMemory() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            long max = bean != null ? Long.parseLong(bean.getVMOption("MaxDirectMemorySize").getValue()) : 0;
+            if (max > 0) {
+                return max;
+            }
+        } catch (RuntimeException | LinkageError e) {
+            //not a HotSpot JVM
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private void requireOpen() {
+        if (closed) {
+            throw new EvalException("The column is closed.");
+        }
+    }
+
+    private void checkIndex(long index) {
+        requireOpen();
+        if (index < 0 || index >= length) {
+            throw new EvalException("Index " + index + " is out of bounds for a column of length " + length + ".");
+        }
+    }
+
+    private void requireElements() {
+        requireOpen();
+        if (length == 0) {
+            throw new EvalException("The column is empty.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "#<column " + length + (closed ? " closed>" : isSpilled() ? " spilled>" : ">");
+    }
+
+}
@@ -22,15 +22,22 @@ public final class Parser {
 
     private final TokenStream tokens;
 
-    private Parser(String input) {
-        tokens = new TokenStream(Lexer.lex(input));
+    private Parser(List<Token> tokens) {
+        this.tokens = new TokenStream(tokens);
     }
 
     /**
      * Parses the input and returns the AST
      */
     public static Ast parse(String input) {
-        return new Parser(input).parse();
+        return parse(Lexer.lex(input));
+    }
+
+    /**
+     * Parses tokens which have already been lexed and returns the AST.
+     */
+    public static Ast parse(List<Token> tokens) {
+        return new Parser(tokens).parse();
     }
 
     /**
@@ -103,6 +110,7 @@ public final class Parser {
     }
 
     private Ast parseTerm(Stack<String> stack) {
+        int offset = tokens.get(0).getIndex();
         if (tokens.has(1) && (tokens.get(0).getLiteral().equals("(") || tokens.get(0).getLiteral().equals("["))) {
             stack.push(tokens.get(0).getLiteral());
             tokens.advance();
@@ -144,7 +152,7 @@ public final class Parser {
             }
         }
 
-        while (peek(")") || peek("]")) {
+        if (peek(")") || peek("]")) {      //only close this term, enclosing terms close themselves
             if (stack.isEmpty())
                 throw new ParseException("Missing opening bracket", tokens.get(0).getIndex());
             String close = tokens.get(0).getLiteral();
@@ -160,7 +168,7 @@ public final class Parser {
             }
         }
 
-        return new Ast.Term(name, args);    //make a term out of the name, arguments
+        return new Ast.Term(name, args, offset);    //make a term out of the name, arguments
     }
 
     private Ast parseNum() {
@@ -0,0 +1,261 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A lazy sequence transformation created by {@code map}, {@code filter},
+ * {@code take}, {@code drop} and {@code partition}, which does nothing until
+ * a terminal builtin ({@code reduce}, {@code into}, {@code count}) runs it.
+ *
+ * Transforming a pipeline returns a new pipeline with one more stage over the
+ * same source, so chains don't create a collection per stage. Running one
+ * fuses the stages into a chain of sinks, one per stage, and pushes each
+ * element of the source through the whole chain before reading the next;
+ * a sink can stop the run early (as {@code take} does) without reading the
+ * rest of the source.
+ *
+ * Sources are lists and other {@link Iterable}s (including host collections)
+ * and numeric arrays, whose elements are converted to numbers as they're
+ * read.
+ */
+public final class Pipeline {
+
+    /**
+     * Receives the elements of a run, returning false once it doesn't need
+     * any more.
+     */
+    public interface Sink {
+
+        boolean accept(Object value);
+
+        /**
+         * Called after the last element, for stages which buffer elements.
+         */
+        default void finish() {}
+
+    }
+
+    private interface Stage {
+
+        Sink wrap(Sink downstream);
+
+    }
+
+    private final Object source;
+    private final List<Stage> stages;
+    private final Runnable step;
+
+    private Pipeline(Object source, List<Stage> stages, Runnable step) {
+        this.source = source;
+        this.stages = stages;
+        this.step = step;
+    }
+
+    /**
+     * Returns a pipeline over the source with no stages, or the pipeline
+     * itself.
+     */
+    public static Pipeline of(Object source) {
+        if (source instanceof Pipeline) {
+            return (Pipeline) source;
+        } else if (source instanceof Iterable || source instanceof double[] || source instanceof long[]) {
+            return new Pipeline(source, new ArrayList<>(), null);
+        }
+        throw new EvalException("Expected " + source + " to be a list, array, or pipeline.");
+    }
+
+    public Pipeline map(Function<Object, Object> function) {
+        return then(downstream -> value -> downstream.accept(function.apply(value)));
+    }
+
+    public Pipeline filter(Predicate<Object> predicate) {
+        return then(downstream -> value -> !predicate.test(value) || downstream.accept(value));
+    }
+
+    public Pipeline take(long count) {
+        if (count <= 0) {
+            //a sink can only stop the run after an element, which the stages
+            //before it would already have processed, so don't read any
+            return new Pipeline(Collections.emptyList(), new ArrayList<>(), step);
+        }
+        return then(downstream -> new Sink() {
+            private long remaining = count;
+
+            @Override
+            public boolean accept(Object value) {
+                return remaining > 0 && downstream.accept(value) && --remaining > 0;
+            }
+
+            @Override
+            public void finish() {
+                downstream.finish();
+            }
+        });
+    }
+
+    public Pipeline drop(long count) {
+        return then(downstream -> new Sink() {
+            private long remaining = count;
+
+            @Override
+            public boolean accept(Object value) {
+                if (remaining > 0) {
+                    remaining--;
+                    return true;
+                }
+                return downstream.accept(value);
+            }
+
+            @Override
+            public void finish() {
+                downstream.finish();
+            }
+        });
+    }
+
+    /**
+     * Groups the elements into lists of the given size, the last of which
+     * may be shorter.
+     */
+    public Pipeline partition(int size) {
+        return then(downstream -> new Sink() {
+            private HashedList group = new HashedList();
+            private boolean stopped = false;
+
+            @Override
+            public boolean accept(Object value) {
+                group.add(Rope.flatten(value));
+                if (group.size() == size) {
+                    HashedList full = group;
+                    group = new HashedList();
+                    stopped = !downstream.accept(full);
+                    return !stopped;
+                }
+                return true;
+            }
+
+            @Override
+            public void finish() {
+                if (!group.isEmpty() && !stopped) {
+                    downstream.accept(group);
+                }
+                downstream.finish();
+            }
+        });
+    }
+
+    /**
+     * Runs the pipeline, pushing every element through the stages to the
+     * sink.
+     */
+    public void run(Sink sink) {
+        Sink chain = sink;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            chain = stages.get(i).wrap(chain);
+        }
+        if (step != null) {
+            chain = new Stepping(chain, step);
+        }
+        if (source instanceof double[]) {
+            for (double value : (double[]) source) {
+                if (!chain.accept(Primitives.decimal(value))) {
+                    break;
+                }
+            }
+        } else if (source instanceof long[]) {
+            for (long value : (long[]) source) {
+                if (!chain.accept(BigDecimal.valueOf(value))) {
+                    break;
+                }
+            }
+        } else {
+            Iterator<?> iterator = ((Iterable<?>) source).iterator();
+            try {
+                while (iterator.hasNext()) {
+                    if (!chain.accept(iterator.next())) {
+                        break;
+                    }
+                }
+            } finally {
+                //such as a generator, which may still be running
+                if (iterator instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) iterator).close();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+        chain.finish();
+    }
+
+    public Object reduce(BiFunction<Object, Object, Object> function, Object initial) {
+        Object[] result = {initial};
+        run(value -> {
+            result[0] = function.apply(result[0], value);
+            return true;
+        });
+        return result[0];
+    }
+
+    public long count() {
+        long[] count = {0};
+        run(value -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    private Pipeline then(Stage stage) {
+        List<Stage> stages = new ArrayList<>(this.stages.size() + 1);
+        stages.addAll(this.stages);
+        stages.add(stage);
+        return new Pipeline(source, stages, step);
+    }
+
+    /**
+     * Returns the pipeline with a callback run for each element read from
+     * the source, such as to count it against a budget.
+     */
+    public Pipeline stepping(Runnable step) {
+        return new Pipeline(source, stages, step);
+    }
+
+    private static final class Stepping implements Sink {
+
+        private final Sink downstream;
+        private final Runnable step;
+
+        private Stepping(Sink downstream, Runnable step) {
+            this.downstream = downstream;
+            this.step = step;
+        }
+
+        @Override
+        public boolean accept(Object value) {
+            step.run();
+            return downstream.accept(value);
+        }
+
+        @Override
+        public void finish() {
+            downstream.finish();
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "#<pipeline " + stages.size() + (stages.size() == 1 ? " stage>" : " stages>");
+    }
+
+}
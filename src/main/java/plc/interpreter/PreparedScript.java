@@ -0,0 +1,312 @@
+package plc.interpreter;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A script which is parsed and resolved once, then evaluated many times with
+ * different values for a fixed list of named parameters.
+ *
+ * Preparing the script compiles its AST into a tree of nodes in which
+ * parameters are read by index from the bindings array, literals and constants
+ * are resolved ahead of time, and the builtins in {@link Primitives} (plus
+ * {@code and}/{@code or}) are called directly unless the host binds or the
+ * script defines their names. Evaluating the compiled parts therefore does no
+ * name lookups at all.
+ *
+ * Anything else - {@code define}, {@code set!}, loops, host builtins - falls
+ * back to a single {@link Interpreter} owned by the script, evaluating in a
+ * fresh scope on top of a reused frame holding the parameters. Parameters
+ * assigned by the script itself are always read through that frame.
+ *
+ * A prepared script is not thread safe; prepare one per thread instead.
+ */
+public final class PreparedScript {
+
+    private final List<String> parameters;
+    private final Interpreter interpreter;
+    private final Scope frame;
+    private final Node root;
+    private boolean fallback = false;
+    private long batchRecords = 0;
+    private long batchNanos = 0;
+
+    private PreparedScript(Ast ast, List<String> parameters, Scope scope, PrintWriter out) {
+        this.parameters = new ArrayList<>(parameters);
+        this.interpreter = Interpreter.over(out, scope);
+        this.frame = new Scope(interpreter.scope);
+        for (String parameter : parameters) {
+            frame.define(parameter, Interpreter.VOID);
+        }
+        Set<String> assigned = new HashSet<>();
+        collectAssigned(ast, assigned);
+        this.root = compile(ast, assigned);
+    }
+
+    /**
+     * Parses and prepares the source, with no host bindings and printing to
+     * standard out.
+     */
+    public static PreparedScript prepare(String source, String... parameters) throws ParseException {
+        return prepare(Parser.parse(source), Arrays.asList(parameters), new Scope(null), new PrintWriter(System.out, true));
+    }
+
+    /**
+     * Prepares the AST, which may be a {@code source} term as returned by
+     * {@link Parser#parse(String)}. Identifiers which are not parameters are
+     * resolved in the given scope, whose bindings take the place of the
+     * standard library's, when possible.
+     */
+    public static PreparedScript prepare(Ast ast, List<String> parameters, Scope scope, PrintWriter out) {
+        if (new HashSet<>(parameters).size() != parameters.size()) {
+            throw new EvalException("Duplicate parameter names in " + parameters + ".");
+        }
+        return new PreparedScript(ast, parameters, scope, out);
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Evaluates the script with the given parameter values, in the order of
+     * {@link #getParameters()}.
+     */
+    public Object eval(Object... bindings) throws EvalException {
+        if (bindings.length != parameters.size()) {
+            throw new EvalException("Expected " + parameters.size() + " bindings, received " + bindings.length + ".");
+        }
+        if (fallback) {
+            for (int i = 0; i < bindings.length; i++) {
+                frame.set(parameters.get(i), bindings[i]);
+            }
+            interpreter.scope = new Scope(frame);
+        }
+        return root.eval(bindings);
+    }
+
+    /**
+     * Evaluates the script once for each record of bindings, returning the
+     * results in the same order.
+     */
+    public Object[] evalBatch(Object[][] records) throws EvalException {
+        long start = System.nanoTime();
+        Object[] results = new Object[records.length];
+        for (int i = 0; i < records.length; i++) {
+            results[i] = eval(records[i]);
+        }
+        batchNanos = System.nanoTime() - start;
+        batchRecords = records.length;
+        return results;
+    }
+
+    /**
+     * Returns the throughput of the last call to {@link #evalBatch}.
+     */
+    public double getRecordsPerSecond() {
+        return batchNanos == 0 ? 0 : batchRecords * 1e9 / batchNanos;
+    }
+
+    /**
+     * Returns true if some part of the script has to be evaluated by the
+     * interpreter rather than compiled.
+     */
+    public boolean usesFallback() {
+        return fallback;
+    }
+
+    /**
+     * Finds the names the script defines or sets, which may shadow or modify
+     * parameters and builtins and so cannot be read from the bindings array
+     * or called directly.
+     */
+    private static void collectAssigned(Ast ast, Set<String> assigned) {
+        if (ast instanceof Ast.Term) {
+            Ast.Term term = (Ast.Term) ast;
+            if ((term.getName().equals("set!") || term.getName().equals("define")) && !term.getArgs().isEmpty()
+                    && term.getArgs().get(0) instanceof Ast.Identifier) {
+                assigned.add(((Ast.Identifier) term.getArgs().get(0)).getName());
+            } else if (term.getName().equals("define") && !term.getArgs().isEmpty()
+                    && term.getArgs().get(0) instanceof Ast.Term) {
+                assigned.add(((Ast.Term) term.getArgs().get(0)).getName());
+            }
+            for (Ast arg : term.getArgs()) {
+                collectAssigned(arg, assigned);
+            }
+        }
+    }
+
+    private Node compile(Ast ast, Set<String> assigned) {
+        if (ast instanceof Ast.NumberLiteral) {
+            return new Constant(((Ast.NumberLiteral) ast).getValue());
+        } else if (ast instanceof Ast.StringLiteral) {
+            return new Constant(((Ast.StringLiteral) ast).getValue());
+        } else if (ast instanceof Ast.Identifier) {
+            String name = ((Ast.Identifier) ast).getName();
+            int index = parameters.indexOf(name);
+            if (index >= 0 && !assigned.contains(name)) {
+                return new Slot(index);
+            } else if (index < 0 && !assigned.contains(name)) {
+                try {
+                    Object value = interpreter.scope.lookup(name);
+                    if (!(value instanceof Cell) && !(value instanceof Function)) {
+                        return new Constant(value);
+                    }
+                } catch (EvalException e) {
+                    //not defined yet, so leave it to the interpreter
+                }
+            }
+            return fallback(ast);
+        } else if (ast instanceof Ast.Term) {
+            Ast.Term term = (Ast.Term) ast;
+            String name = term.getName();
+            if (parameters.contains(name) || assigned.contains(name)) {
+                return fallback(ast);
+            }
+            List<Node> args = new ArrayList<>();
+            if (name.equals("source")) {
+                for (Ast arg : term.getArgs()) {
+                    args.add(compile(arg, assigned));
+                }
+                return new Sequence(args.toArray(new Node[0]));
+            } else if ((name.equals("and") || name.equals("or")) && isBuiltin(name)) {
+                for (Ast arg : term.getArgs()) {
+                    args.add(compile(arg, assigned));
+                }
+                return new ShortCircuit(name.equals("or"), args.toArray(new Node[0]));
+            } else if (Primitives.FUNCTIONS.containsKey(name) && isBuiltin(name)) {
+                for (Ast arg : term.getArgs()) {
+                    args.add(compile(arg, assigned));
+                }
+                return new Call(Primitives.FUNCTIONS.get(name), args.toArray(new Node[0]));
+            }
+            return fallback(ast);
+        } else {
+            throw new AssertionError(ast.getClass());
+        }
+    }
+
+    /**
+     * Returns whether the name is still bound to the standard library's
+     * builtin, which the compiled form is equivalent to.
+     */
+    private boolean isBuiltin(String name) {
+        try {
+            return interpreter.isLibrary(name, interpreter.scope.lookup(name));
+        } catch (EvalException e) {
+            return false;
+        }
+    }
+
+    private Node fallback(Ast ast) {
+        fallback = true;
+        return bindings -> interpreter.eval(ast);
+    }
+
+    /**
+     * A compiled node, evaluated against the bindings of the current record.
+     */
+    private interface Node {
+
+        Object eval(Object[] bindings);
+
+    }
+
+    private static final class Constant implements Node {
+
+        private final Object value;
+
+        private Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Object[] bindings) {
+            return value;
+        }
+
+    }
+
+    private static final class Slot implements Node {
+
+        private final int index;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Object eval(Object[] bindings) {
+            return bindings[index];
+        }
+
+    }
+
+    private static final class Call implements Node {
+
+        private final Function<List<Object>, Object> function;
+        private final Node[] args;
+
+        private Call(Function<List<Object>, Object> function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Object[] bindings) {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].eval(bindings);
+            }
+            return function.apply(Arrays.asList(values));
+        }
+
+    }
+
+    private static final class ShortCircuit implements Node {
+
+        private final boolean or;
+        private final Node[] args;
+
+        private ShortCircuit(boolean or, Node[] args) {
+            this.or = or;
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Object[] bindings) {
+            for (Node arg : args) {
+                if (Interpreter.requireType(Boolean.class, arg.eval(bindings)) == or) {
+                    return or;
+                }
+            }
+            return !or;
+        }
+
+    }
+
+    private static final class Sequence implements Node {
+
+        private final Node[] args;
+
+        private Sequence(Node[] args) {
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Object[] bindings) {
+            Object result = Interpreter.VOID;
+            for (Node arg : args) {
+                result = arg.eval(bindings);
+            }
+            return result;
+        }
+
+    }
+
+}
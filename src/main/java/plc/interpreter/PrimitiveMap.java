@@ -0,0 +1,227 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * The mutable map value created by {@code hash-map}, stored in an
+ * open-addressing table with linear probing instead of a
+ * {@link java.util.HashMap}'s chain of entry objects.
+ *
+ * While every key is an integer (a number with no decimal point which fits
+ * in a long) the keys are stored in a {@code long[]}, so there's no boxing
+ * and no {@link BigDecimal} per key. Otherwise keys are stored as objects
+ * alongside their hash codes, which for string keys means lookups compare
+ * cached hashes before comparing strings (ropes are flattened to strings, see
+ * {@link Rope}). A map switches to the object layout
+ * the first time a non-integer key is added.
+ *
+ * Removal shifts the following entries of the probe sequence back instead of
+ * leaving tombstones, so tables don't degrade after many removals.
+ */
+public final class PrimitiveMap {
+
+    private static final int MINIMUM = 8;
+
+    private long[] longKeys;
+    private Object[] objectKeys;
+    private int[] hashes;
+    private Object[] values;
+    private int size = 0;
+
+    public PrimitiveMap() {
+        longKeys = new long[MINIMUM];
+        values = new Object[MINIMUM];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value for the key, or null if it isn't in the map.
+     */
+    public Object get(Object key) {
+        int index = find(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    public void put(Object key, Object value) {
+        key = Rope.flatten(key);
+        if (value == null) {
+            throw new NullPointerException("Map values cannot be null.");
+        }
+        if (longKeys != null && !isLong(key)) {
+            convert(values.length);
+        }
+        if ((size + 1) * 4L > values.length * 3L) {
+            resize(values.length * 2);
+        }
+        int mask = values.length - 1;
+        if (longKeys != null) {
+            long k = ((BigDecimal) key).longValue();
+            int i = mix(Long.hashCode(k)) & mask;
+            while (values[i] != null && longKeys[i] != k) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                longKeys[i] = k;
+                size++;
+            }
+            values[i] = value;
+        } else {
+            int hash = key.hashCode();
+            int i = mix(hash) & mask;
+            while (values[i] != null && !(hashes[i] == hash && objectKeys[i].equals(key))) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                objectKeys[i] = key;
+                hashes[i] = hash;
+                size++;
+            }
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Removes the key, returning its value or null if it wasn't in the map.
+     */
+    public Object remove(Object key) {
+        int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        Object removed = values[index];
+        int mask = values.length - 1;
+        //shift back later entries whose probe sequence passes the hole
+        int hole = index;
+        for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = mix(longKeys != null ? Long.hashCode(longKeys[i]) : hashes[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                values[hole] = values[i];
+                if (longKeys != null) {
+                    longKeys[hole] = longKeys[i];
+                } else {
+                    objectKeys[hole] = objectKeys[i];
+                    hashes[hole] = hashes[i];
+                }
+                hole = i;
+            }
+        }
+        values[hole] = null;
+        if (objectKeys != null) {
+            objectKeys[hole] = null;
+        }
+        size--;
+        return removed;
+    }
+
+    /**
+     * Returns the keys in table order.
+     */
+    public List<Object> keys() {
+        HashedList keys = new HashedList();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                keys.add(longKeys != null ? BigDecimal.valueOf(longKeys[i]) : objectKeys[i]);
+            }
+        }
+        return keys;
+    }
+
+    private int find(Object key) {
+        key = Rope.flatten(key);
+        int mask = values.length - 1;
+        if (longKeys != null) {
+            if (!isLong(key)) {
+                return -1;
+            }
+            long k = ((BigDecimal) key).longValue();
+            for (int i = mix(Long.hashCode(k)) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (longKeys[i] == k) {
+                    return i;
+                }
+            }
+        } else {
+            int hash = key.hashCode();
+            for (int i = mix(hash) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && objectKeys[i].equals(key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Only numbers without a fractional scale are stored as longs, since
+     * {@code 1} and {@code 1.0} are different keys (as with {@code equals?}).
+     */
+    private static boolean isLong(Object key) {
+        return key instanceof BigDecimal && ((BigDecimal) key).scale() == 0
+                && ((BigDecimal) key).unscaledValue().bitLength() < 64;
+    }
+
+    /**
+     * Spreads the hash, since integer keys are often sequential and the table
+     * uses the low bits.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void resize(int capacity) {
+        long[] oldLongKeys = longKeys;
+        Object[] oldObjectKeys = objectKeys;
+        Object[] oldValues = values;
+        allocate(capacity, oldLongKeys != null);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldLongKeys != null ? BigDecimal.valueOf(oldLongKeys[i]) : oldObjectKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Switches to the object layout.
+     */
+    private void convert(int capacity) {
+        long[] oldLongKeys = longKeys;
+        Object[] oldValues = values;
+        allocate(capacity, false);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(BigDecimal.valueOf(oldLongKeys[i]), oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity, boolean longs) {
+        longKeys = longs ? new long[capacity] : null;
+        objectKeys = longs ? null : new Object[capacity];
+        hashes = longs ? null : new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(longKeys != null ? longKeys[i] : objectKeys[i]).append("=").append(values[i]);
+            }
+        }
+        return builder.append("}").toString();
+    }
+
+}
@@ -0,0 +1,211 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * The builtins of the standard library which evaluate all of their arguments
+ * and have no side effects, written as functions of the evaluated values.
+ *
+ * The {@link Interpreter} evaluates the argument {@link Ast}s and calls these,
+ * while other evaluation strategies (such as {@link PreparedScript}) can
+ * compute the arguments however they like and still get identical results.
+ */
+final class Primitives {
+
+    /**
+     * The functions above by builtin name.
+     */
+    static final Map<String, Function<List<Object>, Object>> FUNCTIONS = new HashMap<>();
+
+    private Primitives() {}
+
+    static BigDecimal add(List<Object> args) {
+        BigDecimal result = BigDecimal.ZERO;            //return 0 if no args
+        for (Object arg : args) {
+            result = result.add(Interpreter.requireType(BigDecimal.class, arg));
+        }
+        return result;
+    }
+
+    static BigDecimal subtract(List<Object> args) {
+        if (args.isEmpty()) {
+            throw new EvalException("Subtraction must have at least one argument");
+        }
+
+        BigDecimal result = Interpreter.requireType(BigDecimal.class, args.get(0));
+        if (args.size() == 1) {    //add result to zero and negate it
+            return result.negate();
+        }
+
+        for (int i = 1; i < args.size(); i++) {
+            result = result.subtract(Interpreter.requireType(BigDecimal.class, args.get(i)));
+        }
+        return result;
+    }
+
+    static BigDecimal multiply(List<Object> args) {
+        BigDecimal result = BigDecimal.ONE;         //returns 1 if no args
+        for (Object arg : args) {
+            result = result.multiply(Interpreter.requireType(BigDecimal.class, arg));
+        }
+        return result;
+    }
+
+    static BigDecimal divide(List<Object> args) {
+        if (args.isEmpty()) {
+            throw new EvalException("Division must have at least one argument");
+        }
+
+        BigDecimal result = Interpreter.requireType(BigDecimal.class, args.get(0));
+        if (args.size() == 1) {    //raise to power of -1 to get inverse
+            result = BigDecimal.ONE.divide(result, RoundingMode.HALF_EVEN);
+        }
+
+        for (int i = 1; i < args.size(); i++) {
+            result = result.divide(Interpreter.requireType(BigDecimal.class, args.get(i)), RoundingMode.HALF_EVEN);
+        }
+
+        return result;
+    }
+
+    static Boolean equal(List<Object> args) {
+        if (args.size() != 2)
+            throw new EvalException("equals? requires two arguments for comparison");
+
+        //ropes are compared by their contents, like strings
+        Object first = args.get(0) instanceof Rope ? args.get(0).toString() : args.get(0);
+        Object second = args.get(1) instanceof Rope ? args.get(1).toString() : args.get(1);
+        return Objects.deepEquals(first, second);
+    }
+
+    static Boolean not(List<Object> args) {
+        for (Object arg : args) {
+            Interpreter.requireType(Boolean.class, arg);
+        }
+        if (args.size() != 1)
+            throw new EvalException(("not only takes a single argument"));
+
+        return !(Boolean) args.get(0);
+    }
+
+    static Boolean less(List<Object> args) {
+        return compare(args, result -> result == -1);
+    }
+
+    static Boolean lessEqual(List<Object> args) {
+        return compare(args, result -> result != 1);
+    }
+
+    static Boolean greater(List<Object> args) {
+        return compare(args, result -> result == 1);
+    }
+
+    static Boolean greaterEqual(List<Object> args) {
+        return compare(args, result -> result != -1);
+    }
+
+    /**
+     * Returns true if each pair of adjacent arguments is ordered, according to
+     * the given test of the result of {@link Comparable#compareTo(Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    private static Boolean compare(List<Object> args, IntPredicate ordered) {
+        for (Object arg : args) {
+            Interpreter.requireType(Comparable.class, arg);
+        }
+        if (args.isEmpty() || args.size() == 1) return true;
+
+        Comparable compare_1 = (Comparable) args.get(0);
+        for (int i = 1; i < args.size(); i++) {
+            Comparable compare_2 = (Comparable) args.get(i);
+
+            if (!ordered.test(compare_1.compareTo(compare_2)))
+                return false;
+
+            compare_1 = compare_2;
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts integral values without a fractional part, so that they are
+     * {@code equals?} to the corresponding number literals. Infinities and
+     * NaN, which arrays and columns can hold, have no decimal value.
+     */
+    static BigDecimal decimal(double value) {
+        if (!Double.isFinite(value)) {
+            throw new EvalException("The value " + value + " is not a finite number.");
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 0x1p53) {
+            return BigDecimal.valueOf((long) value);
+        }
+        return BigDecimal.valueOf(value);
+    }
+
+    static LinkedList<Object> list(List<Object> args) {
+        LinkedList<Object> list = new HashedList();
+        for (Object arg : args) {
+            list.add(Rope.flatten(arg));
+        }
+        return list;
+    }
+
+    static LinkedList<Object> range(List<Object> args) {
+        return range(args, () -> {});
+    }
+
+    /**
+     * Returns the range, calling step for each element so a long one can be
+     * stopped by the evaluation's budget.
+     */
+    static LinkedList<Object> range(List<Object> args, Runnable step) {
+        if (args.size() != 2) throw new EvalException("Range requires 2 arguments");
+
+        BigDecimal first_arg = Interpreter.requireType(BigDecimal.class, args.get(0));
+        BigDecimal second_arg = Interpreter.requireType(BigDecimal.class, args.get(1));
+
+        LinkedList<Object> list = new HashedList();
+        int res = second_arg.compareTo(first_arg);
+        if (res < 0)
+            throw new EvalException("Range requires second argument to be greater than the first");
+        else if (res == 0)
+            return list;
+
+        if (Math.round(first_arg.doubleValue()) != first_arg.doubleValue() ||
+            Math.round(second_arg.doubleValue()) != second_arg.doubleValue())
+                throw new EvalException("Range requires integers");
+
+        int arg1 = first_arg.intValue();
+        int arg2 = second_arg.intValue();
+        for (int i = arg1; i < arg2; i++) {
+            step.run();
+            list.add(BigDecimal.valueOf(i));
+        }
+        return list;
+    }
+
+    static {
+        FUNCTIONS.put("+", Primitives::add);
+        FUNCTIONS.put("-", Primitives::subtract);
+        FUNCTIONS.put("*", Primitives::multiply);
+        FUNCTIONS.put("/", Primitives::divide);
+        FUNCTIONS.put("equals?", Primitives::equal);
+        FUNCTIONS.put("not", Primitives::not);
+        FUNCTIONS.put("<", Primitives::less);
+        FUNCTIONS.put("<=", Primitives::lessEqual);
+        FUNCTIONS.put(">", Primitives::greater);
+        FUNCTIONS.put(">=", Primitives::greaterEqual);
+        FUNCTIONS.put("list", Primitives::list);
+        FUNCTIONS.put("range", Primitives::range);
+    }
+
+}
@@ -0,0 +1,106 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Instrumentation inserted into an interpreter, which is told when each term
+ * is entered and exited (including when it throws). Interpreters have a
+ * single slot for probes, checked once per term, so tools such as the
+ * {@link Profiler} and {@link Debugger} cost nothing more than that check
+ * until they're attached.
+ *
+ * Probes are called on the evaluating thread. Inserting or removing a probe
+ * while the interpreter is evaluating takes effect from the next term; the
+ * terms it's already in exit the probes they entered.
+ */
+abstract class Probe {
+
+    /**
+     * Called before the term is evaluated. A probe which throws is left as
+     * if it hadn't been entered, and isn't exited.
+     */
+    abstract void enter(Ast.Term term);
+
+    abstract void exit(Ast.Term term);
+
+    /**
+     * Adds a probe to the interpreter's, which are called in the order they
+     * were inserted.
+     */
+    static synchronized void insert(Interpreter interpreter, Probe probe) {
+        Probe current = interpreter.probe;
+        if (current == null) {
+            interpreter.probe = probe;
+        } else if (current instanceof All) {
+            Probe[] probes = ((All) current).probes;
+            Probe[] inserted = Arrays.copyOf(probes, probes.length + 1);
+            inserted[probes.length] = probe;
+            interpreter.probe = new All(inserted);
+        } else {
+            interpreter.probe = new All(new Probe[] {current, probe});
+        }
+    }
+
+    static synchronized void remove(Interpreter interpreter, Probe probe) {
+        Probe current = interpreter.probe;
+        if (current == probe) {
+            interpreter.probe = null;
+        } else if (current instanceof All) {
+            Probe[] remaining = Arrays.stream(((All) current).probes).filter(p -> p != probe).toArray(Probe[]::new);
+            interpreter.probe = remaining.length == 1 ? remaining[0] : new All(remaining);
+        }
+    }
+
+    /**
+     * Returns the interpreter's probe of the given type, or null if it
+     * doesn't have one.
+     */
+    static <T extends Probe> T find(Interpreter interpreter, Class<T> type) {
+        Probe current = interpreter.probe;
+        Probe[] probes = current instanceof All ? ((All) current).probes : new Probe[] {current};
+        for (Probe probe : probes) {
+            if (type.isInstance(probe)) {
+                return type.cast(probe);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Several probes, which are exited in the reverse of the order they're
+     * entered. If one throws when entered, the ones before it are exited
+     * again, so together they're left as if none had been entered.
+     */
+    private static final class All extends Probe {
+
+        private final Probe[] probes;
+
+        private All(Probe[] probes) {
+            this.probes = probes;
+        }
+
+        @Override
+        void enter(Ast.Term term) {
+            int entered = 0;
+            try {
+                for (; entered < probes.length; entered++) {
+                    probes[entered].enter(term);
+                }
+            } catch (RuntimeException | Error e) {
+                for (int i = entered - 1; i >= 0; i--) {
+                    probes[i].exit(term);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        void exit(Ast.Term term) {
+            for (int i = probes.length - 1; i >= 0; i--) {
+                probes[i].exit(term);
+            }
+        }
+
+    }
+
+}
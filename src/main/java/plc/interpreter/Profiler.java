@@ -0,0 +1,220 @@
+package plc.interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for Whisp programs.
+ *
+ * While an interpreter is attached, it keeps a shadow stack of the terms it's
+ * evaluating (the term for a call to a Whisp function stands for the call).
+ * A background thread takes a snapshot of each attached interpreter's shadow
+ * stack at a fixed interval and counts how many times each stack was seen,
+ * labelling terms with their name and source offset, like
+ * {@code fib@0;+@36;fib@39}. The counts can be written in the collapsed stack
+ * format read by flame graph tools.
+ *
+ * Interpreters can be attached and detached, and sampling started and
+ * stopped, while they're evaluating. Detached interpreters only pay for a
+ * null check per term. Tasks started by an attached interpreter
+ * ({@code async}, {@code spawn}, {@code generator}) aren't profiled.
+ */
+public final class Profiler implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_MICROS = 1000;
+
+    private final long intervalNanos;
+    private final List<Stack> stacks = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> samples = new TreeMap<>();
+    private Thread sampler;
+    private volatile boolean sampling = false;
+
+    public Profiler() {
+        this(DEFAULT_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    public Profiler(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The interval must be positive.");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Starts keeping a shadow stack for the interpreter, which should only
+     * be evaluating on one thread at a time. If it's attached in the middle
+     * of an evaluation, the terms it was already in are missing from the
+     * samples until it returns from them.
+     */
+    public void attach(Interpreter interpreter) {
+        if (Probe.find(interpreter, Stack.class) != null) {
+            throw new IllegalStateException("The interpreter is already attached to a profiler.");
+        }
+        Stack stack = new Stack(this);
+        stacks.add(stack);
+        Probe.insert(interpreter, stack);
+    }
+
+    public void detach(Interpreter interpreter) {
+        Stack stack = Probe.find(interpreter, Stack.class);
+        if (stack != null && stack.profiler == this) {
+            Probe.remove(interpreter, stack);
+            stacks.remove(stack);
+        }
+    }
+
+    /**
+     * Starts sampling on a background thread, if it isn't already.
+     */
+    public synchronized void start() {
+        if (sampler == null) {
+            sampling = true;
+            sampler = new Thread(() -> {
+                while (sampling) {
+                    LockSupport.parkNanos(intervalNanos);
+                    sample();
+                }
+            }, "whisp-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    /**
+     * Stops sampling, keeping the samples taken so far.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = sampler;
+            sampler = null;
+            sampling = false;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Takes one sample of each attached interpreter which is evaluating.
+     */
+    void sample() {
+        List<String> taken = new ArrayList<>(stacks.size());
+        for (Stack stack : stacks) {
+            String collapsed = stack.collapse();
+            if (collapsed != null) {
+                taken.add(collapsed);
+            }
+        }
+        synchronized (samples) {
+            for (String collapsed : taken) {
+                samples.merge(collapsed, 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times each stack was sampled, by its collapsed
+     * form.
+     */
+    public Map<String, Long> getSamples() {
+        synchronized (samples) {
+            return new TreeMap<>(samples);
+        }
+    }
+
+    public void reset() {
+        synchronized (samples) {
+            samples.clear();
+        }
+    }
+
+    /**
+     * Writes the samples in the collapsed stack format, one stack per line
+     * followed by its count.
+     */
+    public void writeCollapsed(Writer out) throws IOException {
+        for (Map.Entry<String, Long> entry : getSamples().entrySet()) {
+            out.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * The terms an interpreter is evaluating. Only the interpreter's thread
+     * pushes and pops; the sampler may see a term that was just popped or
+     * miss one that was just pushed, which doesn't matter for sampling.
+     */
+    static final class Stack extends Probe {
+
+        private final Profiler profiler;
+        private volatile Ast.Term[] terms = new Ast.Term[64];
+        private final AtomicInteger depth = new AtomicInteger();
+
+        private Stack(Profiler profiler) {
+            this.profiler = profiler;
+        }
+
+        @Override
+        void enter(Ast.Term term) {
+            int top = depth.get();
+            Ast.Term[] terms = this.terms;
+            if (top == terms.length) {
+                terms = this.terms = Arrays.copyOf(terms, terms.length * 2);
+            }
+            terms[top] = term;
+            //an ordered store is enough, the sampler only needs to see it eventually
+            depth.lazySet(top + 1);
+        }
+
+        @Override
+        void exit(Ast.Term term) {
+            depth.lazySet(depth.get() - 1);
+        }
+
+        private String collapse() {
+            int top = depth.get();
+            Ast.Term[] terms = this.terms;
+            if (top == 0) {
+                return null;
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < Math.min(top, terms.length); i++) {
+                Ast.Term term = terms[i];
+                if (term == null) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(';');
+                }
+                //separators in names would split or end the frame
+                builder.append(term.getName().replace(';', ':').replace(' ', '_'));
+                if (term.getOffset() >= 0) {
+                    builder.append('@').append(term.getOffset());
+                }
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
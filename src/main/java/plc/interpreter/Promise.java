@@ -0,0 +1,110 @@
+package plc.interpreter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The value returned by {@code async}, representing the result of a term that
+ * is being evaluated on another thread. {@code await} blocks until the result
+ * is available and rethrows any {@link EvalException} raised by the term.
+ *
+ * Tasks run on virtual threads when the JVM supports them (Java 21+), which
+ * makes blocking in a builtin cheap. On older JVMs they fall back to a cached
+ * pool of daemon threads, which still allows blocking calls to overlap.
+ */
+public final class Promise {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private final Future<Object> future;
+
+    private Promise(Future<Object> future) {
+        this.future = future;
+    }
+
+    /**
+     * Submits the task to the shared executor and returns a promise for the
+     * result.
+     */
+    public static Promise submit(Callable<Object> task) {
+        return new Promise(EXECUTOR.submit(task));
+    }
+
+    /**
+     * Blocks until the result is available and returns it. An exception
+     * thrown by the task is rethrown as is if it is unchecked, so an
+     * {@link EvalException} propagates to the caller unchanged.
+     */
+    public Object await() throws EvalException {
+        return await(Long.MAX_VALUE);
+    }
+
+    /**
+     * Blocks until the result is available, waiting at most the given number
+     * of nanoseconds ({@link Long#MAX_VALUE} waits indefinitely), and returns
+     * it, or null if it still isn't.
+     */
+    public Object await(long timeoutNanos) throws EvalException {
+        try {
+            return timeoutNanos == Long.MAX_VALUE ? future.get() : future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (CancellationException e) {
+            throw new EvalException("The future was cancelled.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EvalException("Interrupted while awaiting a future.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new EvalException("The future failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * Attempts to cancel the task, interrupting it if it is already running.
+     * Returns {@code true} if the task was cancelled before completing.
+     */
+    public boolean cancel() {
+        return future.cancel(true);
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public String toString() {
+        return "#<promise " + (future.isCancelled() ? "cancelled" : future.isDone() ? "done" : "pending") + ">";
+    }
+
+    /**
+     * Uses {@code Executors.newVirtualThreadPerTaskExecutor()} if it exists,
+     * which is looked up reflectively so this still runs on Java 8.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "whisp-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+}
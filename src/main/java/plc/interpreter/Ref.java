@@ -0,0 +1,87 @@
+package plc.interpreter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transactional reference, created by {@code ref} and updated by
+ * {@code alter!} inside {@code dosync}. See {@link Transaction}.
+ *
+ * Each ref keeps a short chain of committed versions, newest first, so a
+ * transaction can read the value as of its start without blocking writers
+ * and writers never block readers. The chain is trimmed to {@link
+ * #HISTORY} entries; a transaction which needs an older version retries.
+ */
+public final class Ref {
+
+    static final int HISTORY = 8;
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    final long id;
+    final AtomicBoolean locked = new AtomicBoolean();
+    private volatile Version latest;
+
+    public Ref(Object value) {
+        this.id = COUNTER.getAndIncrement();
+        this.latest = new Version(value, 0, null);
+    }
+
+    /**
+     * Returns the most recently committed value.
+     */
+    public Object get() {
+        return latest.value;
+    }
+
+    Version latest() {
+        return latest;
+    }
+
+    /**
+     * Returns the newest version committed at or before the given point, or
+     * null if it has been trimmed from the history.
+     */
+    Version at(long point) {
+        for (Version version = latest; version != null; version = version.previous) {
+            if (version.point <= point) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installs a new version. Must only be called by the committing
+     * transaction while it holds the lock.
+     */
+    void install(Object value, long point) {
+        Version version = new Version(value, point, latest);
+        Version last = version;
+        for (int i = 1; i < HISTORY && last.previous != null; i++) {
+            last = last.previous;
+        }
+        last.previous = null;
+        latest = version;
+    }
+
+    @Override
+    public String toString() {
+        return "#<ref " + latest.value + ">";
+    }
+
+    static final class Version {
+
+        final Object value;
+        final long point;
+        volatile Version previous;
+
+        Version(Object value, long point, Version previous) {
+            this.value = value;
+            this.point = point;
+            this.previous = previous;
+        }
+
+    }
+
+}
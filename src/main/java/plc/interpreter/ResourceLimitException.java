@@ -0,0 +1,23 @@
+package plc.interpreter;
+
+/**
+ * Thrown when an evaluation exceeds one of the limits of its {@link Budget}.
+ *
+ * This isn't an {@link EvalException}, so code which recovers from errors in
+ * the script (such as a rule set skipping a failing rule) doesn't also
+ * recover from the evaluation being stopped.
+ */
+public final class ResourceLimitException extends RuntimeException {
+
+    private final Budget.Resource resource;
+
+    public ResourceLimitException(String message, Budget.Resource resource) {
+        super(message);
+        this.resource = resource;
+    }
+
+    public Budget.Resource getResource() {
+        return resource;
+    }
+
+}
@@ -0,0 +1,495 @@
+package plc.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * A content-addressed cache of the values of top-level {@code define}s, kept
+ * on disk so that reruns of a script can skip forms whose inputs haven't
+ * changed (see {@link Interpreter#setResultCache(ResultCache)}).
+ *
+ * The key of a form is a SHA-256 hash of its AST together with fingerprints
+ * of everything it depends on: the values of the identifiers it uses, and for
+ * user functions their bodies and (transitively) the identifiers those use. A
+ * form is only cached if all of these are pure: numbers, strings, booleans,
+ * lists, the standard library's arithmetic/comparison/control builtins (not
+ * whatever a host or script binds to their names), and host functions
+ * declared with {@link #declarePure(String, Supplier)}, whose fingerprint
+ * supplier identifies the data they read (such as {@link #fingerprint(Path)}
+ * for a file). Results which aren't plain data are not stored.
+ *
+ * Entries are appended to a single segment file which is read through a
+ * memory mapping; the index is rebuilt by scanning the file on open, and a
+ * torn record at the end (from a crash) is truncated. As one mapping covers
+ * at most 2 GB, so does the file: once it's full, results aren't stored
+ * until {@link #compact()} makes room. Entries are never rewritten in place,
+ * so compacting drops the ones which weren't used by this run (such as
+ * results for old versions of the inputs).
+ */
+public final class ResultCache implements Closeable {
+
+    private static final byte[] MAGIC = "WHRC0001".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY = 32;
+    /**
+     * Each record is the key, the value length, the value's CRC32, and the
+     * serialized value.
+     */
+    private static final int HEADER = KEY + 8;
+
+    private static final Set<String> PURE = new HashSet<>(Arrays.asList("and", "or", "not", "equals?", "if", "do"));
+
+    static {
+        PURE.addAll(Primitives.FUNCTIONS.keySet());
+    }
+
+    private static final byte VOID = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4, LIST = 5;
+
+    private final Path path;
+    private final long maxSize;
+    private final Map<ByteBuffer, long[]> index = new HashMap<>();
+    private final Set<ByteBuffer> used = new HashSet<>();
+    private final Map<String, Supplier<String>> declared = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Opens the cache in the given file, creating it if it doesn't exist.
+     */
+    public ResultCache(Path path) throws IOException {
+        this(path, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Opens the cache with a smaller limit on the size of the file.
+     */
+    ResultCache(Path path, long maxSize) throws IOException {
+        this.path = path;
+        this.maxSize = maxSize;
+        open();
+    }
+
+    /**
+     * Declares that calls to the host function bound to the name depend only
+     * on their arguments and on the data identified by the fingerprint.
+     */
+    public synchronized void declarePure(String name, Supplier<String> fingerprint) {
+        declared.put(name, fingerprint);
+    }
+
+    /**
+     * Returns the SHA-256 of a file's contents, for use as a fingerprint.
+     */
+    public static String fingerprint(Path file) {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    /**
+     * Returns the value of the form in the scope, from the cache if possible,
+     * otherwise by evaluating it and storing the result if it can be. Only
+     * functions for which {@code library} returns true, given the name and
+     * value, are treated as the standard library's builtins.
+     */
+    public Object evaluate(Ast ast, Scope scope, BiPredicate<String, Object> library, Supplier<Object> evaluate) {
+        byte[] key = key(ast, scope, library);
+        if (key == null) {
+            return evaluate.get();
+        }
+        Object cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Object value = evaluate.get();
+        put(key, value);
+        return value;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the size of the segment file in bytes.
+     */
+    public synchronized long getFileSize() {
+        return size;
+    }
+
+    /**
+     * Rewrites the segment file with only the entries read or stored since
+     * the cache was opened or last compacted, returning the number of
+     * entries dropped.
+     */
+    public synchronized int compact() throws IOException {
+        Path temporary = Paths.get(path + ".compact");
+        Map<ByteBuffer, long[]> compacted = new HashMap<>();
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(MAGIC));
+            long position = MAGIC.length;
+            for (ByteBuffer key : used) {
+                long[] entry = index.get(key);
+                ByteBuffer record = slice(entry[0] - HEADER, (int) entry[1] + HEADER);
+                compacted.put(key, new long[] {position + HEADER, entry[1]});
+                while (record.hasRemaining()) {
+                    position += out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        int dropped = index.size() - compacted.size();
+        channel.close();
+        mapped = null;
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        return dropped;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(true);
+        channel.close();
+        mapped = null;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        used.clear();
+        size = channel.size();
+        if (size == 0) {
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            size = MAGIC.length;
+        }
+        remap();
+        byte[] magic = new byte[MAGIC.length];
+        if (size >= MAGIC.length) {
+            mapped.get(magic);
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            channel.close();
+            throw new IOException(path + " is not a result cache.");
+        }
+        long position = MAGIC.length;
+        while (position + HEADER <= mapped.capacity()) {
+            byte[] key = new byte[KEY];
+            mapped.position((int) position);
+            mapped.get(key);
+            int length = mapped.getInt();
+            int crc = mapped.getInt();
+            if (length < 0 || position + HEADER + length > mapped.capacity() || crc != crc(slice(position + HEADER, length))) {
+                break;
+            }
+            index.put(ByteBuffer.wrap(key), new long[] {position + HEADER, length});
+            position += HEADER + length;
+        }
+        if (position < size) {
+            //a torn record from a write that didn't finish
+            channel.truncate(position);
+            size = position;
+            remap();
+        }
+    }
+
+    private void remap() throws IOException {
+        //records past the limit are dropped as torn on open
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, maxSize));
+    }
+
+    private ByteBuffer slice(long position, int length) throws IOException {
+        if (position + length > mapped.capacity()) {
+            remap();
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) position);
+        buffer.limit((int) position + length);
+        return buffer.slice();
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private synchronized Object get(byte[] key) {
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        long[] entry = index.get(wrapped);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        used.add(wrapped);
+        try {
+            return read(slice(entry[0], (int) entry[1]));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void put(byte[] key, Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (!write(new DataOutputStream(bytes), value)) {
+                return;
+            }
+            ByteBuffer serialized = ByteBuffer.wrap(bytes.toByteArray());
+            if (size + HEADER + serialized.remaining() > maxSize) {
+                return;
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER + serialized.remaining());
+            record.put(key).putInt(serialized.remaining()).putInt(crc(serialized.duplicate())).put(serialized);
+            record.flip();
+            long position = size;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            ByteBuffer wrapped = ByteBuffer.wrap(key);
+            index.put(wrapped, new long[] {size + HEADER, position - size - HEADER});
+            used.add(wrapped);
+            size = position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the key of the form, or null if it depends on anything that
+     * isn't pure.
+     */
+    private byte[] key(Ast ast, Scope scope, BiPredicate<String, Object> library) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            writeAst(out, ast);
+            if (!writeInputs(out, ast, scope, library, Collections.emptySet(), Collections.newSetFromMap(new IdentityHashMap<>()))) {
+                return null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sha256().digest(bytes.toByteArray());
+    }
+
+    /**
+     * Writes the fingerprints of the identifiers the AST uses, in name order,
+     * except for local names (function parameters).
+     */
+    private boolean writeInputs(DataOutputStream out, Ast ast, Scope scope, BiPredicate<String, Object> library,
+                                Set<String> locals, Set<Closure> visiting) throws IOException {
+        Set<String> names = new TreeSet<>();
+        collect(ast, names);
+        names.removeAll(locals);
+        for (String name : names) {
+            Object value;
+            try {
+                value = scope.lookup(name);
+            } catch (EvalException e) {
+                return false;
+            }
+            out.writeUTF(name);
+            if (!writeInput(out, name, value, library, visiting)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean writeInput(DataOutputStream out, String name, Object value, BiPredicate<String, Object> library,
+                               Set<Closure> visiting) throws IOException {
+        if (value instanceof Memoized) {
+            return writeInput(out, name, ((Memoized) value).getFunction(), library, visiting);
+        } else if (value instanceof Closure) {
+            Closure closure = (Closure) value;
+            if (!visiting.add(closure)) {
+                out.writeByte('R');
+                out.writeUTF(closure.getName());
+                return true;
+            }
+            out.writeByte('C');
+            out.writeUTF(String.join(" ", closure.getParameters()));
+            writeAst(out, closure.getBody());
+            boolean pure = writeInputs(out, closure.getBody(), closure.getScope(), library,
+                    new HashSet<>(closure.getParameters()), visiting);
+            visiting.remove(closure);
+            return pure;
+        } else if (value != Interpreter.VOID && value instanceof Function) {
+            Supplier<String> fingerprint;
+            synchronized (this) {
+                fingerprint = declared.get(name);
+            }
+            if (fingerprint != null) {
+                out.writeByte('P');
+                out.writeUTF(fingerprint.get());
+                return true;
+            } else if (PURE.contains(name) && library.test(name, value)) {
+                out.writeByte('B');
+                return true;
+            }
+            return false;
+        }
+        out.writeByte('V');
+        return write(out, value);
+    }
+
+    private static void collect(Ast ast, Set<String> names) {
+        if (ast instanceof Ast.Identifier) {
+            names.add(((Ast.Identifier) ast).getName());
+        } else if (ast instanceof Ast.Term) {
+            names.add(((Ast.Term) ast).getName());
+            for (Ast arg : ((Ast.Term) ast).getArgs()) {
+                collect(arg, names);
+            }
+        }
+    }
+
+    private static void writeAst(DataOutputStream out, Ast ast) throws IOException {
+        if (ast instanceof Ast.NumberLiteral) {
+            out.writeByte('N');
+            write(out, ((Ast.NumberLiteral) ast).getValue());
+        } else if (ast instanceof Ast.StringLiteral) {
+            out.writeByte('S');
+            write(out, ((Ast.StringLiteral) ast).getValue());
+        } else if (ast instanceof Ast.Identifier) {
+            out.writeByte('I');
+            out.writeUTF(((Ast.Identifier) ast).getName());
+        } else {
+            Ast.Term term = (Ast.Term) ast;
+            out.writeByte('T');
+            out.writeUTF(term.getName());
+            out.writeInt(term.getArgs().size());
+            for (Ast arg : term.getArgs()) {
+                writeAst(out, arg);
+            }
+        }
+    }
+
+    /**
+     * Serializes a value, returning false if it isn't plain data.
+     */
+    private static boolean write(DataOutputStream out, Object value) throws IOException {
+        if (value == Interpreter.VOID) {
+            out.writeByte(VOID);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof BigDecimal) {
+            byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+            out.writeByte(NUMBER);
+            out.writeInt(((BigDecimal) value).scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value instanceof String || value instanceof Rope) {
+            byte[] utf8 = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        } else if (value instanceof LinkedList) {
+            out.writeByte(LIST);
+            out.writeInt(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                if (!write(out, element)) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object read(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case VOID:
+                return Interpreter.VOID;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NUMBER: {
+                int scale = in.getInt();
+                byte[] unscaled = new byte[in.getInt()];
+                in.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case STRING: {
+                byte[] utf8 = new byte[in.getInt()];
+                in.get(utf8);
+                return new String(utf8, StandardCharsets.UTF_8);
+            }
+            case LIST: {
+                int count = in.getInt();
+                LinkedList<Object> list = new HashedList();
+                for (int i = 0; i < count; i++) {
+                    list.add(read(in));
+                }
+                return list;
+            }
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag + ".");
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package plc.interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A string built by concatenation, stored as a tree of the concatenated
+ * pieces so that appending doesn't copy what's already been built.
+ *
+ * Short concatenations are just joined into a {@link String}, and appending a
+ * short piece to a rope whose last piece is short merges the two, so a string
+ * built by many small appends has pieces of a few hundred characters rather
+ * than one node per append. Building a string with n appends is therefore
+ * O(n) rather than O(n^2).
+ *
+ * A rope is converted to a single string the first time it's needed as one
+ * (which is cached), except by {@link #length()} and
+ * {@link #writeTo(Writer)}. Both traverse the tree with an explicit stack,
+ * since ropes built by appending are as deep as they are long.
+ *
+ * A rope equals another rope with the same characters, but can't equal a
+ * string since {@link String#equals(Object)} only accepts strings. Ropes are
+ * therefore flattened to strings (see {@link #flatten(Object)}) when they're
+ * put in a list or used as a map key, so lists and maps compare and hash the
+ * same whichever way their strings were built.
+ */
+public final class Rope implements CharSequence {
+
+    /**
+     * Concatenations of at most this many characters are copied.
+     */
+    private static final int SHORT = 512;
+
+    private final CharSequence left;
+    private final CharSequence right;
+    private final int length;
+    private volatile String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    /**
+     * Concatenates two strings or ropes, returning a string if the result is
+     * short.
+     */
+    public static CharSequence concat(CharSequence first, CharSequence second) {
+        if (first.length() == 0) {
+            return second;
+        } else if (second.length() == 0) {
+            return first;
+        } else if ((long) first.length() + second.length() > Integer.MAX_VALUE) {
+            throw new EvalException("The string would be longer than " + Integer.MAX_VALUE + " characters.");
+        } else if (first.length() + second.length() <= SHORT) {
+            return first.toString() + second;
+        } else if (first instanceof Rope && ((Rope) first).flat == null && second.length() < SHORT
+                && ((Rope) first).right.length() + second.length() <= SHORT) {
+            Rope rope = (Rope) first;
+            return new Rope(rope.left, rope.right.toString() + second);
+        }
+        return new Rope(first, second);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Writes the pieces in order without building the whole string.
+     */
+    public void writeTo(Writer out) throws IOException {
+        if (flat != null) {
+            out.write(flat);
+            return;
+        }
+        Deque<CharSequence> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            CharSequence piece = stack.pop();
+            if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                stack.push(((Rope) piece).right);
+                stack.push(((Rope) piece).left);
+            } else {
+                out.write(piece.toString());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result == null) {
+            char[] chars = new char[length];
+            int position = 0;
+            Deque<CharSequence> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                CharSequence piece = stack.pop();
+                if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                    stack.push(((Rope) piece).right);
+                    stack.push(((Rope) piece).left);
+                } else {
+                    String string = piece.toString();
+                    string.getChars(0, string.length(), chars, position);
+                    position += string.length();
+                }
+            }
+            flat = result = new String(chars);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the string a rope holds, or any other value unchanged.
+     */
+    static Object flatten(Object value) {
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Rope && length == ((Rope) obj).length && toString().equals(obj.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+}
@@ -0,0 +1,300 @@
+package plc.interpreter;
+
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A set of rules (small scripts) which are all evaluated against the same
+ * input, compiled into one DAG so that identical subterms are evaluated once.
+ *
+ * When a rule is added its AST is hash-consed: literals, identifiers, and
+ * terms calling a builtin in {@link Primitives} (or {@code and}/{@code or})
+ * with the same arguments are mapped to the same node. Evaluating the rule set
+ * computes each node at most once per input and fans the results out to every
+ * rule using it, so the cost scales with the number of distinct subterms.
+ *
+ * Other terms are evaluated by the {@link Interpreter} for each rule as
+ * usual. Rules which {@code define} or {@code set!} anything are evaluated
+ * entirely by the interpreter in their own scope, since they could change
+ * what an identifier means for other rules.
+ */
+public final class RuleSet {
+
+    private static final List<String> CONTROL = Arrays.asList("and", "or");
+
+    private final Map<List<Object>, Node> table = new HashMap<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Node> rules = new ArrayList<>();
+    private final Interpreter interpreter;
+    private final Scope builtins;
+    private int terms = 0;
+
+    public RuleSet(PrintWriter out) {
+        this.builtins = new Scope(null);
+        this.interpreter = new Interpreter(out, builtins);
+    }
+
+    /**
+     * Parses and adds a rule, returning its index.
+     */
+    public int add(String source) throws ParseException {
+        return add(Parser.parse(source));
+    }
+
+    /**
+     * Adds a rule, returning its index. If the AST is a {@code source} term its
+     * forms are evaluated in order and the rule's result is the last value.
+     */
+    public int add(Ast ast) {
+        Node rule;
+        if (assigns(ast)) {
+            rule = unique(Kind.ISOLATED, ast, new int[0]);
+        } else if (ast instanceof Ast.Term && ((Ast.Term) ast).getName().equals("source")) {
+            List<Ast> forms = ((Ast.Term) ast).getArgs();
+            int[] children = new int[forms.size()];
+            for (int i = 0; i < forms.size(); i++) {
+                children[i] = intern(forms.get(i)).id;
+            }
+            rule = unique(Kind.SEQUENCE, ast, children);
+        } else {
+            rule = intern(ast);
+        }
+        rules.add(rule);
+        return rules.size() - 1;
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    /**
+     * Returns the number of distinct nodes in the DAG.
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the total number of subterms in all rules, counting duplicates.
+     */
+    public int getTermCount() {
+        return terms;
+    }
+
+    /**
+     * Evaluates every rule with the given input bindings, returning the
+     * results by rule index. A rule which fails has its {@link EvalException}
+     * as its result, as if it had been evaluated on its own.
+     */
+    public Object[] evaluate(Map<String, Object> input) {
+        Scope frame = new Scope(builtins);
+        input.forEach(frame::define);
+        Object[] results = new Object[rules.size()];
+        if (input.keySet().stream().anyMatch(name -> Primitives.FUNCTIONS.containsKey(name) || CONTROL.contains(name))) {
+            //the input shadows a builtin, so nothing can be shared
+            for (int i = 0; i < rules.size(); i++) {
+                results[i] = isolated(rules.get(i).ast, frame);
+            }
+            return results;
+        }
+        Evaluation evaluation = new Evaluation(frame);
+        for (int i = 0; i < rules.size(); i++) {
+            Node rule = rules.get(i);
+            if (rule.kind == Kind.ISOLATED) {
+                results[i] = isolated(rule.ast, frame);
+            } else {
+                try {
+                    results[i] = evaluation.get(rule);
+                } catch (EvalException e) {
+                    results[i] = e;
+                }
+            }
+        }
+        return results;
+    }
+
+    private Object isolated(Ast ast, Scope frame) {
+        Scope caller = interpreter.scope;
+        interpreter.scope = new Scope(frame.snapshot());
+        try {
+            if (ast instanceof Ast.Term && ((Ast.Term) ast).getName().equals("source")) {
+                Object result = Interpreter.VOID;
+                for (Ast form : ((Ast.Term) ast).getArgs()) {
+                    result = interpreter.eval(form);
+                }
+                return result;
+            }
+            return interpreter.eval(ast);
+        } catch (EvalException e) {
+            return e;
+        } finally {
+            interpreter.scope = caller;
+        }
+    }
+
+    private static boolean assigns(Ast ast) {
+        if (ast instanceof Ast.Term) {
+            Ast.Term term = (Ast.Term) ast;
+            if (term.getName().equals("define") || term.getName().equals("set!")) {
+                return true;
+            }
+            for (Ast arg : term.getArgs()) {
+                if (assigns(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the node for the AST, creating it if there is no structurally
+     * identical node yet.
+     */
+    private Node intern(Ast ast) {
+        terms++;
+        if (ast instanceof Ast.NumberLiteral) {
+            BigDecimal value = ((Ast.NumberLiteral) ast).getValue();
+            return node(Arrays.asList(Kind.LITERAL, value), Kind.LITERAL, ast, value, new int[0]);
+        } else if (ast instanceof Ast.StringLiteral) {
+            String value = ((Ast.StringLiteral) ast).getValue();
+            return node(Arrays.asList(Kind.LITERAL, value), Kind.LITERAL, ast, value, new int[0]);
+        } else if (ast instanceof Ast.Identifier) {
+            return node(Arrays.asList(Kind.IDENTIFIER, ((Ast.Identifier) ast).getName()), Kind.IDENTIFIER, ast, null, new int[0]);
+        }
+        Ast.Term term = (Ast.Term) ast;
+        Kind kind = CONTROL.contains(term.getName()) ? Kind.CONTROL
+                : Primitives.FUNCTIONS.containsKey(term.getName()) ? Kind.PRIMITIVE : null;
+        if (kind == null) {
+            return unique(Kind.OPAQUE, ast, new int[0]);
+        }
+        int[] children = new int[term.getArgs().size()];
+        List<Object> key = new ArrayList<>();
+        key.add(kind);
+        key.add(term.getName());
+        for (int i = 0; i < children.length; i++) {
+            children[i] = intern(term.getArgs().get(i)).id;
+            key.add(children[i]);
+        }
+        return node(key, kind, ast, Primitives.FUNCTIONS.get(term.getName()), children);
+    }
+
+    private Node node(List<Object> key, Kind kind, Ast ast, Object value, int[] children) {
+        Node node = table.get(key);
+        if (node == null) {
+            node = new Node(kind, ast, value, children);
+            node.id = nodes.size();
+            nodes.add(node);
+            table.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Creates a node which is never shared.
+     */
+    private Node unique(Kind kind, Ast ast, int[] children) {
+        Node node = new Node(kind, ast, null, children);
+        node.id = nodes.size();
+        nodes.add(node);
+        return node;
+    }
+
+    private enum Kind {
+        LITERAL,
+        IDENTIFIER,
+        PRIMITIVE,
+        CONTROL,
+        OPAQUE,
+        SEQUENCE,
+        ISOLATED
+    }
+
+    private static final class Node {
+
+        private final Kind kind;
+        private final Ast ast;
+        /**
+         * The value of a literal, or the function of a primitive.
+         */
+        private final Object value;
+        private final int[] children;
+        private int id;
+
+        private Node(Kind kind, Ast ast, Object value, int[] children) {
+            this.kind = kind;
+            this.ast = ast;
+            this.value = value;
+            this.children = children;
+        }
+
+    }
+
+    /**
+     * The values of the nodes for one input, computed on demand. A node which
+     * failed keeps its exception, which is rethrown to every rule using it.
+     */
+    private final class Evaluation {
+
+        private final Object[] values = new Object[nodes.size()];
+        private final boolean[] done = new boolean[nodes.size()];
+
+        private Evaluation(Scope frame) {
+            interpreter.scope = frame;
+        }
+
+        private Object get(Node node) {
+            if (node.kind == Kind.LITERAL) {
+                return node.value;
+            } else if (node.kind == Kind.OPAQUE) {
+                return interpreter.eval(node.ast);
+            } else if (node.kind == Kind.SEQUENCE) {
+                Object result = Interpreter.VOID;
+                for (int child : node.children) {
+                    result = get(nodes.get(child));
+                }
+                return result;
+            }
+            if (!done[node.id]) {
+                try {
+                    values[node.id] = compute(node);
+                } catch (EvalException e) {
+                    values[node.id] = e;
+                }
+                done[node.id] = true;
+            }
+            if (values[node.id] instanceof EvalException) {
+                throw (EvalException) values[node.id];
+            }
+            return values[node.id];
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object compute(Node node) {
+            if (node.kind == Kind.IDENTIFIER) {
+                return interpreter.eval(node.ast);
+            } else if (node.kind == Kind.CONTROL) {
+                boolean or = ((Ast.Term) node.ast).getName().equals("or");
+                for (int child : node.children) {
+                    if (Interpreter.requireType(Boolean.class, get(nodes.get(child))) == or) {
+                        return or;
+                    }
+                }
+                return !or;
+            }
+            List<Object> args = new ArrayList<>(node.children.length);
+            for (int child : node.children) {
+                args.add(get(nodes.get(child)));
+            }
+            return ((Function<List<Object>, Object>) node.value).apply(args);
+        }
+
+    }
+
+}
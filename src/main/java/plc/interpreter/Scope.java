@@ -1,7 +1,10 @@
 package plc.interpreter;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
 public final class Scope {
 
@@ -10,6 +13,13 @@ public final class Scope {
 
     public Scope(Scope parent) {
         this.parent = parent;
+        Events.ScopeCreated event = new Events.ScopeCreated();
+        if (event.shouldCommit()) {
+            for (Scope scope = parent; scope != null; scope = scope.parent) {
+                event.depth++;
+            }
+            event.commit();
+        }
     }
 
     public Scope getParent() {
@@ -44,4 +54,63 @@ public final class Scope {
         }
     }
 
+    /**
+     * Looks up the name as {@link #lookup(String)} does, recording how many
+     * parents it went through.
+     */
+    Object lookup(String name, Metrics.Recorder metrics) throws EvalException {
+        Scope scope = this;
+        int depth = 0;
+        while (!scope.map.containsKey(name)) {
+            if (scope.parent == null) {
+                throw new EvalException("The identifier " + name + " is not defined.");
+            }
+            scope = scope.parent;
+            depth++;
+        }
+        metrics.lookedUp(depth);
+        return scope.map.get(name);
+    }
+
+    /**
+     * Returns a copy of this scope and all of its parents. Values are shared,
+     * but bindings are not, so defining or setting a variable in the copy has
+     * no effect on the original (and vice versa).
+     */
+    public Scope snapshot() {
+        return snapshot(new IdentityHashMap<>());
+    }
+
+    /**
+     * Snapshots this scope, recording the copy of each scope in the chain.
+     */
+    Scope snapshot(Map<Scope, Scope> copies) {
+        Scope copy = new Scope(parent != null ? parent.snapshot(copies) : null);
+        copy.map.putAll(map);
+        copies.put(this, copy);
+        return copy;
+    }
+
+    /**
+     * Returns whether the name is defined in this scope, ignoring parents.
+     */
+    boolean contains(String name) {
+        return map.containsKey(name);
+    }
+
+    /**
+     * Binds the name in this scope whether or not it is already defined.
+     */
+    void redefine(String name, Object value) {
+        map.put(name, value);
+    }
+
+    void forEach(BiConsumer<String, Object> action) {
+        map.forEach(action);
+    }
+
+    void replaceAll(UnaryOperator<Object> function) {
+        map.replaceAll((name, value) -> function.apply(value));
+    }
+
 }
\ No newline at end of file
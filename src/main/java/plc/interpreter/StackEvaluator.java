@@ -0,0 +1,563 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Evaluates ASTs like {@link Interpreter#eval(Ast)}, but keeps the pending
+ * work for each nested term in a frame on an array stack instead of in Java
+ * frames, so deeply nested programs (and deep recursion in Whisp functions)
+ * can't overflow the Java stack. The number of frames is limited instead,
+ * and exceeding the limit throws an {@link EvalException}.
+ *
+ * Calls to user functions, the control builtins ({@code do}, {@code if},
+ * {@code and}, {@code or}, {@code while}), variable {@code define} and
+ * {@code set!}, and builtins which simply evaluate all of their arguments are
+ * evaluated on the stack. Other builtins (such as {@code for} and
+ * {@code dosync}) and host functions are passed their argument ASTs as
+ * usual, and evaluate them with the interpreter's recursive eval; a
+ * {@link StackOverflowError} in one of those is also reported as an
+ * {@link EvalException}.
+ *
+ * {@code if} branches are evaluated in place of the {@code if}, so loops
+ * written as tail recursion through an {@code if} don't grow the stack in
+ * the branch, only in the call.
+ *
+ * The evaluator of a generator's body can also suspend at a {@code yield}
+ * evaluated on the stack, leaving its frames in place until it's resumed
+ * (see {@link #suspendable(Interpreter, List)}).
+ */
+public final class StackEvaluator {
+
+    public static final int DEFAULT_DEPTH = 1_000_000;
+
+    /**
+     * The builtins which evaluate each of their arguments once, in order,
+     * before doing anything else, so the arguments can be evaluated on the
+     * stack and passed to them as values.
+     */
+    private static final List<String> STRICT = Arrays.asList(
+            "print", "list", "range", "hash-map", "put!", "contains?", "remove!", "keys",
+            "double-array", "long-array", "aget", "aset!", "alength", "asum", "adot", "amap",
+            "column", "col-append!", "col-get", "col-set!", "col-close!", "col-length",
+            "col-sum", "col-min", "col-max", "col-count-if",
+            "str", "str-append", "substring", "str-length", "str-join", "str-split",
+            "map", "filter", "take", "drop", "partition", "reduce", "into", "count",
+            "memoize", "memo-stats", "await", "all", "cancel!", "chan", "send!", "recv!", "close!", "closed?",
+            "ref", "deref", "stm-stats", "cell", "yield"
+    );
+
+    /**
+     * The primitives which can be applied to the values directly (list and
+     * range results are interned by their builtins).
+     */
+    private static final Map<String, Function<List<Object>, Object>> PRIMITIVES = new HashMap<>(Primitives.FUNCTIONS);
+
+    /**
+     * How each library builtin is evaluated on the stack, if it is.
+     */
+    private static final Map<String, Kind> NATIVE = new HashMap<>();
+
+    /**
+     * The strict builtins which call the functions they're passed, and so
+     * may evaluate a {@code yield} off the stack.
+     */
+    private static final List<String> CALLING = Arrays.asList("map", "filter", "reduce", "amap", "memoize");
+
+    private static final Object PENDING = new Object();
+
+    /**
+     * Returned by {@link #resume(Ast)} when the evaluation suspended at a
+     * {@code yield}.
+     */
+    static final Object SUSPENDED = new Object();
+
+    private enum Kind {
+        START,
+        STRICT,
+        CALL,
+        BODY,
+        MEMOIZE,
+        DO,
+        IF,
+        AND,
+        OR,
+        WHILE,
+        DEFINE,
+        SET
+    }
+
+    static {
+        PRIMITIVES.keySet().removeAll(STRICT);
+        for (String name : Primitives.FUNCTIONS.keySet()) {
+            NATIVE.put(name, Kind.STRICT);
+        }
+        for (String name : STRICT) {
+            NATIVE.put(name, Kind.STRICT);
+        }
+        NATIVE.put("do", Kind.DO);
+        NATIVE.put("if", Kind.IF);
+        NATIVE.put("and", Kind.AND);
+        NATIVE.put("or", Kind.OR);
+        NATIVE.put("while", Kind.WHILE);
+        NATIVE.put("define", Kind.DEFINE);
+        NATIVE.put("set!", Kind.SET);
+    }
+
+    private final Interpreter interpreter;
+    private final int maxDepth;
+    private Frame[] stack = new Frame[64];
+    private int top = -1;
+    private boolean yielding = false;
+    private Object yielded = null;
+
+    public StackEvaluator(Interpreter interpreter) {
+        this(interpreter, DEFAULT_DEPTH);
+    }
+
+    public StackEvaluator(Interpreter interpreter, int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("The maximum depth must be positive.");
+        }
+        this.interpreter = interpreter;
+        this.maxDepth = maxDepth;
+    }
+
+    public Object eval(Ast ast) throws EvalException {
+        if (!interpreter.evaluating) {
+            return interpreter.report(ast, () -> eval(ast));
+        }
+        int base = top;
+        Scope scope = interpreter.scope;
+        try {
+            push(ast, base);
+            return run(PENDING, base);
+        } catch (StackOverflowError e) {
+            throw new EvalException("The Java stack overflowed while evaluating a builtin.");
+        } finally {
+            unwind(base);
+            interpreter.scope = scope;
+        }
+    }
+
+    /**
+     * Returns whether every {@code yield} in a generator's body would be
+     * evaluated on the stack, so its evaluation can suspend there: the body
+     * only uses the control builtins, variable {@code define} and
+     * {@code set!}, and strict builtins which don't call functions.
+     */
+    static boolean suspendable(Interpreter interpreter, List<Ast> body) {
+        if (interpreter.cachesDefinitions()) {
+            return false;
+        }
+        for (Ast ast : body) {
+            if (!suspendable(interpreter, ast)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean suspendable(Interpreter interpreter, Ast ast) {
+        if (!(ast instanceof Ast.Term)) {
+            return true;
+        }
+        Ast.Term term = (Ast.Term) ast;
+        Kind kind = NATIVE.get(term.getName());
+        if (kind == null || CALLING.contains(term.getName())) {
+            return false;
+        }
+        try {
+            if (!interpreter.isLibrary(term.getName(), interpreter.scope.lookup(term.getName()))) {
+                return false;
+            }
+        } catch (EvalException e) {
+            return false;
+        }
+        if ((kind == Kind.DEFINE || kind == Kind.SET) && !(term.getArgs().size() == 2 && term.getArgs().get(0) instanceof Ast.Identifier)) {
+            return false;
+        }
+        for (Ast arg : term.getArgs()) {
+            if (!suspendable(interpreter, arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the ast, or with a null ast resumes the evaluation which
+     * suspended, returning its result or {@link #SUSPENDED} if it suspended
+     * at a {@code yield} (whose value is then {@link #getYielded()}). The
+     * evaluation is unwound if it throws.
+     */
+    Object resume(Ast ast) throws EvalException {
+        yielding = true;
+        interpreter.evaluating = true;
+        try {
+            Object result;
+            if (ast != null) {
+                push(ast, -1);
+                result = run(PENDING, -1);
+            } else {
+                //the yield evaluates to VOID
+                stack[top--].clear();
+                result = top == -1 ? Interpreter.VOID : run(Interpreter.VOID, -1);
+            }
+            if (result != SUSPENDED) {
+                yielded = null;
+            }
+            return result;
+        } catch (StackOverflowError e) {
+            close();
+            throw new EvalException("The Java stack overflowed while evaluating a builtin.");
+        } catch (RuntimeException | Error e) {
+            close();
+            throw e;
+        } finally {
+            interpreter.evaluating = false;
+        }
+    }
+
+    Object getYielded() {
+        return yielded;
+    }
+
+    /**
+     * Discards a suspended evaluation.
+     */
+    void close() {
+        unwind(-1);
+        yielded = null;
+    }
+
+    /**
+     * Steps the frames above the base until the bottom one returns.
+     */
+    private Object run(Object received, int base) {
+        while (true) {
+            Object result = step(stack[top], received, base);
+            if (result == PENDING) {
+                received = PENDING;
+                continue;
+            } else if (result == SUSPENDED) {
+                return result;
+            }
+            stack[top--].clear();
+            if (top == base) {
+                return result;
+            }
+            received = result;
+        }
+    }
+
+    private void unwind(int base) {
+        while (top > base) {
+            stack[top--].clear();
+        }
+    }
+
+    /**
+     * Evaluates the ast within the limits of the budget, as
+     * {@link Interpreter#eval(Ast, Budget)} does.
+     */
+    public Object eval(Ast ast, Budget budget) throws EvalException {
+        return interpreter.within(budget, () -> eval(ast));
+    }
+
+    /**
+     * Advances the frame with the value of its last pushed child (or
+     * {@link #PENDING} if it hasn't pushed one), returning its result or
+     * {@link #PENDING} if it pushed another child.
+     */
+    @SuppressWarnings("unchecked")
+    private Object step(Frame frame, Object received, int base) {
+        switch (frame.kind) {
+            case START: {
+                if (frame.probed != null) {
+                    //an if branch replacing the if
+                    frame.probed.exit(frame.term);
+                    frame.probed = null;
+                }
+                if (!(frame.ast instanceof Ast.Term)) {
+                    return interpreter.eval(frame.ast);
+                }
+                Ast.Term term = (Ast.Term) frame.ast;
+                Probe probe = interpreter.probe;
+                if (probe != null) {
+                    //only exited once it's been entered without throwing
+                    probe.enter(term);
+                    frame.term = term;
+                    frame.probed = probe;
+                }
+                frame.args = term.getArgs();
+                Object function = interpreter.lookup(term.getName());
+                frame.function = function;
+                if (function instanceof Closure || function instanceof Memoized) {
+                    frame.start(Kind.CALL);
+                    return step(frame, PENDING, base);
+                } else if (!interpreter.isLibrary(term.getName(), function)) {
+                    Function<List<Ast>, Object> builtin = Interpreter.requireType(Function.class, function);
+                    return interpreter.invoke(term.getName(), builtin, frame.args);
+                }
+                Kind kind = NATIVE.get(term.getName());
+                switch (kind == null ? Kind.START : kind) {
+                    case DO:
+                        if (frame.args.isEmpty()) {
+                            return Interpreter.VOID;
+                        }
+                        frame.start(Kind.DO);
+                        frame.scope = interpreter.scope;
+                        interpreter.scope = new Scope(interpreter.scope);
+                        return push(frame.args.get(0), base);
+                    case IF:
+                        if (frame.args.size() != 2 && frame.args.size() != 3) throw new EvalException("if requires two or three arguments");
+                        frame.start(Kind.IF);
+                        return push(frame.args.get(0), base);
+                    case AND:
+                    case OR:
+                        if (frame.args.isEmpty()) {
+                            return kind == Kind.AND;
+                        }
+                        frame.start(kind);
+                        return push(frame.args.get(0), base);
+                    case WHILE:
+                        if (frame.args.size() != 2) throw new EvalException("while requires two arguments");
+                        frame.start(Kind.WHILE);
+                        return push(frame.args.get(0), base);
+                    case DEFINE:
+                        if (frame.args.size() == 2 && frame.args.get(0) instanceof Ast.Identifier && !interpreter.cachesDefinitions()) {
+                            frame.start(Kind.DEFINE);
+                            return push(frame.args.get(1), base);
+                        }
+                        break;
+                    case SET:
+                        if (frame.args.size() == 2 && frame.args.get(0) instanceof Ast.Identifier) {
+                            //look up first, so an undefined variable fails before the value is evaluated
+                            interpreter.scope.lookup(((Ast.Identifier) frame.args.get(0)).getName());
+                            frame.start(Kind.SET);
+                            return push(frame.args.get(1), base);
+                        }
+                        break;
+                    case STRICT:
+                        frame.start(Kind.STRICT);
+                        return step(frame, PENDING, base);
+                    default:
+                        break;
+                }
+                return interpreter.invoke(term.getName(), (Function<List<Ast>, Object>) function, frame.args);
+            }
+            case STRICT:
+            case CALL: {
+                if (received != PENDING) {
+                    frame.values[frame.index++] = received;
+                } else if (frame.values == null) {
+                    frame.values = new Object[frame.args.size()];
+                }
+                //literals and identifiers are evaluated in place rather than in frames of their own
+                while (frame.index < frame.values.length) {
+                    Ast arg = frame.args.get(frame.index);
+                    if (arg instanceof Ast.Term) {
+                        return push(arg, base);
+                    }
+                    frame.values[frame.index++] = interpreter.eval(arg);
+                }
+                List<Object> values = Arrays.asList(frame.values);
+                if (yielding && frame.kind == Kind.STRICT && ((Ast.Term) frame.ast).getName().equals("yield")) {
+                    if (values.size() != 1) throw new EvalException("yield requires one argument");
+                    yielded = values.get(0);
+                    return SUSPENDED;
+                }
+                if (frame.kind == Kind.STRICT) {
+                    return applyStrict(((Ast.Term) frame.ast).getName(), frame.function, values);
+                }
+                return apply(frame, frame.function, values, base);
+            }
+            case MEMOIZE:
+                ((MemoCache) frame.cache).put(Arrays.asList(frame.values), received);
+                interpreter.scope = frame.scope;
+                return received;
+            case BODY:
+                interpreter.scope = frame.scope;
+                return received;
+            case DO:
+                if (++frame.index < frame.args.size()) {
+                    return push(frame.args.get(frame.index), base);
+                }
+                interpreter.scope = frame.scope;
+                return received;
+            case IF:
+                if (Interpreter.requireType(Boolean.class, received)) {
+                    frame.restart(frame.args.get(1));
+                } else if (frame.args.size() == 3) {
+                    frame.restart(frame.args.get(2));
+                } else {
+                    return Interpreter.VOID;
+                }
+                return step(frame, PENDING, base);
+            case AND:
+            case OR:
+                if (Interpreter.requireType(Boolean.class, received) == (frame.kind == Kind.OR)) {
+                    return frame.kind == Kind.OR;
+                } else if (++frame.index < frame.args.size()) {
+                    return push(frame.args.get(frame.index), base);
+                }
+                return frame.kind == Kind.AND;
+            case WHILE:
+                //index 0 is waiting for the condition, 1 for the body
+                if (frame.index == 1) {
+                    frame.index = 0;
+                    return push(frame.args.get(0), base);
+                } else if (Interpreter.requireType(Boolean.class, received)) {
+                    interpreter.step();
+                    frame.index = 1;
+                    return push(frame.args.get(1), base);
+                }
+                return Interpreter.VOID;
+            case DEFINE:
+                interpreter.define(((Ast.Identifier) frame.args.get(0)).getName(), received);
+                return Interpreter.VOID;
+            case SET:
+                interpreter.assign(((Ast.Identifier) frame.args.get(0)).getName(), received);
+                return Interpreter.VOID;
+            default:
+                throw new AssertionError(frame.kind);
+        }
+    }
+
+    /**
+     * Calls a user or memoized function with evaluated arguments, pushing
+     * the body of a user function in a new scope.
+     */
+    private Object apply(Frame frame, Object function, List<Object> values, int base) {
+        if (function instanceof Memoized) {
+            MemoCache cache = ((Memoized) function).getCache();
+            Object cached = cache.get(values);
+            if (cached != null) {
+                return cached;
+            }
+            Object inner = ((Memoized) function).getFunction();
+            if (!(inner instanceof Closure)) {
+                Object result = interpreter.call(inner, values);
+                cache.put(values, result);
+                return result;
+            }
+            frame.cache = cache;
+            frame.kind = Kind.MEMOIZE;
+            return enter(frame, (Closure) inner, values, base);
+        }
+        frame.kind = Kind.BODY;
+        return enter(frame, (Closure) function, values, base);
+    }
+
+    /**
+     * Calls a strict builtin with evaluated arguments, recording the call in
+     * the interpreter's metrics if there are any.
+     */
+    private Object applyStrict(String name, Object function, List<Object> values) {
+        Function<List<Object>, Object> primitive = PRIMITIVES.get(name);
+        Events.Builtin event = new Events.Builtin();
+        event.begin();
+        Object result = interpreter.metrics == null
+                ? primitive != null ? primitive.apply(values) : interpreter.call(function, values)
+                : measure(name, primitive, function, values);
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.arguments = values.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    private Object measure(String name, Function<List<Object>, Object> primitive, Object function, List<Object> values) {
+        Metrics.Recorder metrics = interpreter.metrics;
+        int id = Metrics.id(name, function);
+        long start = metrics.started(id);
+        try {
+            Object result = primitive != null ? primitive.apply(values) : interpreter.call(function, values);
+            metrics.created(result);
+            return result;
+        } finally {
+            metrics.finished(id, start);
+        }
+    }
+
+    private Object enter(Frame frame, Closure closure, List<Object> values, int base) {
+        if (values.size() != closure.getParameters().size())
+            throw new EvalException(closure.getName() + " requires " + closure.getParameters().size() + " arguments");
+
+        interpreter.step();
+        if (interpreter.metrics != null) {
+            interpreter.metrics.created(Metrics.Type.SCOPE);
+        }
+        frame.scope = interpreter.scope;
+        interpreter.scope = new Scope(closure.getScope());
+        for (int i = 0; i < values.size(); i++) {
+            interpreter.scope.define(closure.getParameters().get(i), values.get(i));
+        }
+        return push(closure.getBody(), base);
+    }
+
+    private Object push(Ast ast, int base) {
+        if (top - base >= maxDepth) {
+            throw new EvalException("Evaluation exceeded the maximum depth of " + maxDepth + ".");
+        }
+        if (++top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        if (stack[top] == null) {
+            stack[top] = new Frame();
+        }
+        stack[top].restart(ast);
+        return PENDING;
+    }
+
+    /**
+     * The pending evaluation of one AST. Frames are reused as the stack
+     * grows and shrinks.
+     */
+    private static final class Frame {
+
+        private Ast ast;
+        private Kind kind;
+        private List<Ast> args;
+        private Object function;
+        private Object[] values;
+        private int index;
+        private Scope scope;
+        private Object cache;
+        private Ast.Term term;
+        private Probe probed;
+
+        private void restart(Ast ast) {
+            this.ast = ast;
+            this.kind = Kind.START;
+            this.values = null;
+            this.index = 0;
+        }
+
+        private void start(Kind kind) {
+            this.kind = kind;
+            this.index = 0;
+        }
+
+        private void clear() {
+            ast = null;
+            args = null;
+            function = null;
+            values = null;
+            scope = null;
+            cache = null;
+            if (probed != null) {
+                probed.exit(term);
+                probed = null;
+            }
+            term = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Software transactional memory for {@link Ref}s, backing {@code dosync}.
+ *
+ * A transaction reads every ref as of the global clock value when it
+ * started (multi-version concurrency control), buffering its writes. To
+ * commit, it locks only the refs it wrote, in id order, validates that none
+ * of the refs it read or wrote were committed to since it started, and then
+ * installs its writes under a new clock value. If validation fails the body
+ * is evaluated again from the start.
+ *
+ * Readers never wait: {@code deref} outside a transaction just reads the
+ * latest version, and a transaction that finds a ref mid-commit retries
+ * instead of blocking. Since locks are per ref, transactions touching
+ * different refs commit in parallel.
+ */
+public final class Transaction {
+
+    private static final AtomicLong CLOCK = new AtomicLong();
+    private static final ThreadLocal<Transaction> CURRENT = new ThreadLocal<>();
+    private static final LongAdder COMMITS = new LongAdder();
+    private static final LongAdder RETRIES = new LongAdder();
+    private static final RuntimeException RETRY = new RuntimeException("retry", null, false, false) {};
+
+    private final long readPoint;
+    private final Set<Ref> reads = new HashSet<>();
+    private final Map<Ref, Object> writes = new IdentityHashMap<>();
+
+    private Transaction(long readPoint) {
+        this.readPoint = readPoint;
+    }
+
+    /**
+     * Evaluates the body in a transaction, retrying until it commits. If a
+     * transaction is already running on this thread the body joins it, so
+     * nested {@code dosync}s commit together.
+     *
+     * Note the body may be evaluated more than once, so it should not have
+     * side effects other than {@code alter!}.
+     */
+    public static Object run(Supplier<Object> body) throws EvalException {
+        if (CURRENT.get() != null) {
+            return body.get();
+        }
+        for (int attempt = 0; ; attempt++) {
+            Transaction transaction = new Transaction(CLOCK.get());
+            CURRENT.set(transaction);
+            try {
+                Object result = body.get();
+                if (transaction.commit()) {
+                    COMMITS.increment();
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (e != RETRY) {
+                    throw e;
+                }
+            } finally {
+                CURRENT.remove();
+            }
+            RETRIES.increment();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new EvalException("Interrupted while retrying a transaction.");
+            } else if (attempt > 10) {
+                LockSupport.parkNanos(1000L << Math.min(attempt - 10, 10));
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the ref as seen by the current transaction, or the
+     * latest committed value if there is none.
+     */
+    public static Object read(Ref ref) {
+        Transaction transaction = CURRENT.get();
+        return transaction != null ? transaction.get(ref) : ref.get();
+    }
+
+    /**
+     * Sets the value of the ref in the current transaction.
+     */
+    public static void write(Ref ref, Object value) throws EvalException {
+        Transaction transaction = CURRENT.get();
+        if (transaction == null) {
+            throw new EvalException("Refs can only be altered inside dosync.");
+        }
+        transaction.writes.put(ref, value);
+    }
+
+    /**
+     * Returns the number of committed transactions.
+     */
+    public static long getCommits() {
+        return COMMITS.sum();
+    }
+
+    /**
+     * Returns the number of times a transaction body had to be evaluated
+     * again because of a conflict.
+     */
+    public static long getRetries() {
+        return RETRIES.sum();
+    }
+
+    public static void resetStatistics() {
+        COMMITS.reset();
+        RETRIES.reset();
+    }
+
+    private Object get(Ref ref) {
+        if (writes.containsKey(ref)) {
+            return writes.get(ref);
+        }
+        //a locked ref may be installing a version this transaction should see
+        if (ref.locked.get()) {
+            throw RETRY;
+        }
+        Ref.Version version = ref.at(readPoint);
+        if (version == null) {
+            throw RETRY;
+        }
+        reads.add(ref);
+        return version.value;
+    }
+
+    private boolean commit() {
+        if (writes.isEmpty()) {
+            return true;
+        }
+        List<Ref> locked = new ArrayList<>(writes.keySet());
+        locked.sort(Comparator.comparingLong(ref -> ref.id));
+        int acquired = 0;
+        try {
+            for (Ref ref : locked) {
+                if (!ref.locked.compareAndSet(false, true)) {
+                    return false;
+                }
+                acquired++;
+            }
+            for (Ref ref : locked) {
+                if (ref.latest().point > readPoint) {
+                    return false;
+                }
+            }
+            for (Ref ref : reads) {
+                if (!writes.containsKey(ref) && (ref.locked.get() || ref.latest().point > readPoint)) {
+                    return false;
+                }
+            }
+            long point = CLOCK.incrementAndGet();
+            for (Ref ref : locked) {
+                ref.install(writes.get(ref), point);
+            }
+            return true;
+        } finally {
+            for (int i = 0; i < acquired; i++) {
+                locked.get(i).locked.set(false);
+            }
+        }
+    }
+
+}
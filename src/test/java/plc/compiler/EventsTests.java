@@ -0,0 +1,72 @@
+package plc.compiler;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+final class EventsTests {
+
+    private static final String SOURCE = "LET x : INTEGER = 1;\nLET y : INTEGER = 2;";
+
+    @Test
+    void testLex() throws Exception {
+        RecordedEvent event = record("plc.compiler.Lex");
+        Assertions.assertEquals(SOURCE.length(), event.getInt("characters"));
+        Assertions.assertEquals(14, event.getInt("tokens"));
+        Assertions.assertEquals(Arrays.asList("PLC", "Compiler"), event.getEventType().getCategoryNames());
+    }
+
+    @Test
+    void testParse() throws Exception {
+        RecordedEvent event = record("plc.compiler.Parse");
+        Assertions.assertEquals(14, event.getInt("tokens"));
+        Assertions.assertEquals(2, event.getInt("statements"));
+    }
+
+    @Test
+    void testAnalyze() throws Exception {
+        Assertions.assertEquals(2, record("plc.compiler.Analyze").getInt("statements"));
+    }
+
+    @Test
+    void testGenerate() throws Exception {
+        Assertions.assertEquals(2, record("plc.compiler.Generate").getInt("statements"));
+    }
+
+    /**
+     * Compiles the source with only the named event enabled, returning the
+     * one event it emitted.
+     */
+    private static RecordedEvent record(String name) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable(name);
+            recording.start();
+            Ast ast = new Analyzer(new Scope(null)).visit((Ast.Source) Parser.parse(Lexer.lex(SOURCE)));
+            new Generator(new PrintWriter(new StringWriter())).visit(ast);
+            recording.stop();
+            Path file = Files.createTempFile("events", ".jfr");
+            try {
+                recording.dump(file);
+                List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                        .filter(event -> event.getEventType().getName().startsWith("plc."))
+                        .collect(Collectors.toList());
+                Assertions.assertEquals(1, events.size());
+                Assertions.assertEquals(name, events.get(0).getEventType().getName());
+                return events.get(0);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+}
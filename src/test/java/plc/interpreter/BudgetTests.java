@@ -0,0 +1,97 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+final class BudgetTests {
+
+    @Test
+    void testUsage() {
+        Budget budget = new Budget(Budget.UNLIMITED, Budget.UNLIMITED, TimeUnit.SECONDS, Budget.UNLIMITED);
+        eval("(define i 0) (define (inc x) (+ x 1)) (while (< i 10) (set! i (inc i)))", budget, false);
+        //ten iterations, each calling inc
+        Assertions.assertEquals(20, budget.getSteps());
+        Assertions.assertTrue(budget.getElapsed(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    void testSteps() {
+        Budget budget = new Budget(10_000, Budget.UNLIMITED, TimeUnit.SECONDS, Budget.UNLIMITED);
+        ResourceLimitException exception = Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(while true 1)", budget, false));
+        Assertions.assertEquals(Budget.Resource.STEPS, exception.getResource());
+        Assertions.assertEquals(10_001, budget.getSteps());
+    }
+
+    @Test
+    void testTime() {
+        Budget budget = new Budget(Budget.UNLIMITED, 50, TimeUnit.MILLISECONDS, Budget.UNLIMITED);
+        ResourceLimitException exception = Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(while true 1)", budget, false));
+        Assertions.assertEquals(Budget.Resource.TIME, exception.getResource());
+        Assertions.assertTrue(budget.getElapsed(TimeUnit.MILLISECONDS) >= 50);
+    }
+
+    @Test
+    void testBytes() {
+        Budget budget = new Budget(Budget.UNLIMITED, Budget.UNLIMITED, TimeUnit.SECONDS, 1 << 20);
+        ResourceLimitException exception = Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(while true (list 1 2 3))", budget, false));
+        Assertions.assertEquals(Budget.Resource.BYTES, exception.getResource());
+        Assertions.assertTrue(budget.getAllocatedBytes() > 1 << 20);
+    }
+
+    @Test
+    void testBuiltins() {
+        Budget time = new Budget(Budget.UNLIMITED, 50, TimeUnit.MILLISECONDS, Budget.UNLIMITED);
+        Assertions.assertEquals(Budget.Resource.TIME, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(do (define xs (range 0 3000000)) 1)", time, false)).getResource());
+        Budget bytes = new Budget(Budget.UNLIMITED, Budget.UNLIMITED, TimeUnit.SECONDS, 1 << 20);
+        Assertions.assertEquals(Budget.Resource.BYTES, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(do (define xs (range 0 3000000)) 1)", bytes, false)).getResource());
+        Assertions.assertEquals(Budget.Resource.BYTES, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(double-array 1000000)", bytes, false)).getResource());
+        Budget steps = new Budget(10_000, Budget.UNLIMITED, TimeUnit.SECONDS, Budget.UNLIMITED);
+        Assertions.assertEquals(Budget.Resource.STEPS, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(count (long-array 20000))", steps, false)).getResource());
+    }
+
+    @Test
+    void testBlocking() {
+        Budget budget = new Budget(Budget.UNLIMITED, 50, TimeUnit.MILLISECONDS, Budget.UNLIMITED);
+        Assertions.assertEquals(Budget.Resource.TIME, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(recv! (chan))", budget, false)).getResource());
+        Assertions.assertEquals(Budget.Resource.TIME, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(do (define c (chan)) (send! c 1) (send! c 2))", budget, false)).getResource());
+        Assertions.assertEquals(Budget.Resource.TIME, Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(await (async (recv! (chan))))", budget, false)).getResource());
+    }
+
+    @Test
+    void testTask() {
+        Budget budget = new Budget(10_000, Budget.UNLIMITED, TimeUnit.SECONDS, Budget.UNLIMITED);
+        Assertions.assertThrows(ResourceLimitException.class, () -> eval("(await (async (while true 1)))", budget, false));
+    }
+
+    @Test
+    void testStackEvaluator() {
+        Budget budget = new Budget(10_000, Budget.UNLIMITED, TimeUnit.SECONDS, Budget.UNLIMITED);
+        Assertions.assertThrows(ResourceLimitException.class,
+                () -> eval("(define (loop n) (loop (+ n 1))) (loop 0)", budget, true));
+    }
+
+    private static Object eval(String source, Budget budget, boolean stack) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            result = stack ? evaluator.eval(form, budget) : interpreter.eval(form, budget);
+        }
+        return result;
+    }
+
+}
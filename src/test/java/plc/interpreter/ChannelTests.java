@@ -0,0 +1,78 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ChannelTests {
+
+    @Test
+    void testCloseWakesReceiver() throws Exception {
+        Channel channel = new Channel(1);
+        Object[] received = new Object[1];
+        Thread receiver = new Thread(() -> received[0] = channel.receive());
+        receiver.start();
+        while (receiver.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        channel.close();
+        receiver.join();
+        Assertions.assertEquals(Interpreter.VOID, received[0]);
+    }
+
+    @Test
+    void testCloseRacingSends() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            Channel channel = new Channel(1000);
+            AtomicInteger sent = new AtomicInteger();
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        channel.send(i);
+                        sent.incrementAndGet();
+                    }
+                } catch (EvalException ignored) {
+                    //closed
+                }
+            });
+            sender.start();
+            channel.close();
+            sender.join();
+            //every send which returned is received after the close
+            int received = 0;
+            while (channel.receive() != Interpreter.VOID) {
+                received++;
+            }
+            Assertions.assertEquals(sent.get(), received);
+            Assertions.assertTrue(channel.isClosed());
+        }
+    }
+
+    @Test
+    void testBlockedSenders() throws Exception {
+        Channel channel = new Channel(1);
+        Thread[] senders = new Thread[4];
+        for (int s = 0; s < senders.length; s++) {
+            senders[s] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    channel.send(1);
+                }
+            });
+            senders[s].start();
+        }
+        //every sender is woken as space frees up, even while the others wait
+        int received = 0;
+        while (received < 4000) {
+            Assertions.assertEquals(1, channel.receive(10_000_000_000L));
+            received++;
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        Assertions.assertNull(channel.receive(0));
+        channel.close();
+        Assertions.assertEquals(Interpreter.VOID, channel.receive());
+    }
+
+}
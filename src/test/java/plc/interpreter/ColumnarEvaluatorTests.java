@@ -0,0 +1,102 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+final class ColumnarEvaluatorTests {
+
+    private static final double[] PRICE = {1.5, 2, 10, 0.25};
+    private static final long[] QTY = {4, 0, 3, 100};
+
+    @ParameterizedTest
+    @MethodSource
+    void testEval(String test, String source, Object expected) {
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(4).bind("price", PRICE).bind("qty", QTY);
+        Ast ast = ((Ast.Term) Parser.parse(source)).getArgs().get(0);
+        if (expected instanceof double[]) {
+            Assertions.assertArrayEquals((double[]) expected, (double[]) evaluator.eval(ast));
+        } else if (expected instanceof boolean[]) {
+            Assertions.assertArrayEquals((boolean[]) expected, (boolean[]) evaluator.eval(ast));
+        } else {
+            Assertions.assertThrows(EvalException.class, () -> evaluator.eval(ast));
+        }
+    }
+
+    private static Stream<Arguments> testEval() {
+        return Stream.of(
+                Arguments.of("Multiply", "(* price qty)", new double[] {6, 0, 30, 25}),
+                Arguments.of("Negate", "(- price)", new double[] {-1.5, -2, -10, -0.25}),
+                Arguments.of("Constant", "(+ 1 2)", new double[] {3, 3, 3, 3}),
+                Arguments.of("Compare", "(< 1 price qty)", new boolean[] {true, false, false, false}),
+                Arguments.of("Mask", "(or (not (> qty 0)) (>= price 10))", new boolean[] {false, true, true, false}),
+                Arguments.of("Fallback", "(equals? qty 0)", new boolean[] {false, true, false, false}),
+                Arguments.of("Type Error", "(and price)", null),
+                Arguments.of("Undefined", "(+ price other)", null)
+        );
+    }
+
+    @Test
+    void testBindAfterFallback() {
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(4).bind("qty", QTY);
+        Ast ast = ((Ast.Term) Parser.parse("(if (> qty 2) qty 0)")).getArgs().get(0);
+        Assertions.assertArrayEquals(new double[] {4, 0, 3, 100}, (double[]) evaluator.eval(ast));
+        //a column bound after the fallback built its row scope is still seen
+        evaluator.bind("bonus", new double[] {1, 2, 3, 4});
+        Ast bonus = ((Ast.Term) Parser.parse("(if (> qty 2) bonus 0)")).getArgs().get(0);
+        Assertions.assertArrayEquals(new double[] {1, 0, 3, 4}, (double[]) evaluator.eval(bonus));
+    }
+
+    @Test
+    void testHostFallback() {
+        Scope scope = new Scope(null);
+        scope.define("half", (Function<List<Ast>, Object>) args -> new BigDecimal("0.5"));
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(4, scope).bind("qty", QTY);
+        Ast ast = ((Ast.Term) Parser.parse("(* qty (half))")).getArgs().get(0);
+        Assertions.assertArrayEquals(new double[] {2, 0, 1.5, 50}, (double[]) evaluator.eval(ast));
+    }
+
+    @Test
+    void testHostShadowsBuiltins() {
+        Scope scope = new Scope(null);
+        scope.define("+", (Function<List<Ast>, Object>) args -> BigDecimal.valueOf(7));
+        scope.define("true", false);
+        scope.define("rate", BigDecimal.valueOf(2));
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(4, scope).bind("qty", QTY);
+        Assertions.assertArrayEquals(new double[] {7, 7, 7, 7},
+                (double[]) evaluator.eval(((Ast.Term) Parser.parse("(+ qty 1)")).getArgs().get(0)));
+        Assertions.assertArrayEquals(new boolean[] {false, false, false, false},
+                (boolean[]) evaluator.eval(((Ast.Term) Parser.parse("(and (> qty 0) true)")).getArgs().get(0)));
+        Assertions.assertArrayEquals(new double[] {8, 0, 6, 200},
+                (double[]) evaluator.eval(((Ast.Term) Parser.parse("(* qty rate)")).getArgs().get(0)));
+    }
+
+    @Test
+    void testShortCircuit() {
+        int[] calls = new int[1];
+        Scope scope = new Scope(null);
+        scope.define("check", (Function<List<Ast>, Object>) args -> {
+            calls[0]++;
+            return true;
+        });
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(4, scope).bind("qty", QTY);
+        //only the rows the first operand doesn't decide call check
+        Assertions.assertArrayEquals(new boolean[] {true, false, true, true},
+                (boolean[]) evaluator.eval(((Ast.Term) Parser.parse("(and (> qty 0) (check))")).getArgs().get(0)));
+        Assertions.assertEquals(3, calls[0]);
+        Assertions.assertArrayEquals(new boolean[] {true, true, true, true},
+                (boolean[]) evaluator.eval(((Ast.Term) Parser.parse("(or (> qty 3) (check))")).getArgs().get(0)));
+        Assertions.assertEquals(5, calls[0]);
+        Assertions.assertArrayEquals(new boolean[] {false, false, false, false},
+                (boolean[]) evaluator.eval(((Ast.Term) Parser.parse("(and (> qty 1000) (check))")).getArgs().get(0)));
+        Assertions.assertEquals(5, calls[0]);
+    }
+
+}
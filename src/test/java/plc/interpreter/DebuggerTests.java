@@ -0,0 +1,197 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+final class DebuggerTests {
+
+    //(+ x 1) is at 14, (f 1) at 23 and (f 2) at 29
+    private static final String SOURCE = "(define (f x) (+ x 1)) (f 1) (f 2)";
+
+    @Test
+    void testBreakpoint() {
+        List<Object> values = new ArrayList<>();
+        Debugger debugger = new Debugger(suspension -> {
+            values.add(suspension.lookup("x"));
+            return Debugger.Action.CONTINUE;
+        });
+        Ast source = Parser.parse(SOURCE);
+        Debugger.Breakpoint breakpoint = debugger.setBreakpoint(source, 14);
+        Interpreter interpreter = interpreter();
+        debugger.attach(interpreter);
+        evalAll(interpreter, source, false);
+        Assertions.assertEquals(Arrays.asList(BigDecimal.ONE, BigDecimal.valueOf(2)), values);
+        Assertions.assertEquals(2, breakpoint.getHits());
+    }
+
+    @Test
+    void testCondition() {
+        List<Object> values = new ArrayList<>();
+        Debugger debugger = new Debugger(suspension -> {
+            values.add(suspension.eval("(+ x 10)"));
+            return Debugger.Action.CONTINUE;
+        });
+        Ast source = Parser.parse(SOURCE);
+        debugger.setBreakpoint(source, 14, "(equals? x 2)");
+        Interpreter interpreter = interpreter();
+        debugger.attach(interpreter);
+        evalAll(interpreter, source, false);
+        Assertions.assertEquals(Collections.singletonList(BigDecimal.valueOf(12)), values);
+        Assertions.assertThrows(ParseException.class, () -> debugger.setBreakpoint(source, 14, "x x"));
+    }
+
+    @Test
+    void testConditionError() {
+        List<RuntimeException> errors = new ArrayList<>();
+        Debugger debugger = new Debugger(suspension -> {
+            errors.add(suspension.getConditionError());
+            return Debugger.Action.CONTINUE;
+        });
+        Ast source = Parser.parse(SOURCE);
+        debugger.setBreakpoint(source, 14, "(undefined x)");
+        Interpreter interpreter = interpreter();
+        debugger.attach(interpreter);
+        evalAll(interpreter, source, false);
+        Assertions.assertEquals(2, errors.size());
+        Assertions.assertTrue(errors.get(0) instanceof EvalException);
+    }
+
+    @Test
+    void testOtherSource() {
+        Debugger debugger = new Debugger(suspension -> Debugger.Action.CONTINUE);
+        Ast source = Parser.parse(SOURCE);
+        Debugger.Breakpoint breakpoint = debugger.setBreakpoint(source, 14);
+        //the same text parsed again, and a closure with a term at 14
+        for (Ast other : Arrays.asList(Parser.parse(SOURCE), Parser.parse("(define (g y) (* y 3)) (g 1)"), source)) {
+            Interpreter interpreter = interpreter();
+            debugger.attach(interpreter);
+            evalAll(interpreter, other, true);
+        }
+        Assertions.assertEquals(2, breakpoint.getHits());
+        debugger.removeBreakpoint(breakpoint);
+        Assertions.assertTrue(debugger.getBreakpoints().isEmpty());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> debugger.setBreakpoint(source, 15));
+    }
+
+    @Test
+    void testHandlerThrows() {
+        for (boolean stack : new boolean[] {false, true}) {
+            Counting counting = new Counting();
+            Debugger debugger = new Debugger(suspension -> {
+                throw new EvalException("stopped");
+            });
+            Ast source = Parser.parse(SOURCE);
+            debugger.setBreakpoint(source, 14);
+            Interpreter interpreter = interpreter();
+            Probe.insert(interpreter, counting);
+            debugger.attach(interpreter);
+            Assertions.assertThrows(EvalException.class, () -> evalAll(interpreter, source, stack));
+            //the probe inserted first is exited again when the debugger throws
+            Assertions.assertEquals(counting.entered, counting.exited);
+        }
+    }
+
+    @Test
+    void testStepInto() {
+        Assertions.assertEquals(Arrays.asList(23, 14, 29, 14), step(Debugger.Action.STEP_INTO, false));
+    }
+
+    @Test
+    void testStepOver() {
+        Assertions.assertEquals(Arrays.asList(23, 29), step(Debugger.Action.STEP_OVER, false));
+    }
+
+    @Test
+    void testStackEvaluator() {
+        Assertions.assertEquals(Arrays.asList(23, 14, 29, 14), step(Debugger.Action.STEP_INTO, true));
+        Assertions.assertEquals(Arrays.asList(23, 29), step(Debugger.Action.STEP_OVER, true));
+    }
+
+    @Test
+    void testDetach() {
+        List<Object> values = new ArrayList<>();
+        Debugger debugger = new Debugger(suspension -> {
+            values.add(suspension.getTerm());
+            return Debugger.Action.CONTINUE;
+        });
+        Ast source = Parser.parse(SOURCE);
+        debugger.setBreakpoint(source, 14);
+        Interpreter interpreter = interpreter();
+        Profiler profiler = new Profiler();
+        profiler.attach(interpreter);
+        debugger.attach(interpreter);
+        Assertions.assertThrows(IllegalStateException.class, () -> debugger.attach(interpreter));
+        debugger.detach(interpreter);
+        evalAll(interpreter, source, false);
+        Assertions.assertTrue(values.isEmpty());
+        profiler.detach(interpreter);
+        Assertions.assertNull(interpreter.probe);
+    }
+
+    /**
+     * Returns the offsets of the terms the interpreter suspends at after
+     * being suspended before the calls to f.
+     */
+    private static List<Integer> step(Debugger.Action action, boolean stack) {
+        List<Integer> offsets = new ArrayList<>();
+        Debugger debugger = new Debugger(suspension -> {
+            offsets.add(suspension.getTerm().getOffset());
+            return action;
+        });
+        Interpreter interpreter = interpreter();
+        List<Ast> forms = ((Ast.Term) Parser.parse(SOURCE)).getArgs();
+        interpreter.eval(forms.get(0));
+        debugger.attach(interpreter);
+        debugger.suspend(interpreter);
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        for (Ast form : forms.subList(1, forms.size())) {
+            if (stack) {
+                evaluator.eval(form);
+            } else {
+                interpreter.eval(form);
+            }
+        }
+        return offsets;
+    }
+
+    private static final class Counting extends Probe {
+
+        private int entered = 0;
+        private int exited = 0;
+
+        @Override
+        void enter(Ast.Term term) {
+            entered++;
+        }
+
+        @Override
+        void exit(Ast.Term term) {
+            exited++;
+        }
+
+    }
+
+    private static Interpreter interpreter() {
+        return new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+    }
+
+    private static void evalAll(Interpreter interpreter, Ast source, boolean stack) {
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        for (Ast form : ((Ast.Term) source).getArgs()) {
+            if (stack) {
+                evaluator.eval(form);
+            } else {
+                interpreter.eval(form);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package plc.interpreter;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+final class EventsTests {
+
+    private static final String SOURCE = "(define (f x) (+ x 1)) (f 1) (f 2)";
+
+    @Test
+    void testEval() throws Exception {
+        List<RecordedEvent> events = record("plc.interpreter.Eval", false);
+        //only the three top-level forms, not the terms inside them
+        Assertions.assertEquals(3, events.size());
+        Assertions.assertEquals("f", events.get(1).getString("term"));
+        Assertions.assertEquals(23, events.get(1).getInt("offset"));
+    }
+
+    @Test
+    void testStackEvaluator() throws Exception {
+        Assertions.assertEquals(3, record("plc.interpreter.Eval", true).size());
+    }
+
+    @Test
+    void testScopeCreated() throws Exception {
+        List<RecordedEvent> events = record("plc.interpreter.ScopeCreated", false);
+        //the global scope, then a scope for each call
+        Assertions.assertEquals(3, events.size());
+        Assertions.assertEquals(0, events.get(0).getInt("depth"));
+        Assertions.assertEquals(1, events.get(1).getInt("depth"));
+    }
+
+    @Test
+    void testDisabled() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.start();
+            eval(SOURCE, false);
+            recording.stop();
+            Path file = Files.createTempFile("events", ".jfr");
+            try {
+                recording.dump(file);
+                Assertions.assertTrue(RecordingFile.readAllEvents(file).stream()
+                        .noneMatch(event -> event.getEventType().getName().startsWith("plc.")));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static List<RecordedEvent> record(String name, boolean stack) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable(name);
+            recording.start();
+            eval(SOURCE, stack);
+            recording.stop();
+            Path file = Files.createTempFile("events", ".jfr");
+            try {
+                recording.dump(file);
+                return RecordingFile.readAllEvents(file).stream()
+                        .filter(event -> event.getEventType().getName().equals(name))
+                        .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                        .collect(Collectors.toList());
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void eval(String source, boolean stack) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            if (stack) {
+                evaluator.eval(form);
+            } else {
+                interpreter.eval(form);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+final class GeneratorTests {
+
+    private static final String NATURALS = "(define naturals (generator (define n 0) (while true (do (yield n) (set! n (+ n 1))))))";
+
+    @Test
+    void testYield() {
+        Assertions.assertEquals(Arrays.asList(BigDecimal.ZERO, BigDecimal.ONE, BigDecimal.valueOf(2)),
+                eval(NATURALS + "(into (list) (take 3 naturals))", new int[1]));
+    }
+
+    @Test
+    void testReiterate() {
+        Assertions.assertEquals(BigDecimal.valueOf(12),
+                eval(NATURALS + "(+ (reduce + 0 (take 4 naturals)) (reduce + 0 (take 4 naturals)))", new int[1]));
+    }
+
+    @Test
+    void testYieldFromFunction() {
+        Assertions.assertEquals(Arrays.asList("a", "b"),
+                eval("(define (emit x) (yield x)) (into (list) (generator (emit \"a\") (emit \"b\")))", new int[1]));
+    }
+
+    @Test
+    void testOnDemand() {
+        //the body only runs as far as the consumer has asked
+        int[] ticks = new int[1];
+        eval("(define g (generator (while true (do (tick) (yield 1)))))(count (take 5 g))", ticks);
+        Assertions.assertEquals(5, ticks[0]);
+    }
+
+    @Test
+    void testFailure() {
+        Assertions.assertThrows(EvalException.class, () -> eval("(count (generator (yield 1) (undefined)))", new int[1]));
+    }
+
+    @Test
+    void testYieldOutsideGenerator() {
+        Assertions.assertThrows(EvalException.class, () -> eval("(yield 1)", new int[1]));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testClose() throws Exception {
+        Generator generator = (Generator) eval(NATURALS + "naturals", new int[1]);
+        Iterator<Object> iterator = generator.iterator();
+        Assertions.assertEquals(BigDecimal.ZERO, iterator.next());
+        ((AutoCloseable) iterator).close();
+        Assertions.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    void testSuspended() {
+        //a body which only yields on the stack suspends on the consumer's thread
+        Generator generator = (Generator) eval(NATURALS + "naturals", new int[1]);
+        Assertions.assertTrue(generator.iterator() instanceof Generator.Suspended);
+        Generator function = (Generator) eval("(define (emit x) (yield x)) (generator (emit 1))", new int[1]);
+        Assertions.assertTrue(function.iterator() instanceof Generator.Run);
+        Assertions.assertThrows(EvalException.class, () -> eval("(count (generator (yield 1) (if 1 2)))", new int[1]));
+    }
+
+    @Test
+    void testError() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.scope.define("fail", (Function<List<Ast>, Object>) args -> {
+            throw new AssertionError("failed");
+        });
+        Ast source = ((Ast.Term) Parser.parse("(count (generator (yield 1) (fail)))")).getArgs().get(0);
+        Assertions.assertThrows(AssertionError.class, () -> interpreter.eval(source));
+    }
+
+    @Test
+    void testAbandoned() throws InterruptedException {
+        int running = Generator.getRunning();
+        Generator generator = (Generator) eval("(define (emit x) (yield x)) (generator (while true (emit 1)))", new int[1]);
+        Iterator<Object> iterator = generator.iterator();
+        Assertions.assertEquals(BigDecimal.ONE, iterator.next());
+        Assertions.assertEquals(running + 1, Generator.getRunning());
+        iterator = null;
+        for (int i = 0; i < 100 && Generator.getRunning() > running; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(running, Generator.getRunning());
+    }
+
+    private static Object eval(String source, int[] ticks) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.scope.define("tick", (Function<List<Ast>, Object>) args -> {
+            ticks[0]++;
+            return Interpreter.VOID;
+        });
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        return result;
+    }
+
+}
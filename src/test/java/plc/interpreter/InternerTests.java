@@ -0,0 +1,107 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+final class InternerTests {
+
+    @Test
+    void testAstHashCode() {
+        Ast first = Parser.parse("(define x (+ 1 (* 2 y) \"z\"))");
+        Ast second = Parser.parse("(define x (+ 1 (* 2 y) \"z\"))");
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(first.hashCode(), second.hashCode());
+        Set<Ast> set = new HashSet<>(Arrays.asList(first, second, Parser.parse("(define x (+ 1 (* 2 y)))")));
+        Assertions.assertEquals(2, set.size());
+    }
+
+    @Test
+    void testInternAst() {
+        Interner interner = new Interner();
+        Ast.Term first = (Ast.Term) interner.intern(Parser.parse("(+ (* a b) (* a b))"));
+        Ast.Term second = (Ast.Term) interner.intern(Parser.parse("(- (* a b))"));
+        Ast.Term sum = (Ast.Term) first.getArgs().get(0);
+        Ast.Term left = (Ast.Term) sum.getArgs().get(0);
+        Ast.Term right = (Ast.Term) sum.getArgs().get(1);
+        //equal terms at other offsets keep their own, sharing their arguments
+        Assertions.assertEquals(left, right);
+        Assertions.assertNotSame(left, right);
+        Assertions.assertEquals(3, left.getOffset());
+        Assertions.assertEquals(11, right.getOffset());
+        Assertions.assertSame(left.getArgs().get(0), right.getArgs().get(0));
+        Assertions.assertSame(left, ((Ast.Term) second.getArgs().get(0)).getArgs().get(0));
+    }
+
+    @Test
+    void testInternList() {
+        Interner interner = new Interner();
+        Object first = interner.intern(list(BigDecimal.ONE, list("a", "b")));
+        Object second = interner.intern(list(BigDecimal.ONE, list("a", "b")));
+        Object third = interner.intern(list(BigDecimal.ONE, list("a", "c")));
+        Assertions.assertSame(first, second);
+        Assertions.assertNotEquals(first, third);
+        Assertions.assertSame(((List<?>) first).get(0), ((List<?>) third).get(0));
+        //structural equality still holds against lists which aren't interned
+        Assertions.assertEquals(list(BigDecimal.ONE, list("a", "b")), first);
+        Assertions.assertEquals(first, list(BigDecimal.ONE, list("a", "b")));
+    }
+
+    @Test
+    void testModifiedListRehashes() {
+        HashedList list = new HashedList(Arrays.asList("a", "b"));
+        int hash = list.hashCode();
+        list.add("c");
+        Assertions.assertNotEquals(hash, list.hashCode());
+        Assertions.assertEquals(Arrays.asList("a", "b", "c").hashCode(), list.hashCode());
+    }
+
+    @Test
+    void testReplacedElementRehashes() {
+        HashedList list = new HashedList(Arrays.asList("a", "b"));
+        int hash = list.hashCode();
+        list.set(1, "c");
+        Assertions.assertEquals(Arrays.asList("a", "c").hashCode(), list.hashCode());
+        ListIterator<Object> iterator = list.listIterator();
+        iterator.next();
+        iterator.set("d");
+        Assertions.assertEquals(Arrays.asList("d", "c").hashCode(), list.hashCode());
+        list.replaceAll(element -> "e");
+        Assertions.assertEquals(Arrays.asList("e", "e").hashCode(), list.hashCode());
+        Assertions.assertNotEquals(hash, list.hashCode());
+        //a nested list can change without the outer one knowing
+        HashedList inner = new HashedList(Arrays.asList("a"));
+        HashedList outer = new HashedList(Arrays.asList(inner));
+        outer.hashCode();
+        inner.set(0, "b");
+        Assertions.assertEquals(Arrays.asList(Arrays.asList("b")).hashCode(), outer.hashCode());
+        Assertions.assertEquals(outer, Arrays.asList(Arrays.asList("b")));
+    }
+
+    @Test
+    void testInterpreterHashConsing() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.setInterner(new Interner());
+        Ast.Term source = (Ast.Term) Parser.parse("(define a (list 1 (range 0 3))) (define b (list 1 (range 0 3))) (equals? a b)");
+        Object result = null;
+        for (Ast form : source.getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(true, result);
+        Assertions.assertSame(interpreter.scope.lookup("a"), interpreter.scope.lookup("b"));
+    }
+
+    private static LinkedList<Object> list(Object... elements) {
+        return new LinkedList<>(Arrays.asList(elements));
+    }
+
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.params.provider.MethodSource;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 final class InterpreterTests {
@@ -612,7 +613,503 @@ final class InterpreterTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testAsync(String test, Ast ast, Object expected, Map<String, Object> map) {
+        test(ast, expected, map);
+    }
+
+    private static Stream<Arguments> testAsync() {
+        return Stream.of(
+                Arguments.of("Zero Arguments", new Ast.Term("async", Arrays.asList()), null, Collections.emptyMap()),
+                Arguments.of("Await", new Ast.Term("await", Arrays.asList(
+                        new Ast.Term("async", Arrays.asList(
+                                new Ast.Term("+", Arrays.asList(
+                                        new Ast.Identifier("x"),
+                                        new Ast.NumberLiteral(BigDecimal.ONE)
+                                ))
+                        ))
+                )), BigDecimal.valueOf(11), Collections.singletonMap("x", BigDecimal.TEN)),
+                Arguments.of("Await Not Future", new Ast.Term("await", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.ONE)
+                )), null, Collections.emptyMap()),
+                Arguments.of("Propagates Exception", new Ast.Term("await", Arrays.asList(
+                        new Ast.Term("async", Arrays.asList(
+                                new Ast.Term("-", Arrays.asList())
+                        ))
+                )), null, Collections.emptyMap()),
+                Arguments.of("Set Is Local", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("await", Arrays.asList(
+                                new Ast.Term("async", Arrays.asList(
+                                        new Ast.Term("set!", Arrays.asList(
+                                                new Ast.Identifier("x"),
+                                                new Ast.NumberLiteral(BigDecimal.ONE)
+                                        ))
+                                ))
+                        )),
+                        new Ast.Identifier("x")
+                )), BigDecimal.TEN, Collections.singletonMap("x", BigDecimal.TEN)),
+                Arguments.of("All", new Ast.Term("all", Arrays.asList(
+                        new Ast.Term("async", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.Term("async", Arrays.asList(new Ast.StringLiteral("two")))
+                )), new LinkedList<Object>(Arrays.asList(BigDecimal.ONE, "two")), Collections.emptyMap())
+        );
+    }
+
+    @Test
+    void testAsyncFanOut() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("slow", (Function<List<Ast>, Object>) args -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new EvalException("Interrupted");
+            }
+            return BigDecimal.ONE;
+        });
+        List<Ast> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(new Ast.Term("async", Arrays.asList(new Ast.Term("slow", Arrays.asList()))));
+        }
+        long start = System.nanoTime();
+        Object result = eval(new Ast.Term("all", futures), map);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertEquals(1000, ((List<?>) result).size());
+        Assertions.assertTrue(elapsed < 5000, "Took " + elapsed + "ms");
+    }
+
+    @Test
+    void testAsyncCancel() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("block", (Function<List<Ast>, Object>) args -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                throw new EvalException("Interrupted");
+            }
+            return Interpreter.VOID;
+        });
+        test(new Ast.Term("do", Arrays.asList(
+                new Ast.Term("define", Arrays.asList(
+                        new Ast.Identifier("p"),
+                        new Ast.Term("async", Arrays.asList(new Ast.Term("block", Arrays.asList())))
+                )),
+                new Ast.Term("cancel!", Arrays.asList(new Ast.Identifier("p"))),
+                new Ast.Term("await", Arrays.asList(new Ast.Identifier("p")))
+        )), null, map);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testChannel(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testChannel() {
+        return Stream.of(
+                Arguments.of("Zero Capacity", new Ast.Term("chan", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.ZERO)
+                )), null),
+                Arguments.of("Send Receive", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("ch"), new Ast.Term("chan", Arrays.asList()))),
+                        new Ast.Term("send!", Arrays.asList(new Ast.Identifier("ch"), new Ast.StringLiteral("value"))),
+                        new Ast.Term("recv!", Arrays.asList(new Ast.Identifier("ch")))
+                )), "value"),
+                Arguments.of("Send Closed", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("ch"), new Ast.Term("chan", Arrays.asList()))),
+                        new Ast.Term("close!", Arrays.asList(new Ast.Identifier("ch"))),
+                        new Ast.Term("send!", Arrays.asList(new Ast.Identifier("ch"), new Ast.StringLiteral("value")))
+                )), null),
+                Arguments.of("Closed With Values", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("ch"), new Ast.Term("chan", Arrays.asList()))),
+                        new Ast.Term("send!", Arrays.asList(new Ast.Identifier("ch"), new Ast.StringLiteral("value"))),
+                        new Ast.Term("close!", Arrays.asList(new Ast.Identifier("ch"))),
+                        new Ast.Term("closed?", Arrays.asList(new Ast.Identifier("ch")))
+                )), true),
+                Arguments.of("Receive Closed", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("ch"), new Ast.Term("chan", Arrays.asList()))),
+                        new Ast.Term("close!", Arrays.asList(new Ast.Identifier("ch"))),
+                        new Ast.Term("recv!", Arrays.asList(new Ast.Identifier("ch")))
+                )), Interpreter.VOID),
+                Arguments.of("Producer Consumer", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("ch"), new Ast.Term("chan", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.valueOf(4))
+                        )))),
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("numbers"), new Ast.Term("range", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE),
+                                new Ast.NumberLiteral(BigDecimal.valueOf(1001))
+                        )))),
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("sum"), new Ast.NumberLiteral(BigDecimal.ZERO))),
+                        new Ast.Term("spawn", Arrays.asList(
+                                new Ast.Term("for", Arrays.asList(
+                                        new Ast.Term("i", Arrays.asList(new Ast.Identifier("numbers"))),
+                                        new Ast.Term("send!", Arrays.asList(new Ast.Identifier("ch"), new Ast.Identifier("i")))
+                                )),
+                                new Ast.Term("set!", Arrays.asList(new Ast.Identifier("sum"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                                new Ast.Term("close!", Arrays.asList(new Ast.Identifier("ch")))
+                        )),
+                        new Ast.Term("for", Arrays.asList(
+                                new Ast.Term("i", Arrays.asList(new Ast.Identifier("numbers"))),
+                                new Ast.Term("set!", Arrays.asList(new Ast.Identifier("sum"), new Ast.Term("+", Arrays.asList(
+                                        new Ast.Identifier("sum"),
+                                        new Ast.Term("recv!", Arrays.asList(new Ast.Identifier("ch")))
+                                ))))
+                        )),
+                        new Ast.Identifier("sum")
+                )), BigDecimal.valueOf(500500))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testTransaction(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testTransaction() {
+        return Stream.of(
+                Arguments.of("Deref", new Ast.Term("deref", Arrays.asList(
+                        new Ast.Term("ref", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE)))
+                )), BigDecimal.ONE),
+                Arguments.of("Alter Outside Dosync", new Ast.Term("alter!", Arrays.asList(
+                        new Ast.Term("ref", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.NumberLiteral(BigDecimal.TEN)
+                )), null),
+                Arguments.of("Alter", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("r"), new Ast.Term("ref", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE)
+                        )))),
+                        new Ast.Term("dosync", Arrays.asList(
+                                new Ast.Term("alter!", Arrays.asList(new Ast.Identifier("r"), new Ast.Term("+", Arrays.asList(
+                                        new Ast.Term("deref", Arrays.asList(new Ast.Identifier("r"))),
+                                        new Ast.NumberLiteral(BigDecimal.TEN)
+                                ))))
+                        )),
+                        new Ast.Term("deref", Arrays.asList(new Ast.Identifier("r")))
+                )), BigDecimal.valueOf(11)),
+                Arguments.of("Failed Transaction", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("r"), new Ast.Term("ref", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE)
+                        )))),
+                        new Ast.Term("dosync", Arrays.asList(
+                                new Ast.Term("alter!", Arrays.asList(new Ast.Identifier("r"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                                new Ast.Term("-", Arrays.asList())
+                        ))
+                )), null)
+        );
+    }
+
+    @Test
+    void testTransactionContention() {
+        List<Ast> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(new Ast.Term("spawn", Arrays.asList(
+                    new Ast.Term("for", Arrays.asList(
+                            new Ast.Term("i", Arrays.asList(new Ast.Identifier("numbers"))),
+                            new Ast.Term("dosync", Arrays.asList(
+                                    new Ast.Term("alter!", Arrays.asList(new Ast.Identifier("counter"), new Ast.Term("+", Arrays.asList(
+                                            new Ast.Term("deref", Arrays.asList(new Ast.Identifier("counter"))),
+                                            new Ast.NumberLiteral(BigDecimal.ONE)
+                                    ))))
+                            ))
+                    ))
+            )));
+        }
+        Map<String, Object> map = new HashMap<>();
+        Ref counter = new Ref(BigDecimal.ZERO);
+        map.put("counter", counter);
+        map.put("numbers", new LinkedList<Object>(Collections.nCopies(500, BigDecimal.ONE)));
+        long commits = Transaction.getCommits();
+        eval(new Ast.Term("all", tasks), map);
+        Assertions.assertEquals(BigDecimal.valueOf(4000), counter.get());
+        Assertions.assertTrue(Transaction.getCommits() - commits >= 4000);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testCell(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testCell() {
+        return Stream.of(
+                Arguments.of("Cell", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("x"), new Ast.Term("cell", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE)
+                        )))),
+                        new Ast.Identifier("x")
+                )), BigDecimal.ONE),
+                Arguments.of("Formula", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("x"), new Ast.Term("cell", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE)
+                        )))),
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("y"), new Ast.Term("formula", Arrays.asList(
+                                new Ast.Term("+", Arrays.asList(new Ast.Identifier("x"), new Ast.Identifier("x")))
+                        )))),
+                        new Ast.Term("set!", Arrays.asList(new Ast.Identifier("x"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                        new Ast.Identifier("y")
+                )), BigDecimal.valueOf(20)),
+                Arguments.of("Set Formula", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("y"), new Ast.Term("formula", Arrays.asList(
+                                new Ast.NumberLiteral(BigDecimal.ONE)
+                        )))),
+                        new Ast.Term("set!", Arrays.asList(new Ast.Identifier("y"), new Ast.NumberLiteral(BigDecimal.TEN)))
+                )), null)
+        );
+    }
+
+    @Test
+    void testCellRecomputesDependencyCone() {
+        int[] evaluations = new int[2];
+        Map<String, Object> map = new HashMap<>();
+        map.put("tick-a", (Function<List<Ast>, Object>) args -> { evaluations[0]++; return BigDecimal.ZERO; });
+        map.put("tick-b", (Function<List<Ast>, Object>) args -> { evaluations[1]++; return BigDecimal.ZERO; });
+        Object result = eval(new Ast.Term("do", Arrays.asList(
+                new Ast.Term("define", Arrays.asList(new Ast.Identifier("a"), new Ast.Term("cell", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.ONE)
+                )))),
+                new Ast.Term("define", Arrays.asList(new Ast.Identifier("b"), new Ast.Term("cell", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.ONE)
+                )))),
+                new Ast.Term("define", Arrays.asList(new Ast.Identifier("positive"), new Ast.Term("formula", Arrays.asList(
+                        new Ast.Term(">", Arrays.asList(new Ast.Identifier("a"), new Ast.NumberLiteral(BigDecimal.ZERO)))
+                )))),
+                new Ast.Term("define", Arrays.asList(new Ast.Identifier("from-a"), new Ast.Term("formula", Arrays.asList(
+                        new Ast.Term("and", Arrays.asList(
+                                new Ast.Identifier("positive"),
+                                new Ast.Term("equals?", Arrays.asList(new Ast.Term("tick-a", Arrays.asList()), new Ast.NumberLiteral(BigDecimal.ZERO)))
+                        ))
+                )))),
+                new Ast.Term("define", Arrays.asList(new Ast.Identifier("from-b"), new Ast.Term("formula", Arrays.asList(
+                        new Ast.Term("+", Arrays.asList(new Ast.Identifier("b"), new Ast.Term("tick-b", Arrays.asList())))
+                )))),
+                new Ast.Term("set!", Arrays.asList(new Ast.Identifier("a"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                new Ast.Term("set!", Arrays.asList(new Ast.Identifier("b"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                new Ast.Term("list", Arrays.asList(new Ast.Identifier("from-a"), new Ast.Identifier("from-b")))
+        )), map);
+        Assertions.assertEquals(Arrays.asList(true, BigDecimal.TEN), result);
+        //positive is unchanged by (set! a 10), so from-a is cut off
+        Assertions.assertArrayEquals(new int[] {1, 2}, evaluations);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testHashMap(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testHashMap() {
+        Ast map = new Ast.Term("define", Arrays.asList(new Ast.Identifier("m"), new Ast.Term("hash-map", Arrays.asList(
+                new Ast.NumberLiteral(BigDecimal.ONE), new Ast.StringLiteral("one"),
+                new Ast.StringLiteral("two"), new Ast.NumberLiteral(BigDecimal.valueOf(2))
+        ))));
+        return Stream.of(
+                Arguments.of("Odd Arguments", new Ast.Term("hash-map", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE))), null),
+                Arguments.of("Get", new Ast.Term("do", Arrays.asList(map,
+                        new Ast.Term("list", Arrays.asList(
+                                new Ast.Term("get", Arrays.asList(new Ast.Identifier("m"), new Ast.NumberLiteral(BigDecimal.ONE))),
+                                new Ast.Term("get", Arrays.asList(new Ast.Identifier("m"), new Ast.StringLiteral("two")))
+                        ))
+                )), Arrays.asList("one", BigDecimal.valueOf(2))),
+                Arguments.of("Get Missing", new Ast.Term("do", Arrays.asList(map,
+                        new Ast.Term("get", Arrays.asList(new Ast.Identifier("m"), new Ast.StringLiteral("three")))
+                )), null),
+                Arguments.of("Get Default", new Ast.Term("do", Arrays.asList(map,
+                        new Ast.Term("get", Arrays.asList(new Ast.Identifier("m"), new Ast.StringLiteral("three"), new Ast.Identifier("false")))
+                )), false),
+                Arguments.of("Put Remove", new Ast.Term("do", Arrays.asList(map,
+                        new Ast.Term("put!", Arrays.asList(new Ast.Identifier("m"), new Ast.StringLiteral("three"), new Ast.NumberLiteral(BigDecimal.TEN))),
+                        new Ast.Term("remove!", Arrays.asList(new Ast.Identifier("m"), new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.Term("list", Arrays.asList(
+                                new Ast.Term("contains?", Arrays.asList(new Ast.Identifier("m"), new Ast.NumberLiteral(BigDecimal.ONE))),
+                                new Ast.Term("get", Arrays.asList(new Ast.Identifier("m"), new Ast.StringLiteral("three")))
+                        ))
+                )), Arrays.asList(false, BigDecimal.TEN)),
+                Arguments.of("Keys", new Ast.Term("keys", Arrays.asList(new Ast.Term("hash-map", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.ONE), new Ast.StringLiteral("one")
+                )))), Arrays.asList(BigDecimal.ONE))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testArray(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testArray() {
+        Ast doubles = new Ast.Term("define", Arrays.asList(new Ast.Identifier("d"), new Ast.Term("double-array", Arrays.asList(
+                new Ast.Term("list", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE), new Ast.NumberLiteral(new BigDecimal("2.5"))))
+        ))));
+        Ast longs = new Ast.Term("define", Arrays.asList(new Ast.Identifier("l"), new Ast.Term("long-array", Arrays.asList(
+                new Ast.NumberLiteral(BigDecimal.valueOf(3))
+        ))));
+        return Stream.of(
+                Arguments.of("Get", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("list", Arrays.asList(
+                                new Ast.Term("aget", Arrays.asList(new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.ZERO))),
+                                new Ast.Term("aget", Arrays.asList(new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.ONE))),
+                                new Ast.Term("alength", Arrays.asList(new Ast.Identifier("d")))
+                        ))
+                )), Arrays.asList(BigDecimal.ONE, new BigDecimal("2.5"), BigDecimal.valueOf(2))),
+                Arguments.of("Out Of Bounds", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("aget", Arrays.asList(new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.valueOf(2))))
+                )), null),
+                Arguments.of("Set Sum", new Ast.Term("do", Arrays.asList(longs,
+                        new Ast.Term("aset!", Arrays.asList(new Ast.Identifier("l"), new Ast.NumberLiteral(BigDecimal.ZERO), new Ast.NumberLiteral(BigDecimal.TEN))),
+                        new Ast.Term("aset!", Arrays.asList(new Ast.Identifier("l"), new Ast.NumberLiteral(BigDecimal.valueOf(2)), new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.Term("asum", Arrays.asList(new Ast.Identifier("l")))
+                )), BigDecimal.valueOf(11)),
+                Arguments.of("Set Fraction In Long Array", new Ast.Term("do", Arrays.asList(longs,
+                        new Ast.Term("aset!", Arrays.asList(new Ast.Identifier("l"), new Ast.NumberLiteral(BigDecimal.ZERO), new Ast.NumberLiteral(new BigDecimal("0.5"))))
+                )), null),
+                Arguments.of("Get Infinity", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("aget", Arrays.asList(new Ast.Term("amap", Arrays.asList(
+                                new Ast.Identifier("/"), new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.ZERO)
+                        )), new Ast.NumberLiteral(BigDecimal.ZERO)))
+                )), null),
+                Arguments.of("Sum NaN", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("asum", Arrays.asList(new Ast.Term("amap", Arrays.asList(
+                                new Ast.Identifier("-"), new Ast.Term("amap", Arrays.asList(
+                                        new Ast.Identifier("/"), new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.ZERO)
+                                )), new Ast.Term("amap", Arrays.asList(
+                                        new Ast.Identifier("/"), new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.ZERO)
+                                ))
+                        ))))
+                )), null),
+                Arguments.of("Dot", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("adot", Arrays.asList(new Ast.Identifier("d"), new Ast.Identifier("d")))
+                )), new BigDecimal("7.25")),
+                Arguments.of("Dot Mixed Types", new Ast.Term("do", Arrays.asList(doubles, longs,
+                        new Ast.Term("adot", Arrays.asList(new Ast.Identifier("d"), new Ast.Identifier("l")))
+                )), null),
+                Arguments.of("Map Builtin", new Ast.Term("do", Arrays.asList(doubles,
+                        new Ast.Term("asum", Arrays.asList(new Ast.Term("amap", Arrays.asList(
+                                new Ast.Identifier("*"), new Ast.Identifier("d"), new Ast.NumberLiteral(BigDecimal.valueOf(2))
+                        ))))
+                )), BigDecimal.valueOf(7)),
+                Arguments.of("Map Function", new Ast.Term("do", Arrays.asList(longs,
+                        new Ast.Term("define", Arrays.asList(
+                                new Ast.Term("inc", Arrays.asList(new Ast.Identifier("n"))),
+                                new Ast.Term("+", Arrays.asList(new Ast.Identifier("n"), new Ast.NumberLiteral(BigDecimal.ONE)))
+                        )),
+                        new Ast.Term("asum", Arrays.asList(new Ast.Term("amap", Arrays.asList(new Ast.Identifier("inc"), new Ast.Identifier("l")))))
+                )), BigDecimal.valueOf(3))
+        );
+    }
 
+    @ParameterizedTest
+    @MethodSource
+    void testFunction(String test, Ast ast, Object expected) {
+        test(ast, expected, Collections.emptyMap());
+    }
+
+    private static Stream<Arguments> testFunction() {
+        return Stream.of(
+                Arguments.of("Call", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(
+                                new Ast.Term("add", Arrays.asList(new Ast.Identifier("x"), new Ast.Identifier("y"))),
+                                new Ast.Term("+", Arrays.asList(new Ast.Identifier("x"), new Ast.Identifier("y")))
+                        )),
+                        new Ast.Term("add", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE), new Ast.NumberLiteral(BigDecimal.TEN)))
+                )), BigDecimal.valueOf(11)),
+                Arguments.of("Recursion", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(
+                                new Ast.Term("sum", Arrays.asList(new Ast.Identifier("n"))),
+                                new Ast.Term("if", Arrays.asList(
+                                        new Ast.Term("<=", Arrays.asList(new Ast.Identifier("n"), new Ast.NumberLiteral(BigDecimal.ZERO))),
+                                        new Ast.NumberLiteral(BigDecimal.ZERO),
+                                        new Ast.Term("+", Arrays.asList(new Ast.Identifier("n"), new Ast.Term("sum", Arrays.asList(
+                                                new Ast.Term("-", Arrays.asList(new Ast.Identifier("n"), new Ast.NumberLiteral(BigDecimal.ONE)))
+                                        ))))
+                                ))
+                        )),
+                        new Ast.Term("sum", Arrays.asList(new Ast.NumberLiteral(BigDecimal.TEN)))
+                )), BigDecimal.valueOf(55)),
+                Arguments.of("Wrong Arity", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(
+                                new Ast.Term("one", Arrays.asList(new Ast.Identifier("x"))),
+                                new Ast.Identifier("x")
+                        )),
+                        new Ast.Term("one", Arrays.asList())
+                )), null),
+                Arguments.of("Memoized Builtin", new Ast.Term("do", Arrays.asList(
+                        new Ast.Term("define", Arrays.asList(new Ast.Identifier("plus"), new Ast.Term("memoize", Arrays.asList(new Ast.Identifier("+"))))),
+                        new Ast.Term("plus", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE), new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.Term("plus", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE), new Ast.NumberLiteral(BigDecimal.ONE))),
+                        new Ast.Term("memo-stats", Arrays.asList(new Ast.Identifier("plus")))
+                )), Arrays.asList(BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ONE)),
+                Arguments.of("Memoize Non Function", new Ast.Term("memoize", Arrays.asList(new Ast.NumberLiteral(BigDecimal.ONE))), null),
+                Arguments.of("Memoize Unknown Policy", new Ast.Term("memoize", Arrays.asList(
+                        new Ast.Identifier("+"), new Ast.NumberLiteral(BigDecimal.ONE), new Ast.StringLiteral("fifo")
+                )), null),
+                Arguments.of("Memoize Impure Builtin", new Ast.Term("memoize", Arrays.asList(new Ast.Identifier("print"))), null),
+                Arguments.of("Memoize Huge Size", new Ast.Term("memoize", Arrays.asList(
+                        new Ast.Identifier("+"), new Ast.NumberLiteral(BigDecimal.valueOf((1L << 32) + 1))
+                )), null)
+        );
+    }
+
+    @Test
+    void testMemoizeRecursion() throws ParseException {
+        int[] calls = new int[1];
+        Map<String, Object> map = new HashMap<>();
+        map.put("tick", (Function<List<Ast>, Object>) args -> { calls[0]++; return Interpreter.VOID; });
+        Object result = eval(new Ast.Term("do", ((Ast.Term) Parser.parse(
+                "(define (fib n) (do (tick) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))" +
+                "(set! fib (memoize fib))" +
+                "(list (fib 60) (memo-stats fib))"
+        )).getArgs()), map);
+        Assertions.assertEquals(Arrays.asList(BigDecimal.valueOf(1548008755920L),
+                Arrays.asList(BigDecimal.valueOf(58), BigDecimal.valueOf(61), BigDecimal.ZERO, BigDecimal.valueOf(61))), result);
+        Assertions.assertEquals(61, calls[0]);
+    }
+
+    @Test
+    void testShadowBuiltins() throws ParseException {
+        //the host's bindings are kept, and scripts can define over builtins
+        Scope scope = new Scope(null);
+        scope.define("get", BigDecimal.ONE);
+        scope.define("+", (Function<List<Ast>, Object>) args -> "host");
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), scope);
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(
+                "(define count 5) (define (str x) (list x)) (define (map f xs) 0)" +
+                "(list get (+ 1 2) count (str 1) (map + (list)) (into (list) (take 1 (list 7))))"
+        )).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(Arrays.asList(BigDecimal.ONE, "host", BigDecimal.valueOf(5),
+                Collections.singletonList(BigDecimal.ONE), BigDecimal.ZERO, Collections.singletonList(BigDecimal.valueOf(7))), result);
+        Assertions.assertThrows(EvalException.class, () -> interpreter.eval(((Ast.Term) Parser.parse("(define count 6)")).getArgs().get(0)));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMemoizeEviction(String test, String policy, Object expected) throws ParseException {
+        //a is used three times before b and c evict one entry
+        Object result = eval(new Ast.Term("do", ((Ast.Term) Parser.parse(
+                "(define f (memoize + 2 \"" + policy + "\"))" +
+                "(f 1) (f 1) (f 1) (f 2) (f 3) (f 1)" +
+                "(memo-stats f)"
+        )).getArgs()), Collections.emptyMap());
+        Assertions.assertEquals(expected, result);
+    }
+
+    private static Stream<Arguments> testMemoizeEviction() {
+        return Stream.of(
+                //LRU evicts 1 for 3, so the last call misses
+                Arguments.of("LRU", "lru", Arrays.asList(BigDecimal.valueOf(2), BigDecimal.valueOf(4), BigDecimal.valueOf(2), BigDecimal.valueOf(2))),
+                //LFU evicts 2 for 3, so the last call hits
+                Arguments.of("LFU", "lfu", Arrays.asList(BigDecimal.valueOf(3), BigDecimal.valueOf(3), BigDecimal.ONE, BigDecimal.valueOf(2)))
+        );
+    }
+
+    private static Object eval(Ast ast, Map<String, Object> map) {
+        Scope scope = new Scope(null);
+        map.forEach(scope::define);
+        return new Interpreter(new PrintWriter(System.out), scope).eval(ast);
+    }
 
     private static void test(Ast ast, Object expected, Map<String, Object> map) {
         Scope scope = new Scope(null);
@@ -0,0 +1,146 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+final class MetricsTests {
+
+    @Test
+    void testInterpreter() {
+        Metrics metrics = new Metrics();
+        eval("(define (sq x) (* x x)) (sq 3) (sq 4)", metrics, false);
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.getBuiltins().get("define").getCount());
+        Assertions.assertEquals(2, snapshot.getBuiltins().get("*").getCount());
+        Assertions.assertEquals(2, snapshot.getCreated().get(Metrics.Type.SCOPE));
+        Assertions.assertEquals(2, snapshot.getCreated().get(Metrics.Type.NUMBER));
+        //define, then sq, * and x twice in each call, where only * is in a parent scope
+        Assertions.assertEquals(9, snapshot.getScopeLookups());
+        Assertions.assertEquals(2, snapshot.getScopeDepthWalked());
+    }
+
+    @Test
+    void testStackEvaluator() {
+        Metrics metrics = new Metrics();
+        eval("(define (sq x) (* x x)) (sq 3) (sq 4)", metrics, true);
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(2, snapshot.getBuiltins().get("*").getCount());
+        Assertions.assertEquals(2, snapshot.getCreated().get(Metrics.Type.SCOPE));
+    }
+
+    @Test
+    void testBuckets() {
+        Assertions.assertEquals(0, Metrics.bucket(0));
+        Assertions.assertEquals(1, Metrics.bucket(1));
+        Assertions.assertEquals(10, Metrics.bucket(1000));
+        Assertions.assertEquals(Metrics.BUCKETS - 1, Metrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testPercentile() {
+        Metrics metrics = new Metrics();
+        Metrics.Recorder recorder = metrics.recorder();
+        for (int i = 0; i < 100; i++) {
+            recorder.started("f");
+        }
+        for (int i = 0; i < 99; i++) {
+            recorder.timed("f", 1000);
+        }
+        recorder.timed("f", 1_000_000);
+        Metrics.Builtin builtin = metrics.snapshot().getBuiltins().get("f");
+        Assertions.assertEquals(100, builtin.getCount());
+        Assertions.assertEquals(100, builtin.getTimed());
+        Assertions.assertEquals((99 * 1000 + 1_000_000) / 100, builtin.getMeanNanos());
+        Assertions.assertEquals(1023, builtin.getPercentile(0.5));
+        Assertions.assertEquals(1023, builtin.getPercentile(0.99));
+        Assertions.assertEquals((1 << 20) - 1, builtin.getPercentile(1));
+    }
+
+    @Test
+    void testStripes() throws Exception {
+        Metrics metrics = new Metrics();
+        Thread[] threads = new Thread[8];
+        //half the threads share a recorder, the rest have their own, and
+        //each records into a stripe of its own either way
+        Metrics.Recorder shared = metrics.recorder();
+        for (int i = 0; i < threads.length; i++) {
+            Metrics.Recorder recorder = i % 2 == 0 ? shared : metrics.recorder();
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    recorder.finished("f", recorder.started("f"));
+                    recorder.lookedUp(1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(80_000, metrics.getBuiltinCalls().get("f"));
+        //the first of every 16 calls in each thread is timed, and each thread
+        //makes a multiple of 16
+        Assertions.assertEquals(80_000 / Metrics.TIMING_INTERVAL, metrics.snapshot().getBuiltins().get("f").getTimed());
+        Assertions.assertEquals(80_000, metrics.getScopeLookups());
+        Assertions.assertEquals(80_000, metrics.getScopeDepthWalked());
+        //a new thread's stripe retires the ended threads' without losing counts
+        shared.started("f");
+        Assertions.assertEquals(80_001, metrics.getBuiltinCalls().get("f"));
+        metrics.reset();
+        Assertions.assertTrue(metrics.getBuiltinCalls().isEmpty());
+    }
+
+    @Test
+    void testAllocationFree() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Metrics.Recorder metrics = new Metrics().recorder();
+        Object value = BigDecimal.ONE;
+        for (int i = 0; i < 100_000; i++) {
+            metrics.finished("f", metrics.started("f"));
+            metrics.lookedUp(i & 3);
+            metrics.created(value);
+        }
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 100_000; i++) {
+            metrics.finished("f", metrics.started("f"));
+            metrics.lookedUp(i & 3);
+            metrics.created(value);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        Assertions.assertTrue(allocated < 1024, allocated + " bytes");
+    }
+
+    @Test
+    void testMBean() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recorder().lookedUp(0);
+        ObjectName name = metrics.register("MetricsTests");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assertions.assertEquals(1L, server.getAttribute(name, "ScopeLookups"));
+            Assertions.assertThrows(IllegalStateException.class, () -> metrics.register("MetricsTests"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static void eval(String source, Metrics metrics, boolean stack) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.setMetrics(metrics);
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            if (stack) {
+                evaluator.eval(form);
+            } else {
+                interpreter.eval(form);
+            }
+        }
+    }
+
+}
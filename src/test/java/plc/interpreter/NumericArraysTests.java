@@ -0,0 +1,45 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+final class NumericArraysTests {
+
+    @Test
+    void testLongSumIsExact() {
+        long[] array = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, -1, 5};
+        BigInteger expected = BigInteger.ZERO;
+        for (long element : array) {
+            expected = expected.add(BigInteger.valueOf(element));
+        }
+        Assertions.assertEquals(expected, NumericArrays.sum(array));
+    }
+
+    @Test
+    void testLongDotIsExact() {
+        long[] array = {Long.MAX_VALUE, 3};
+        BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).pow(2).add(BigInteger.valueOf(9));
+        Assertions.assertEquals(expected, NumericArrays.dot(array, array));
+    }
+
+    @Test
+    void testLongOverflow() {
+        long[] array = {1, Long.MAX_VALUE};
+        Assertions.assertArrayEquals(new long[] {2, Long.MAX_VALUE}, NumericArrays.apply('+', new long[] {1, Long.MAX_VALUE - 1}, 1L));
+        Assertions.assertThrows(EvalException.class, () -> NumericArrays.apply('+', array, 1L));
+        Assertions.assertThrows(EvalException.class, () -> NumericArrays.apply('-', new long[] {Long.MIN_VALUE}, 1L));
+        Assertions.assertThrows(EvalException.class, () -> NumericArrays.apply('*', array, array));
+        Assertions.assertThrows(EvalException.class, () -> NumericArrays.negate(new long[] {Long.MIN_VALUE}));
+    }
+
+    @Test
+    void testDoubleApply() {
+        double[] array = {1, 2, 3};
+        Assertions.assertArrayEquals(new double[] {2, 4, 6}, NumericArrays.apply('+', array, array));
+        Assertions.assertArrayEquals(new double[] {0.5, 1, 1.5}, NumericArrays.apply('/', array, 2.0));
+        Assertions.assertEquals(14, NumericArrays.dot(array, array));
+    }
+
+}
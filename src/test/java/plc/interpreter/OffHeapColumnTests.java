@@ -0,0 +1,105 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+final class OffHeapColumnTests {
+
+    @Test
+    void testSpill() throws IOException {
+        //one chunk in memory, the rest in the file
+        try (OffHeapColumn column = new OffHeapColumn(1 << 20)) {
+            int length = 1_000_000;
+            for (int i = 0; i < length; i++) {
+                column.append(i);
+            }
+            Assertions.assertTrue(column.isSpilled());
+            Assertions.assertEquals(length, column.length());
+            Assertions.assertEquals((double) length * (length - 1) / 2, column.sum());
+            Assertions.assertEquals(0, column.min());
+            Assertions.assertEquals(length - 1, column.max());
+            Assertions.assertEquals(length / 2, column.countIf(value -> value % 2 == 0));
+            column.set(length - 1, -1);
+            Assertions.assertEquals(-1, column.get(length - 1));
+            Assertions.assertEquals(-1, column.min());
+        }
+    }
+
+    @Test
+    void testOutOfBounds() {
+        OffHeapColumn column = new OffHeapColumn();
+        column.append(1);
+        Assertions.assertThrows(EvalException.class, () -> column.get(1));
+        Assertions.assertThrows(EvalException.class, () -> new OffHeapColumn().max());
+    }
+
+    @Test
+    void testBuiltins() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(
+                "(define c (column (list 4 8 15 16 23)))" +
+                "(col-append! c 42)" +
+                "(col-set! c 0 5)" +
+                "(define (even n) (equals? (* 2 (/ n 2)) n))" +
+                "(list (col-length c) (col-get c 0) (col-sum c) (col-min c) (col-max c)" +
+                "      (col-count-if c > 15) (col-count-if c even))"
+        )).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(Arrays.asList(BigDecimal.valueOf(6), BigDecimal.valueOf(5), BigDecimal.valueOf(109),
+                BigDecimal.valueOf(5), BigDecimal.valueOf(42), BigDecimal.valueOf(3), BigDecimal.valueOf(3)), result);
+    }
+
+    @Test
+    void testBuiltinIndices() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.eval(((Ast.Term) Parser.parse("(define c (column (list 1 2)))")).getArgs().get(0));
+        //fractional and huge indices aren't truncated to a valid one
+        for (String source : Arrays.asList("(col-get c 0.5)", "(col-get c 18446744073709551616)", "(col-set! c 1.5 0)", "(col-get c -1)")) {
+            Ast ast = ((Ast.Term) Parser.parse(source)).getArgs().get(0);
+            Assertions.assertThrows(EvalException.class, () -> interpreter.eval(ast), source);
+        }
+    }
+
+    @Test
+    void testBuiltinClose() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        for (Ast form : ((Ast.Term) Parser.parse("(define c (column (list 1 2))) (col-close! c) (col-close! c)")).getArgs()) {
+            interpreter.eval(form);
+        }
+        for (String source : Arrays.asList("(col-get c 0)", "(col-append! c 3)", "(col-sum c)", "(col-close! 1)")) {
+            Ast ast = ((Ast.Term) Parser.parse(source)).getArgs().get(0);
+            Assertions.assertThrows(EvalException.class, () -> interpreter.eval(ast), source);
+        }
+    }
+
+    @Test
+    void testCloseDeletesSpillFile() throws IOException {
+        OffHeapColumn column = new OffHeapColumn(0);
+        column.append(1);
+        Assertions.assertTrue(column.isSpilled());
+        column.close();
+        Assertions.assertTrue(column.isClosed());
+        Assertions.assertFalse(column.isSpilled());
+        Assertions.assertThrows(EvalException.class, () -> column.get(0));
+    }
+
+    @Test
+    void testBuiltinNonFinite() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.eval(((Ast.Term) Parser.parse("(define c (column (amap / (double-array (list 1 -1)) 0)))")).getArgs().get(0));
+        //infinities have no decimal value, so reading them is an error rather than a crash
+        for (String source : Arrays.asList("(col-get c 0)", "(col-sum c)", "(col-min c)", "(col-max c)")) {
+            Ast ast = ((Ast.Term) Parser.parse(source)).getArgs().get(0);
+            Assertions.assertThrows(EvalException.class, () -> interpreter.eval(ast), source);
+        }
+    }
+
+}
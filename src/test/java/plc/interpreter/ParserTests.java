@@ -73,6 +73,14 @@ final class ParserTests {
                                 new Ast.Term("f", Arrays.asList(new Ast.Identifier("x")))
                         ))
                 )),
+                Arguments.of("Nested Closing Together", "(f (g (h x)) y)", Arrays.asList(
+                        new Ast.Term("f", Arrays.asList(
+                                new Ast.Term("g", Arrays.asList(
+                                        new Ast.Term("h", Arrays.asList(new Ast.Identifier("x")))
+                                )),
+                                new Ast.Identifier("y")
+                        ))
+                )),
                 Arguments.of("Missing Identifier", "()", null),
                 Arguments.of("EOI After Start", "(", null),
                 Arguments.of("EOI After Identifier", "(print", null),
@@ -0,0 +1,80 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+final class PipelineTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testPipeline(String test, String source, Object expected) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        long[] reads = new long[1];
+        interpreter.scope.define("naturals", (Iterable<Object>) () -> new Naturals(reads));
+        interpreter.scope.define("reads", reads);
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(
+                "(define (square x) (* x x))" +
+                "(define (odd x) (not (equals? (* 2 (/ x 2)) x)))" + source
+        )).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(expected, result);
+    }
+
+    private static Stream<Arguments> testPipeline() {
+        return Stream.of(
+                Arguments.of("Map", "(into (list) (map square (range 1 5)))", numbers(1, 4, 9, 16)),
+                Arguments.of("Filter", "(into (list 0) (filter odd (list 2 3 5 6 7)))", numbers(0, 3, 5, 7)),
+                Arguments.of("Take Drop", "(into (list) (take 2 (drop 3 (range 0 10))))", numbers(3, 4)),
+                Arguments.of("Partition", "(into (list) (partition 2 (range 0 5)))",
+                        Arrays.asList(numbers(0, 1), numbers(2, 3), numbers(4))),
+                Arguments.of("Reduce", "(reduce + 0 (map square (filter odd (range 0 10))))", BigDecimal.valueOf(165)),
+                Arguments.of("Count", "(count (filter odd (range 0 10)))", BigDecimal.valueOf(5)),
+                Arguments.of("Array Source", "(reduce + 0 (map square (long-array (list 1 2 3))))", BigDecimal.valueOf(14)),
+                Arguments.of("Into Map", "(get (into (hash-map) (partition 2 (list \"a\" 1 \"b\" 2))) \"b\")", BigDecimal.valueOf(2)),
+                //an infinite host iterable, which take stops reading
+                Arguments.of("Infinite Source", "(into (list) (take 3 (filter odd (map square naturals))))", numbers(1, 9, 25)),
+                Arguments.of("Stops Early", "(do (count (take 3 naturals)) (aget reads 0))", BigDecimal.valueOf(3)),
+                Arguments.of("Take None", "(do (count (take 0 (map square naturals))) (aget reads 0))", BigDecimal.ZERO),
+                Arguments.of("Take None Partition", "(into (list) (partition 2 (take 0 naturals)))", numbers())
+        );
+    }
+
+    private static Object numbers(int... values) {
+        return Arrays.stream(values).mapToObj(BigDecimal::valueOf).collect(Collectors.toList());
+    }
+
+    private static final class Naturals implements Iterator<Object> {
+
+        private final long[] reads;
+        private long next = 0;
+
+        private Naturals(long[] reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public Object next() {
+            reads[0]++;
+            return BigDecimal.valueOf(next++);
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+final class PreparedScriptTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testEval(String test, String source, Object[] bindings, Object expected, boolean fallback) {
+        PreparedScript script = PreparedScript.prepare(source, "price", "qty");
+        Assertions.assertEquals(fallback, script.usesFallback());
+        if (expected != null) {
+            Assertions.assertEquals(expected, script.eval(bindings));
+        } else {
+            Assertions.assertThrows(EvalException.class, () -> script.eval(bindings));
+        }
+    }
+
+    private static Stream<Arguments> testEval() {
+        return Stream.of(
+                Arguments.of("Arithmetic", "(* price qty)",
+                        new Object[] {BigDecimal.valueOf(3), BigDecimal.TEN}, BigDecimal.valueOf(30), false),
+                Arguments.of("Comparison", "(and (> qty 5) (not (equals? price 0)))",
+                        new Object[] {BigDecimal.ONE, BigDecimal.TEN}, true, false),
+                Arguments.of("Short Circuit", "(or true undefined)",
+                        new Object[] {BigDecimal.ONE, BigDecimal.TEN}, true, true),
+                Arguments.of("Type Error", "(+ price qty)",
+                        new Object[] {"one", BigDecimal.TEN}, null, false),
+                Arguments.of("Missing Binding", "(+ price qty)",
+                        new Object[] {BigDecimal.ONE}, null, false),
+                Arguments.of("Define", "(define total (* price qty)) (+ total 1)",
+                        new Object[] {BigDecimal.valueOf(2), BigDecimal.valueOf(3)}, BigDecimal.valueOf(7), true),
+                Arguments.of("Set Parameter", "(set! price 5) (* price qty)",
+                        new Object[] {BigDecimal.valueOf(2), BigDecimal.valueOf(3)}, BigDecimal.valueOf(15), true),
+                Arguments.of("Define Builtin", "(define (list x) (* x 2)) (list price)",
+                        new Object[] {BigDecimal.ONE, BigDecimal.TEN}, BigDecimal.valueOf(2), true),
+                Arguments.of("Define Operator", "(define (and x y) (+ x y)) (and price qty)",
+                        new Object[] {BigDecimal.ONE, BigDecimal.TEN}, BigDecimal.valueOf(11), true)
+        );
+    }
+
+    @Test
+    void testHostBuiltin() {
+        Scope scope = new Scope(null);
+        scope.define("+", (Function<List<Ast>, Object>) args -> "host");
+        PreparedScript script = PreparedScript.prepare(((Ast.Term) Parser.parse("(+ price qty)")).getArgs().get(0),
+                Arrays.asList("price", "qty"), scope, new PrintWriter(new StringWriter()));
+        Assertions.assertTrue(script.usesFallback());
+        Assertions.assertEquals("host", script.eval(BigDecimal.ONE, BigDecimal.TEN));
+    }
+
+    @Test
+    void testBatch() {
+        PreparedScript script = PreparedScript.prepare("(define total (* price qty)) (< total 100)", "price", "qty");
+        Object[][] records = new Object[1000][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new Object[] {BigDecimal.valueOf(i), BigDecimal.TEN};
+        }
+        Object[] results = script.evalBatch(records);
+        for (int i = 0; i < records.length; i++) {
+            Assertions.assertEquals(i < 10, results[i]);
+        }
+        Assertions.assertTrue(script.getRecordsPerSecond() > 0);
+    }
+
+}
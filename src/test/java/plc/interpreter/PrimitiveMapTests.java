@@ -0,0 +1,64 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+final class PrimitiveMapTests {
+
+    @Test
+    void testLongKeys() {
+        check(random -> BigDecimal.valueOf(random.nextInt(2000) - 1000));
+    }
+
+    @Test
+    void testStringKeys() {
+        check(random -> "key" + random.nextInt(2000));
+    }
+
+    @Test
+    void testMixedKeys() {
+        //starts with integer keys, then switches layout
+        check(random -> random.nextInt(4) == 0 ? "key" + random.nextInt(500) : BigDecimal.valueOf(random.nextInt(1500)));
+    }
+
+    @Test
+    void testScaleDistinguishesKeys() {
+        PrimitiveMap map = new PrimitiveMap();
+        map.put(BigDecimal.ONE, "one");
+        map.put(new BigDecimal("1.0"), "one point zero");
+        Assertions.assertEquals(2, map.size());
+        Assertions.assertEquals("one", map.get(BigDecimal.ONE));
+        Assertions.assertEquals("one point zero", map.get(new BigDecimal("1.0")));
+    }
+
+    private static void check(java.util.function.Function<Random, Object> keys) {
+        Random random = new Random(0);
+        PrimitiveMap map = new PrimitiveMap();
+        Map<Object, Object> expected = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            Object key = keys.apply(random);
+            switch (random.nextInt(3)) {
+                case 0:
+                    Assertions.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    expected.put(key, i);
+                    map.put(key, i);
+            }
+            Assertions.assertEquals(expected.get(key), map.get(key));
+        }
+        Assertions.assertEquals(expected.size(), map.size());
+        Assertions.assertEquals(expected.keySet(), new HashSet<>(map.keys()));
+        for (Map.Entry<Object, Object> entry : expected.entrySet()) {
+            Assertions.assertTrue(map.containsKey(entry.getKey()));
+            Assertions.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+}
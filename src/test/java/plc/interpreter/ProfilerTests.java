@@ -0,0 +1,82 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+final class ProfilerTests {
+
+    private static final String PROBED = "(define (f) (probe)) (f)";
+
+    @Test
+    void testSample() {
+        Profiler profiler = new Profiler();
+        Interpreter interpreter = interpreter(profiler);
+        profiler.attach(interpreter);
+        evalAll(interpreter, PROBED, false);
+        Assertions.assertEquals(Collections.singletonMap("f@21;probe@12", 1L), profiler.getSamples());
+    }
+
+    @Test
+    void testStackEvaluator() {
+        Profiler profiler = new Profiler();
+        Interpreter interpreter = interpreter(profiler);
+        profiler.attach(interpreter);
+        evalAll(interpreter, "(define (g x) (if (equals? x 0) (probe) (g (- x 1)))) (g 2)", true);
+        //the if in each body is replaced by the branch it takes
+        Assertions.assertEquals(Collections.singletonMap("g@54;g@40;g@40;probe@32", 1L), profiler.getSamples());
+    }
+
+    @Test
+    void testDetach() {
+        Profiler profiler = new Profiler();
+        Interpreter interpreter = interpreter(profiler);
+        profiler.attach(interpreter);
+        profiler.detach(interpreter);
+        evalAll(interpreter, PROBED, false);
+        Assertions.assertTrue(profiler.getSamples().isEmpty());
+    }
+
+    @Test
+    void testSampler() throws Exception {
+        Profiler profiler = new Profiler(100, TimeUnit.MICROSECONDS);
+        Interpreter interpreter = interpreter(profiler);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        interpreter.scope.define("busy", (Function<List<Ast>, Object>) args -> System.nanoTime() < end);
+        profiler.attach(interpreter);
+        profiler.start();
+        evalAll(interpreter, "(while (busy) (+ 1 2))", false);
+        profiler.stop();
+        Assertions.assertFalse(profiler.getSamples().isEmpty());
+        StringWriter collapsed = new StringWriter();
+        profiler.writeCollapsed(collapsed);
+        Assertions.assertTrue(collapsed.toString().matches("(while@0(;\\S+)? \\d+\n)+"), collapsed.toString());
+    }
+
+    private static Interpreter interpreter(Profiler profiler) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.scope.define("probe", (Function<List<Ast>, Object>) args -> {
+            profiler.sample();
+            return Interpreter.VOID;
+        });
+        return interpreter;
+    }
+
+    private static void evalAll(Interpreter interpreter, String source, boolean stack) {
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            if (stack) {
+                evaluator.eval(form);
+            } else {
+                interpreter.eval(form);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Function;
+
+final class ResultCacheTests {
+
+    private static final String SCRIPT = "(define (square x) (* x x))" +
+            "(define total (+ (slow) (square base)))" +
+            "(define names (list \"a\" (> total 0) (- 1.50)))" +
+            "(list total names)";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWarmRerunSkipsEvaluation() throws IOException {
+        Path file = directory.resolve("results");
+        int[] calls = new int[1];
+        Object cold, warm;
+        try (ResultCache cache = new ResultCache(file)) {
+            cold = run(cache, SCRIPT, 12, calls);
+            Assertions.assertEquals(2, cache.size());
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            warm = run(cache, SCRIPT, 12, calls);
+            Assertions.assertEquals(2, cache.getHits());
+            Assertions.assertEquals(0, cache.getMisses());
+        }
+        Assertions.assertEquals(cold, warm);
+        Assertions.assertEquals(1, calls[0]);
+    }
+
+    @Test
+    void testChangedInputMisses() throws IOException {
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(directory.resolve("results"))) {
+            Object first = run(cache, SCRIPT, 12, calls);
+            Object second = run(cache, SCRIPT, 13, calls);
+            Assertions.assertNotEquals(first, second);
+            Assertions.assertEquals(2, calls[0]);
+        }
+    }
+
+    @Test
+    void testImpureFormNotCached() throws IOException {
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(directory.resolve("results"))) {
+            run(cache, "(define x (do (print \"x\") (slow)))", 0, calls);
+            run(cache, "(define x (do (print \"x\") (slow)))", 0, calls);
+            Assertions.assertEquals(0, cache.size());
+            Assertions.assertEquals(2, calls[0]);
+        }
+    }
+
+    @Test
+    void testRedefinedBuiltinNotCached() throws IOException {
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(directory.resolve("results"))) {
+            for (int run = 0; run < 2; run++) {
+                //the host's + has a side effect, so isn't the pure builtin
+                Scope scope = new Scope(null);
+                scope.define("+", (Function<List<Ast>, Object>) args -> BigDecimal.valueOf(++calls[0]));
+                Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), scope);
+                interpreter.setResultCache(cache);
+                interpreter.eval(((Ast.Term) Parser.parse("(define x (+ 1 2))")).getArgs().get(0));
+            }
+            Assertions.assertEquals(0, cache.size());
+            Assertions.assertEquals(2, calls[0]);
+        }
+    }
+
+    @Test
+    void testFullFileStoresNoMore() throws IOException {
+        int[] calls = new int[1];
+        long size;
+        try (ResultCache cache = new ResultCache(directory.resolve("unbounded"))) {
+            run(cache, SCRIPT, 12, calls);
+            size = cache.getFileSize();
+        }
+        Path file = directory.resolve("results");
+        try (ResultCache cache = new ResultCache(file, size - 1)) {
+            Object result = run(cache, SCRIPT, 12, calls);
+            Assertions.assertEquals(1, cache.size());
+            Assertions.assertTrue(cache.getFileSize() < size);
+            Assertions.assertEquals(result, run(cache, SCRIPT, 12, calls));
+        }
+        try (ResultCache cache = new ResultCache(file, size - 1)) {
+            Assertions.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    void testCompactDropsUnusedEntries() throws IOException {
+        Path file = directory.resolve("results");
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 1, calls);
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 2, calls);
+            Assertions.assertEquals(4, cache.size());
+            long before = cache.getFileSize();
+            Assertions.assertEquals(2, cache.compact());
+            Assertions.assertEquals(2, cache.size());
+            Assertions.assertTrue(cache.getFileSize() < before);
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 2, calls);
+            Assertions.assertEquals(2, cache.getHits());
+        }
+        Assertions.assertEquals(2, calls[0]);
+    }
+
+    @Test
+    void testCompactTracksUseSinceCompacting() throws IOException {
+        Path file = directory.resolve("results");
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 1, calls);
+            Assertions.assertEquals(0, cache.compact());
+            //nothing has been read or stored since the last compaction
+            Assertions.assertEquals(2, cache.compact());
+            Assertions.assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void testCachedListsAreHashed() throws IOException {
+        Path file = directory.resolve("results");
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 12, calls);
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            Object names = run(cache, SCRIPT + "names", 12, calls);
+            Assertions.assertEquals(1, calls[0]);
+            Assertions.assertTrue(names instanceof HashedList);
+        }
+    }
+
+    @Test
+    void testTornRecordTruncated() throws IOException {
+        Path file = directory.resolve("results");
+        int[] calls = new int[1];
+        try (ResultCache cache = new ResultCache(file)) {
+            run(cache, SCRIPT, 12, calls);
+        }
+        long size = Files.size(file);
+        Files.write(file, new byte[] {1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        try (ResultCache cache = new ResultCache(file)) {
+            Assertions.assertEquals(2, cache.size());
+            Assertions.assertEquals(size, cache.getFileSize());
+        }
+    }
+
+    private static Object run(ResultCache cache, String source, int base, int[] calls) {
+        cache.declarePure("slow", () -> "v1");
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        interpreter.setResultCache(cache);
+        interpreter.scope.define("base", BigDecimal.valueOf(base));
+        interpreter.scope.define("slow", (Function<List<Ast>, Object>) args -> {
+            calls[0]++;
+            return BigDecimal.ONE;
+        });
+        Object result = Interpreter.VOID;
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        return result;
+    }
+
+}
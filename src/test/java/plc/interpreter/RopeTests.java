@@ -0,0 +1,80 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+final class RopeTests {
+
+    @Test
+    void testRepeatedAppend() throws IOException {
+        CharSequence rope = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            rope = Rope.concat(rope, "piece " + i + ";");
+            expected.append("piece ").append(i).append(';');
+        }
+        Assertions.assertTrue(rope instanceof Rope);
+        Assertions.assertEquals(expected.length(), rope.length());
+        StringWriter streamed = new StringWriter();
+        ((Rope) rope).writeTo(streamed);
+        Assertions.assertEquals(expected.toString(), streamed.toString());
+        Assertions.assertEquals(expected.toString(), rope.toString());
+        Assertions.assertEquals(expected.charAt(123_456), rope.charAt(123_456));
+    }
+
+    @Test
+    void testShortConcatenationIsString() {
+        Assertions.assertEquals("ab", Rope.concat("a", "b"));
+    }
+
+    @Test
+    void testListsAndMaps() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(
+                "(define long \"\")" +
+                "(define i 0)" +
+                "(while (< i 200) (do (set! long (str-append long \"abcd\")) (set! i (+ i 1))))" +
+                "(define m (hash-map))" +
+                "(put! m long 1)" +
+                "(list (equals? (list long) (list (str long)))" +
+                "      (get m (substring long 0 800))" +
+                "      (equals? (into (list) (list long)) (list (substring long 0 800))))"
+        )).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(Arrays.asList(true, BigDecimal.ONE, true), result);
+        CharSequence rope = Rope.concat(String.join("", java.util.Collections.nCopies(600, "a")), "b");
+        Assertions.assertTrue(rope instanceof Rope);
+        Assertions.assertEquals(rope.toString().hashCode(), Primitives.list(Arrays.asList(rope)).get(0).hashCode());
+        Assertions.assertEquals(rope.toString(), Primitives.list(Arrays.asList(rope)).get(0));
+    }
+
+    @Test
+    void testBuiltins() {
+        StringWriter out = new StringWriter();
+        Interpreter interpreter = new Interpreter(new PrintWriter(out, true), new Scope(null));
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(
+                "(define s \"\")" +
+                "(define i 0)" +
+                "(while (< i 200) (do (set! s (str-append s \"ab\" \"cd\")) (set! i (+ i 1))))" +
+                "(define parts (str-split (str \"x=\" 1 \",y=\" 2) \",\"))" +
+                "(print (substring s 0 6))" +
+                "(list (str-length s) (substring s 798) (equals? (substring s 0 4) \"abcd\")" +
+                "      parts (str-join \"&\" parts))"
+        )).getArgs()) {
+            result = interpreter.eval(form);
+        }
+        Assertions.assertEquals(Arrays.asList(BigDecimal.valueOf(800), "cd", true,
+                Arrays.asList("x=1", "y=2"), "x=1&y=2"), result);
+        Assertions.assertEquals("abcdab" + System.lineSeparator(), out.toString());
+    }
+
+}
@@ -0,0 +1,91 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+final class RuleSetTests {
+
+    private static final List<String> RULES = Arrays.asList(
+            "(> (* price qty) 100)",
+            "(and (> age 18) (> (* price qty) 50))",
+            "(or (> age 18) (undefined))",
+            "(+ (* price qty) (* price qty) (tick))",
+            "(define total (* price qty)) (set! price 0) (+ total price)",
+            "(- (* price qty))",
+            "(* price qty)"
+    );
+
+    @Test
+    void testSameResultsAsInterpreter() {
+        RuleSet rules = new RuleSet(new PrintWriter(new StringWriter()));
+        RULES.forEach(rules::add);
+        for (int age : new int[] {10, 30}) {
+            Object[] results = rules.evaluate(input(age, new int[1]));
+            for (int i = 0; i < RULES.size(); i++) {
+                Object expected;
+                try {
+                    Ast.Term source = (Ast.Term) Parser.parse(RULES.get(i));
+                    Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+                    input(age, new int[1]).forEach(interpreter.scope::define);
+                    expected = Interpreter.VOID;
+                    for (Ast form : source.getArgs()) {
+                        expected = interpreter.eval(form);
+                    }
+                } catch (EvalException e) {
+                    Assertions.assertTrue(results[i] instanceof EvalException, RULES.get(i));
+                    continue;
+                }
+                Assertions.assertEquals(expected, results[i], RULES.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testSharedSubterms() {
+        RuleSet rules = new RuleSet(new PrintWriter(new StringWriter()));
+        int[] ticks = new int[1];
+        rules.add("(> (* price qty) (tick))");
+        rules.add("(< (* price qty) (* 2 (tick)))");
+        rules.add("(equals? (* price qty) 30)");
+        Assertions.assertTrue(rules.getNodeCount() < rules.getTermCount());
+        Object[] results = rules.evaluate(input(20, ticks));
+        Assertions.assertArrayEquals(new Object[] {true, false, true}, results);
+        //opaque terms are evaluated for each occurrence
+        Assertions.assertEquals(2, ticks[0]);
+    }
+
+    @Test
+    void testIsolatedDefinitions() {
+        RuleSet rules = new RuleSet(new PrintWriter(new StringWriter()));
+        rules.add("(define y 5)");
+        rules.add("(if true y 0)");
+        rules.add("y");
+        Object[] results = rules.evaluate(input(20, new int[1]));
+        //a definition in an isolated rule isn't visible to the later rules
+        Assertions.assertEquals(Interpreter.VOID, results[0]);
+        Assertions.assertTrue(results[1] instanceof EvalException);
+        Assertions.assertTrue(results[2] instanceof EvalException);
+    }
+
+    private static Map<String, Object> input(int age, int[] ticks) {
+        Map<String, Object> input = new HashMap<>();
+        input.put("price", BigDecimal.valueOf(3));
+        input.put("qty", BigDecimal.TEN);
+        input.put("age", BigDecimal.valueOf(age));
+        input.put("tick", (Function<List<Ast>, Object>) args -> {
+            ticks[0]++;
+            return BigDecimal.TEN;
+        });
+        return input;
+    }
+
+}
@@ -0,0 +1,72 @@
+package plc.interpreter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.stream.Stream;
+
+final class StackEvaluatorTests {
+
+    private static final String DOWN = "(define (down n) (if (equals? n 0) 0 (+ 1 (down (- n 1)))))";
+
+    @ParameterizedTest
+    @MethodSource
+    void testSameResult(String test, String source) {
+        Assertions.assertEquals(eval(source, false), eval(source, true));
+    }
+
+    private static Stream<Arguments> testSameResult() {
+        return Stream.of(
+                Arguments.of("Arithmetic", "(+ 1 (* 2 3) (- 10 4))"),
+                Arguments.of("Recursion", "(define (fib n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))) (fib 15)"),
+                Arguments.of("Loop", "(define i 0) (define sum 0) (while (< i 10) (do (set! sum (+ sum i)) (set! i (+ i 1)))) sum"),
+                Arguments.of("Short Circuit", "(and true (or false (equals? 1 1)) (not false))"),
+                Arguments.of("Do Scope", "(define x 1) (do (define x 2) x)"),
+                Arguments.of("List", "(list 1 (+ 1 1) \"three\")"),
+                Arguments.of("Memoized", "(define (sq n) (* n n)) (define msq (memoize sq)) (+ (msq 3) (msq 3))"),
+                Arguments.of("Pipeline", "(define (twice x) (* x 2)) (into (list) (map twice (range 0 3)))"),
+                Arguments.of("For", "(define total 0) (define xs (list 1 2 3)) (for (x xs) (set! total (+ total x))) total")
+        );
+    }
+
+    @Test
+    void testDeepRecursion() {
+        Assertions.assertEquals(BigDecimal.valueOf(100_000), eval(DOWN + "(down 100000)", true));
+    }
+
+    @Test
+    void testDepthLimit() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        StackEvaluator evaluator = new StackEvaluator(interpreter, 1000);
+        Scope scope = interpreter.scope;
+        evaluator.eval(((Ast.Term) Parser.parse(DOWN)).getArgs().get(0));
+        EvalException exception = Assertions.assertThrows(EvalException.class,
+                () -> evaluator.eval(((Ast.Term) Parser.parse("(down 1000)")).getArgs().get(0)));
+        Assertions.assertTrue(exception.getMessage().contains("maximum depth"));
+        //the evaluator and interpreter are left as they were
+        Assertions.assertSame(scope, interpreter.scope);
+        Assertions.assertEquals(BigDecimal.TEN, evaluator.eval(((Ast.Term) Parser.parse("(down 10)")).getArgs().get(0)));
+    }
+
+    @Test
+    void testError() {
+        Assertions.assertThrows(EvalException.class, () -> eval("(+ 1 (undefined))", true));
+    }
+
+    private static Object eval(String source, boolean stack) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null));
+        StackEvaluator evaluator = new StackEvaluator(interpreter);
+        Object result = null;
+        for (Ast form : ((Ast.Term) Parser.parse(source)).getArgs()) {
+            result = stack ? evaluator.eval(form) : interpreter.eval(form);
+        }
+        return result;
+    }
+
+}